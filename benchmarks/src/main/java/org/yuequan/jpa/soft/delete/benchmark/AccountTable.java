@@ -0,0 +1,144 @@
+package org.yuequan.jpa.soft.delete.benchmark;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.springframework.boot.SpringApplication;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.orm.jpa.SharedEntityManagerCreator;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.yuequan.jpa.soft.delete.benchmark.entity.Account;
+import org.yuequan.jpa.soft.delete.benchmark.repository.PlainAccountRepository;
+import org.yuequan.jpa.soft.delete.benchmark.repository.SoftDeleteAccountRepository;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Supplier;
+
+/**
+ * The {@code accounts} table shared by all benchmarks, filled with {@link #rows} rows of which the share given by
+ * {@link #deletedRatio} is soft deleted. Rows are spread so that deleted and live rows interleave, and carry a few
+ * profile columns so entity reads pay for a realistically wide row.
+ */
+@State(Scope.Benchmark)
+public class AccountTable {
+
+    private static final int INSERT_BATCH_SIZE = 10_000;
+    private static final String BIO = String.join(" ", Collections.nCopies(40, "lorem ipsum"));
+
+    @Param({"1000", "10000", "100000", "1000000"})
+    public int rows;
+
+    @Param({"0.0", "0.5", "0.9"})
+    public double deletedRatio;
+
+    public SoftDeleteAccountRepository softDeleteRepository;
+    public PlainAccountRepository plainRepository;
+    public EntityManager entityManager;
+
+    private ConfigurableApplicationContext context;
+    private TransactionTemplate transactionTemplate;
+    private int deletedPerHundred;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        context = SpringApplication.run(BenchmarkApplication.class, getArguments());
+        softDeleteRepository = context.getBean(SoftDeleteAccountRepository.class);
+        plainRepository = context.getBean(PlainAccountRepository.class);
+        entityManager = SharedEntityManagerCreator.createSharedEntityManager(context.getBean(EntityManagerFactory.class));
+        transactionTemplate = new TransactionTemplate(context.getBean(PlatformTransactionManager.class));
+        deletedPerHundred = (int) Math.round(deletedRatio * 100);
+        fill(context.getBean(JdbcTemplate.class));
+        afterFill();
+    }
+
+    /**
+     * Returns the arguments the application context is started with.
+     */
+    protected String[] getArguments() {
+        return new String[0];
+    }
+
+    /**
+     * Runs once the table is filled.
+     */
+    protected void afterFill() {
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        context.close();
+    }
+
+    private void fill(JdbcTemplate jdbcTemplate) {
+        jdbcTemplate.update("delete from accounts");
+        Timestamp removedAt = new Timestamp(System.currentTimeMillis());
+        List<Object[]> batch = new ArrayList<>(INSERT_BATCH_SIZE);
+        for (int id = 1; id <= rows; id++) {
+            batch.add(new Object[]{id, "user" + id, "user" + id + "@example.com", "User " + id, "+1 555 " + id,
+                    id + " Main Street, Springfield", BIO, isDeleted(id) ? removedAt : null});
+            if (batch.size() == INSERT_BATCH_SIZE || id == rows) {
+                jdbcTemplate.batchUpdate("insert into accounts (id, username, email, full_name, phone, address, bio, removed_at)"
+                        + " values (?, ?, ?, ?, ?, ?, ?, ?)", batch);
+                batch.clear();
+            }
+        }
+    }
+
+    protected boolean isDeleted(int id) {
+        return id % 100 < deletedPerHundred;
+    }
+
+    /**
+     * Returns a random identifier of a live row, or of any row when every row is deleted.
+     */
+    public int randomLiveId() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        for (int attempt = 0; attempt < 100; attempt++) {
+            int id = random.nextInt(rows) + 1;
+            if (!isDeleted(id)) {
+                return id;
+            }
+        }
+        return random.nextInt(rows) + 1;
+    }
+
+    /**
+     * Returns detached references to the given number of random live rows.
+     */
+    public List<Account> randomLiveAccounts(int count) {
+        List<Account> accounts = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            accounts.add(new Account(randomLiveId()));
+        }
+        return accounts;
+    }
+
+    /**
+     * Runs the given callback in a transaction that is always rolled back, so mutating benchmarks leave the table as
+     * they found it.
+     */
+    public <T> T inRolledBackTransaction(Supplier<T> callback) {
+        return transactionTemplate.execute(status -> {
+            status.setRollbackOnly();
+            return callback.get();
+        });
+    }
+
+    /**
+     * Runs the given callback in a transaction.
+     */
+    public <T> T inTransaction(Supplier<T> callback) {
+        return transactionTemplate.execute(status -> callback.get());
+    }
+}
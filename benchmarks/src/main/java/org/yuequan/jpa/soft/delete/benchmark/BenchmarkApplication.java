@@ -0,0 +1,9 @@
+package org.yuequan.jpa.soft.delete.benchmark;
+
+import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.yuequan.jpa.soft.delete.repository.EnableJpaSoftDeleteRepositories;
+
+@SpringBootApplication
+@EnableJpaSoftDeleteRepositories
+public class BenchmarkApplication {
+}
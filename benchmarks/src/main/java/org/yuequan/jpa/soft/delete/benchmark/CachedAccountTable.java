@@ -0,0 +1,45 @@
+package org.yuequan.jpa.soft.delete.benchmark;
+
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * The {@link AccountTable} with {@code Account} in the Hibernate second-level cache, warmed with up to
+ * {@link #CACHED_ROWS} live rows so lookups of {@link #randomCachedId()} in a fresh transaction are cache hits.
+ */
+@State(Scope.Benchmark)
+public class CachedAccountTable extends AccountTable {
+
+    private static final int CACHED_ROWS = 1000;
+
+    private final List<Integer> cachedIds = new ArrayList<>();
+
+    @Override
+    protected String[] getArguments() {
+        return new String[]{"--spring.jpa.properties.javax.persistence.sharedCache.mode=ENABLE_SELECTIVE"};
+    }
+
+    @Override
+    protected void afterFill() {
+        for (int id = 1; id <= rows && cachedIds.size() < CACHED_ROWS; id++) {
+            if (!isDeleted(id)) {
+                cachedIds.add(id);
+            }
+        }
+        inTransaction(() -> {
+            cachedIds.forEach(id -> plainRepository.findById(id));
+            return null;
+        });
+    }
+
+    /**
+     * Returns a random identifier of a live row held by the second-level cache.
+     */
+    public int randomCachedId() {
+        return cachedIds.get(ThreadLocalRandom.current().nextInt(cachedIds.size()));
+    }
+}
@@ -0,0 +1,79 @@
+package org.yuequan.jpa.soft.delete.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.yuequan.jpa.soft.delete.benchmark.entity.Account;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Write paths of the soft delete repository next to the hard deletes of the plain {@code SimpleJpaRepository}. Every
+ * invocation runs in a transaction that is rolled back, so the table keeps its shape across iterations.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DeleteBenchmark {
+
+    @Param({"100"})
+    public int batchSize;
+
+    @Benchmark
+    public Object softDelete(AccountTable table) {
+        return table.inRolledBackTransaction(() -> {
+            table.softDeleteRepository.delete(new Account(table.randomLiveId()));
+            return null;
+        });
+    }
+
+    @Benchmark
+    public Object plainDelete(AccountTable table) {
+        return table.inRolledBackTransaction(() -> {
+            table.plainRepository.findById(table.randomLiveId()).ifPresent(table.plainRepository::delete);
+            return null;
+        });
+    }
+
+    @Benchmark
+    public Object softDeleteInBatch(AccountTable table) {
+        return table.inRolledBackTransaction(() -> {
+            table.softDeleteRepository.deleteInBatch(table.randomLiveAccounts(batchSize));
+            return null;
+        });
+    }
+
+    @Benchmark
+    public Object plainDeleteInBatch(AccountTable table) {
+        return table.inRolledBackTransaction(() -> {
+            table.plainRepository.deleteInBatch(table.randomLiveAccounts(batchSize));
+            return null;
+        });
+    }
+
+    @Benchmark
+    public Object softDeleteAllInBatch(AccountTable table) {
+        return table.inRolledBackTransaction(() -> {
+            table.softDeleteRepository.deleteAllInBatch();
+            return null;
+        });
+    }
+
+    @Benchmark
+    public Object plainDeleteAllInBatch(AccountTable table) {
+        return table.inRolledBackTransaction(() -> {
+            table.plainRepository.deleteAllInBatch();
+            return null;
+        });
+    }
+}
@@ -0,0 +1,67 @@
+package org.yuequan.jpa.soft.delete.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.jpa.domain.Specification;
+import org.yuequan.jpa.soft.delete.benchmark.entity.Account;
+import org.yuequan.jpa.soft.delete.benchmark.projection.AccountSummary;
+import org.yuequan.jpa.soft.delete.benchmark.projection.AccountView;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reads of three columns of a window of live rows, as managed entities next to interface and DTO projections. Run it
+ * with the GC profiler of the {@link BenchmarkRunner} to compare the allocations per read.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ProjectionBenchmark {
+
+    private static final Sort BY_ID = Sort.by("id");
+
+    @Param({"100", "1000"})
+    public int window;
+
+    @Benchmark
+    public List<Account> entities(AccountTable table) {
+        return table.inTransaction(() -> table.softDeleteRepository.findAll(randomWindow(table), BY_ID));
+    }
+
+    @Benchmark
+    public List<AccountView> interfaceProjections(AccountTable table) {
+        return table.inTransaction(() -> table.softDeleteRepository.findAll(randomWindow(table), AccountView.class, BY_ID));
+    }
+
+    @Benchmark
+    public List<AccountSummary> dtoProjections(AccountTable table) {
+        return table.inTransaction(() -> table.softDeleteRepository.findAll(randomWindow(table), AccountSummary.class, BY_ID));
+    }
+
+    /**
+     * Selects a window of consecutive identifiers as an {@code in} list, which H2 answers from the primary key where it
+     * would pick the {@code removed_at} index for a range.
+     */
+    private Specification<Account> randomWindow(AccountTable table) {
+        int first = Math.max(1, Math.min(table.randomLiveId(), table.rows - window + 1));
+        List<Integer> ids = new ArrayList<>(window);
+        for (int id = first; id < first + window; id++) {
+            ids.add(id);
+        }
+        return (root, query, builder) -> root.get("id").in(ids);
+    }
+}
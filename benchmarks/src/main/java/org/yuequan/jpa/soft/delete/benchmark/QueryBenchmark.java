@@ -0,0 +1,93 @@
+package org.yuequan.jpa.soft.delete.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.yuequan.jpa.soft.delete.benchmark.entity.Account;
+
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Read paths of the soft delete repository next to the plain {@code SimpleJpaRepository}.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class QueryBenchmark {
+
+    private static final Pageable FIRST_PAGE = PageRequest.of(0, 20);
+
+    @Benchmark
+    public Optional<Account> softDeleteFindById(AccountTable table) {
+        return table.inTransaction(() -> table.softDeleteRepository.findById(table.randomLiveId()));
+    }
+
+    @Benchmark
+    public Optional<Account> plainFindById(AccountTable table) {
+        return table.inTransaction(() -> table.plainRepository.findById(table.randomLiveId()));
+    }
+
+    /**
+     * Second lookup of an entity the persistence context already holds, answered without a query.
+     */
+    @Benchmark
+    public Optional<Account> softDeleteFindByIdManaged(AccountTable table) {
+        return table.inTransaction(() -> {
+            int id = table.randomLiveId();
+            table.softDeleteRepository.findById(id);
+            return table.softDeleteRepository.findById(id);
+        });
+    }
+
+    @Benchmark
+    public Optional<Account> plainFindByIdManaged(AccountTable table) {
+        return table.inTransaction(() -> {
+            int id = table.randomLiveId();
+            table.plainRepository.findById(id);
+            return table.plainRepository.findById(id);
+        });
+    }
+
+    /**
+     * Lookup in a fresh transaction of an entity the second-level cache holds, answered without a query.
+     */
+    @Benchmark
+    public Optional<Account> softDeleteFindByIdCacheHit(CachedAccountTable table) {
+        return table.inTransaction(() -> table.softDeleteRepository.findById(table.randomCachedId()));
+    }
+
+    @Benchmark
+    public Optional<Account> plainFindByIdCacheHit(CachedAccountTable table) {
+        return table.inTransaction(() -> table.plainRepository.findById(table.randomCachedId()));
+    }
+
+    @Benchmark
+    public Page<Account> softDeleteFindAllPage(AccountTable table) {
+        return table.inTransaction(() -> table.softDeleteRepository.findAll(FIRST_PAGE));
+    }
+
+    @Benchmark
+    public Page<Account> plainFindAllPage(AccountTable table) {
+        return table.inTransaction(() -> table.plainRepository.findAll(FIRST_PAGE));
+    }
+
+    @Benchmark
+    public long softDeleteCount(AccountTable table) {
+        return table.inTransaction(() -> table.softDeleteRepository.count());
+    }
+
+    @Benchmark
+    public long plainCount(AccountTable table) {
+        return table.inTransaction(() -> table.plainRepository.count());
+    }
+}
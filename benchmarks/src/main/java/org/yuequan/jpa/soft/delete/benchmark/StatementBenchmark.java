@@ -0,0 +1,75 @@
+package org.yuequan.jpa.soft.delete.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+import org.yuequan.jpa.soft.delete.benchmark.entity.Account;
+
+import javax.persistence.criteria.CriteriaBuilder;
+import javax.persistence.criteria.CriteriaUpdate;
+import javax.persistence.criteria.Root;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+import static org.springframework.data.jpa.repository.query.QueryUtils.getQueryString;
+
+/**
+ * The statements the soft delete repository builds once per entity type next to the same statements built on every
+ * call, a fresh {@link CriteriaUpdate} per {@code delete(T)} and a JPQL string assembled per
+ * {@code deleteAllInBatch()}. Run through the {@link BenchmarkRunner} so the GC profiler reports the allocation rate
+ * of both. Every invocation runs in a transaction that is rolled back, so the table keeps its shape across iterations.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class StatementBenchmark {
+
+    @Benchmark
+    public Object cachedDelete(AccountTable table) {
+        return table.inRolledBackTransaction(() -> {
+            table.softDeleteRepository.delete(new Account(table.randomLiveId()));
+            return null;
+        });
+    }
+
+    @Benchmark
+    public Object perCallCriteriaDelete(AccountTable table) {
+        return table.inRolledBackTransaction(() -> {
+            CriteriaBuilder builder = table.entityManager.getCriteriaBuilder();
+            CriteriaUpdate<Account> update = builder.createCriteriaUpdate(Account.class);
+            Root<Account> root = update.from(Account.class);
+            update.set("removedAt", new Date());
+            update.where(builder.equal(root.get("id"), table.randomLiveId()), builder.isNull(root.get("removedAt")));
+            return table.entityManager.createQuery(update).executeUpdate();
+        });
+    }
+
+    @Benchmark
+    public Object cachedDeleteAllInBatch(AccountTable table) {
+        return table.inRolledBackTransaction(() -> {
+            table.softDeleteRepository.deleteAllInBatch();
+            return null;
+        });
+    }
+
+    @Benchmark
+    public Object perCallJpqlDeleteAllInBatch(AccountTable table) {
+        return table.inRolledBackTransaction(() -> {
+            StringBuilder query = new StringBuilder();
+            query.append("update %s x ");
+            query.append("set x.removedAt");
+            query.append(" = :");
+            query.append("removedAt");
+            query.append(" where x.removedAt is null");
+            return table.entityManager.createQuery(getQueryString(query.toString(), "Account"))
+                    .setParameter("removedAt", new Date())
+                    .executeUpdate();
+        });
+    }
+}
@@ -0,0 +1,25 @@
+package org.yuequan.jpa.soft.delete.benchmark.projection;
+
+public class AccountSummary {
+    private final Integer id;
+    private final String username;
+    private final String email;
+
+    public AccountSummary(Integer id, String username, String email) {
+        this.id = id;
+        this.username = username;
+        this.email = email;
+    }
+
+    public Integer getId() {
+        return id;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    public String getEmail() {
+        return email;
+    }
+}
@@ -0,0 +1,10 @@
+package org.yuequan.jpa.soft.delete.benchmark.projection;
+
+public interface AccountView {
+
+    Integer getId();
+
+    String getUsername();
+
+    String getEmail();
+}
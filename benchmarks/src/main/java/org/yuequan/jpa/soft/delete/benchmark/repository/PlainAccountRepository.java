@@ -0,0 +1,11 @@
+package org.yuequan.jpa.soft.delete.benchmark.repository;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.yuequan.jpa.soft.delete.benchmark.entity.Account;
+
+/**
+ * Baseline backed by the plain {@link org.springframework.data.jpa.repository.support.SimpleJpaRepository}.
+ */
+public interface PlainAccountRepository extends JpaRepository<Account, Integer> {
+
+}
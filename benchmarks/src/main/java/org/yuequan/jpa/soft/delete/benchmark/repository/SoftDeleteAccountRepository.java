@@ -0,0 +1,11 @@
+package org.yuequan.jpa.soft.delete.benchmark.repository;
+
+import org.springframework.data.jpa.repository.JpaSpecificationExecutor;
+import org.yuequan.jpa.soft.delete.benchmark.entity.Account;
+import org.yuequan.jpa.soft.delete.repository.SoftDelete;
+import org.yuequan.jpa.soft.delete.repository.SoftDeleteRepository;
+
+@SoftDelete
+public interface SoftDeleteAccountRepository extends SoftDeleteRepository<Account, Integer>, JpaSpecificationExecutor<Account> {
+
+}
@@ -2,12 +2,17 @@ package org.yuequan.jpa.soft.delete.repository;
 
 import org.springframework.beans.factory.FactoryBean;
 import org.springframework.context.annotation.ComponentScan;
+import org.springframework.context.annotation.Import;
 import org.springframework.core.annotation.AliasFor;
 import org.springframework.data.jpa.repository.config.EnableJpaRepositories;
 import org.springframework.data.jpa.repository.support.JpaRepositoryFactoryBean;
 import org.springframework.data.repository.config.DefaultRepositoryBaseClass;
 import org.springframework.data.repository.query.QueryLookupStrategy;
 import org.springframework.transaction.PlatformTransactionManager;
+import org.yuequan.jpa.soft.delete.repository.config.SoftDeleteAsyncConfiguration;
+import org.yuequan.jpa.soft.delete.repository.config.SoftDeleteIndexAdvisorConfiguration;
+import org.yuequan.jpa.soft.delete.repository.config.SoftDeleteOutboxConfiguration;
+import org.yuequan.jpa.soft.delete.repository.config.SoftDeletePurgeConfiguration;
 import org.yuequan.jpa.soft.delete.repository.support.JpaSoftDeleteRepositoryFactoryBean;
 
 import javax.persistence.EntityManagerFactory;
@@ -18,6 +23,8 @@ import java.lang.annotation.*;
 @Documented
 @Inherited
 @EnableJpaRepositories
+@Import({ SoftDeletePurgeConfiguration.class, SoftDeleteAsyncConfiguration.class, SoftDeleteOutboxConfiguration.class,
+        SoftDeleteIndexAdvisorConfiguration.class })
 public @interface EnableJpaSoftDeleteRepositories {
     /**
      * Alias for the {@link #basePackages()} attribute. Allows for more concise annotation declarations e.g.:
@@ -0,0 +1,14 @@
+package org.yuequan.jpa.soft.delete.repository;
+
+import java.lang.annotation.*;
+
+/**
+ * Opts a query method of a {@link SoftDelete} repository out of the soft delete filter, so its query also returns
+ * removed rows.
+ * @author yuequan
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ ElementType.METHOD, ElementType.ANNOTATION_TYPE })
+@Documented
+public @interface IncludeDeleted {
+}
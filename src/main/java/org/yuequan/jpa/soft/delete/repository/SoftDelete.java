@@ -6,10 +6,21 @@ import java.lang.annotation.*;
 
 /**
  * @author yuequan
+ * @see SoftDeleteOptions
  */
 @Retention(RetentionPolicy.RUNTIME)
 @Target({ ElementType.TYPE, ElementType.CONSTRUCTOR, ElementType.METHOD, ElementType.PARAMETER, ElementType.FIELD, ElementType.ANNOTATION_TYPE })
 @Documented
 public @interface SoftDelete {
     String value() default "";
+
+    /**
+     * Name of the entity property recording that a row is removed.
+     */
+    String property() default "removedAt";
+
+    /**
+     * How {@link #property()} records that a row is removed.
+     */
+    SoftDeleteStrategy strategy() default SoftDeleteStrategy.TIMESTAMP;
 }
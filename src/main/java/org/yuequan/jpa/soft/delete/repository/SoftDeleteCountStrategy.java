@@ -0,0 +1,30 @@
+package org.yuequan.jpa.soft.delete.repository;
+
+/**
+ * How a soft delete repository answers {@code count()} and the totals of {@code findAll(Pageable)}, picked with
+ * {@link SoftDeleteOptions#countStrategy()} or per call. Counts filtered by a
+ * {@link org.springframework.data.jpa.domain.Specification} are always exact. Callers that need no total at all use
+ * the {@link org.springframework.data.domain.Slice} finders of {@link SoftDeleteRepository}.
+ * @author yuequan
+ */
+public enum SoftDeleteCountStrategy {
+
+    /**
+     * Counts the live rows on every call.
+     */
+    EXACT,
+
+    /**
+     * Counts the live rows exactly and keeps the result for {@link SoftDeleteOptions#countCacheTtl()}. Inserts, soft deletes
+     * and restores through the repository drop it, writes through other repositories or outside of JPA are only
+     * picked up once it expires.
+     */
+    CACHED,
+
+    /**
+     * Asks the query planner of the database for the estimated number of live rows, which costs no table scan but
+     * may be off by the staleness of the table statistics. Supported on PostgreSQL, MySQL and MariaDB with
+     * Hibernate, other databases count exactly.
+     */
+    ESTIMATED
+}
@@ -0,0 +1,103 @@
+package org.yuequan.jpa.soft.delete.repository;
+
+import java.lang.annotation.*;
+
+/**
+ * Tuning and optional features of a {@link SoftDelete} repository, the defaults apply without it.
+ * @author yuequan
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+@Documented
+public @interface SoftDeleteOptions {
+
+    /**
+     * Maximum number of identifiers bound into a single statement.
+     */
+    int batchSize() default 500;
+
+    /**
+     * Whether batches are padded to the next power of two so statement plans get reused.
+     */
+    boolean padBatches() default true;
+
+    /**
+     * Whether every batch of a bulk operation commits in its own transaction.
+     */
+    boolean commitPerBatch() default false;
+
+    /**
+     * Number of rows fetched per round trip when streaming.
+     */
+    int fetchSize() default 500;
+
+    /**
+     * Whether {@code delete} and {@code deleteAll} defer their updates to the flush of the surrounding transaction.
+     */
+    boolean writeBehind() default false;
+
+    /**
+     * Whether the changed rows are locked in identifier order first. Requires a simple identifier.
+     */
+    boolean lockOrdered() default false;
+
+    /**
+     * Whether {@link #lockOrdered()} skips rows locked by other transactions instead of waiting.
+     */
+    boolean skipLocked() default false;
+
+    /**
+     * How often a batch committing on its own is retried after a deadlock or lock timeout.
+     */
+    int lockRetries() default 0;
+
+    /**
+     * The ISO-8601 wait before the first {@link #lockRetries() retry}, doubled for every further one.
+     */
+    String lockRetryBackoff() default "PT0.05S";
+
+    /**
+     * How {@code count()} and page totals are computed.
+     */
+    SoftDeleteCountStrategy countStrategy() default SoftDeleteCountStrategy.EXACT;
+
+    /**
+     * The ISO-8601 time a {@link SoftDeleteCountStrategy#CACHED} count is kept.
+     */
+    String countCacheTtl() default "PT1M";
+
+    /**
+     * Whether soft deletes cascade along associations cascading {@code REMOVE}. Requires a simple identifier.
+     */
+    boolean cascade() default false;
+
+    /**
+     * Maximum number of association levels a {@link #cascade()} follows.
+     */
+    int cascadeDepth() default 5;
+
+    /**
+     * Whether removed rows are moved to an archive table in the background. Requires Hibernate.
+     */
+    boolean archive() default false;
+
+    /**
+     * Name of the archive table, empty for the entity table name followed by {@code _archive}.
+     */
+    String archiveTable() default "";
+
+    /**
+     * Whether every soft delete and restore records an event in the {@link #outboxTable()}. Requires Hibernate.
+     */
+    boolean outbox() default false;
+
+    /**
+     * Name of the outbox table.
+     */
+    String outboxTable() default "soft_delete_outbox";
+
+    /**
+     * The ISO-8601 time removed rows are kept before they are purged, empty to keep them forever.
+     */
+    String retention() default "";
+}
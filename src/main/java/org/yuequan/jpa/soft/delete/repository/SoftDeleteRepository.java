@@ -0,0 +1,228 @@
+package org.yuequan.jpa.soft.delete.repository;
+
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.jpa.domain.Specification;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.repository.NoRepositoryBean;
+import org.springframework.lang.Nullable;
+import org.yuequan.jpa.soft.delete.repository.support.SoftDeleteJob;
+
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Stream;
+
+/**
+ * Soft delete specific extension of {@link JpaRepository}. Repositories annotated with {@link SoftDelete} may extend
+ * this interface to reach the operations only the soft delete implementation offers.
+ * @author yuequan
+ * @param <T> the type of the entity to handle
+ * @param <ID> the type of the entity's identifier
+ */
+@NoRepositoryBean
+public interface SoftDeleteRepository<T, ID> extends JpaRepository<T, ID> {
+
+    /**
+     * Soft deletes the given entities in batches of {@link SoftDeleteOptions#batchSize()} identifiers.
+     *
+     * @param entities must not be {@literal null}.
+     * @return the number of rows that were flagged as removed
+     */
+    int softDeleteInBatch(Iterable<T> entities);
+
+    /**
+     * Returns which of the given ids belong to live entities, checking a batch of {@link SoftDeleteOptions#batchSize()} ids
+     * per query.
+     *
+     * @param ids must not be {@literal null}.
+     * @return the ids of the live entities
+     */
+    Set<ID> existsAllById(Iterable<ID> ids);
+
+    /**
+     * Restores the given soft deleted entity.
+     *
+     * @param entity must not be {@literal null}.
+     * @return whether a removed row was restored
+     */
+    boolean restore(T entity);
+
+    /**
+     * Restores the soft deleted entity with the given id.
+     *
+     * @param id must not be {@literal null}.
+     * @return whether a removed row was restored
+     */
+    boolean restoreById(ID id);
+
+    /**
+     * Restores the soft deleted entities with the given ids in batches of {@link SoftDeleteOptions#batchSize()} identifiers.
+     * The ids are consumed batch by batch, so a lazily produced {@link Iterable} is never held in memory as a whole.
+     *
+     * @param ids must not be {@literal null}.
+     * @return the number of rows that were restored
+     */
+    int restoreAllById(Iterable<ID> ids);
+
+    /**
+     * Restores every soft deleted entity matching the given {@link Specification}. The identifiers of the matching rows
+     * are selected page by page and restored like {@link #restoreAllById(Iterable)}. The specification can not match
+     * rows moved to an {@link SoftDeleteOptions#archive()}, so repositories archiving removed rows reject it, restore those by
+     * identifier.
+     *
+     * @param spec must not be {@literal null}.
+     * @return the number of rows that were restored
+     * @throws IllegalStateException if the repository archives removed rows or has a composite identifier.
+     */
+    int restoreWhere(Specification<T> spec);
+
+    /**
+     * Returns a {@link Page} of the soft deleted entities, including the archived ones.
+     *
+     * @param pageable must not be {@literal null}.
+     * @return a page of soft deleted entities
+     */
+    Page<T> findAllDeleted(Pageable pageable);
+
+    /**
+     * Returns the number of soft deleted entities, including the archived ones.
+     *
+     * @return the number of soft deleted entities
+     */
+    long countDeleted();
+
+    /**
+     * Returns the number of live entities, computed with the given strategy instead of
+     * {@link SoftDeleteOptions#countStrategy()}.
+     *
+     * @param countStrategy must not be {@literal null}.
+     * @return the number of live entities, estimated for {@link SoftDeleteCountStrategy#ESTIMATED}
+     */
+    long count(SoftDeleteCountStrategy countStrategy);
+
+    /**
+     * Returns a {@link Page} of live entities whose total is computed with the given strategy instead of
+     * {@link SoftDeleteOptions#countStrategy()}.
+     *
+     * @param pageable must not be {@literal null}.
+     * @param countStrategy must not be {@literal null}.
+     * @return a page of live entities
+     */
+    Page<T> findAll(Pageable pageable, SoftDeleteCountStrategy countStrategy);
+
+    /**
+     * Returns a {@link Page} of the live entities matching the given {@link Specification} whose total is computed
+     * with the given strategy. Filtered totals are always counted exactly, the strategy only applies without a
+     * specification.
+     *
+     * @param spec can be {@literal null}.
+     * @param pageable must not be {@literal null}.
+     * @param countStrategy must not be {@literal null}.
+     * @return a page of live entities
+     */
+    Page<T> findAll(@Nullable Specification<T> spec, Pageable pageable, SoftDeleteCountStrategy countStrategy);
+
+    /**
+     * Returns a {@link Slice} of live entities. Reads one entity more than requested to tell whether there is a next
+     * slice and never counts.
+     *
+     * @param pageable must not be {@literal null}.
+     * @return a slice of live entities
+     */
+    Slice<T> findSlice(Pageable pageable);
+
+    /**
+     * Returns a {@link Slice} of the live entities matching the given {@link Specification} without counting them.
+     *
+     * @param spec can be {@literal null}.
+     * @param pageable must not be {@literal null}.
+     * @return a slice of live entities
+     */
+    Slice<T> findSlice(@Nullable Specification<T> spec, Pageable pageable);
+
+    /**
+     * Returns the live entities matching the given {@link Specification} as projections. Only the properties the
+     * projection reads are selected and no entity is loaded into the persistence context: DTO classes are created
+     * through their constructor, whose parameters name the properties to select, closed interfaces are backed by the
+     * selected values. Open interface projections using {@code @Value} are not supported.
+     *
+     * @param spec can be {@literal null}.
+     * @param projection a DTO class or a closed interface, must not be {@literal null}.
+     * @param sort must not be {@literal null}.
+     * @return the projections of the live entities
+     */
+    <P> List<P> findAll(@Nullable Specification<T> spec, Class<P> projection, Sort sort);
+
+    /**
+     * Returns a {@link Page} of the live entities matching the given {@link Specification} as projections, like
+     * {@link #findAll(Specification, Class, Sort)}. The total is computed with {@link SoftDeleteOptions#countStrategy()}.
+     *
+     * @param spec can be {@literal null}.
+     * @param projection a DTO class or a closed interface, must not be {@literal null}.
+     * @param pageable must not be {@literal null}.
+     * @return a page of projections of the live entities
+     */
+    <P> Page<P> findAll(@Nullable Specification<T> spec, Class<P> projection, Pageable pageable);
+
+    /**
+     * Streams the live entities matching the given {@link Specification} over a forward-only cursor fetching
+     * {@link SoftDeleteOptions#fetchSize()} rows per round trip. Must be called within a transaction and the {@link Stream}
+     * must be closed after use. Streamed entities are detached once the stream has moved {@link SoftDeleteOptions#fetchSize()}
+     * entities past them, discarding their unflushed changes.
+     *
+     * @param spec can be {@literal null}.
+     * @return a stream of live entities
+     */
+    Stream<T> streamAll(@Nullable Specification<T> spec);
+
+    /**
+     * Streams the live entities matching the given {@link Specification} ordered by id, querying pages of
+     * {@link SoftDeleteOptions#fetchSize()} entities that continue after the last id of the previous page. Suits databases
+     * or drivers that cannot hold a cursor open and does not require a transaction. Streamed entities are detached
+     * page by page. Requires a simple, comparable identifier.
+     *
+     * @param spec can be {@literal null}.
+     * @return a stream of live entities
+     */
+    Stream<T> streamAllByKeyset(@Nullable Specification<T> spec);
+
+    /**
+     * Soft deletes the entities with the given ids in the background, in chunks of {@link SoftDeleteOptions#batchSize()} ids
+     * that run in parallel, each in its own transaction. The ids are consumed chunk by chunk on the background
+     * threads, so a lazily produced {@link Iterable} is never held in memory as a whole.
+     *
+     * @param ids must not be {@literal null}.
+     * @return the running job, completing with the number of rows that were flagged as removed
+     */
+    SoftDeleteJob deleteAllByIdAsync(Iterable<ID> ids);
+
+    /**
+     * Soft deletes the entities with the ids of the given {@link Stream} in the background like
+     * {@link #deleteAllByIdAsync(Iterable)}, closing the stream once the job is done.
+     *
+     * @param ids must not be {@literal null}.
+     * @return the running job, completing with the number of rows that were flagged as removed
+     */
+    SoftDeleteJob deleteAllByIdAsync(Stream<ID> ids);
+
+    /**
+     * Soft deletes the live entities matching the given {@link Specification} in the background. Their ids are
+     * selected in pages of {@link SoftDeleteOptions#batchSize()} ordered by id, each page soft deleted in its own transaction
+     * while the next pages are selected. Requires a simple, comparable identifier.
+     *
+     * @param spec must not be {@literal null}.
+     * @return the running job, completing with the number of rows that were flagged as removed
+     */
+    SoftDeleteJob deleteWhereAsync(Specification<T> spec);
+
+    /**
+     * Restores the soft deleted entities with the given ids in the background like
+     * {@link #deleteAllByIdAsync(Iterable)}.
+     *
+     * @param ids must not be {@literal null}.
+     * @return the running job, completing with the number of rows that were restored
+     */
+    SoftDeleteJob restoreAllByIdAsync(Iterable<ID> ids);
+}
@@ -0,0 +1,35 @@
+package org.yuequan.jpa.soft.delete.repository;
+
+/**
+ * How the soft delete property of an entity records that a row is removed, picked with
+ * {@link SoftDelete#strategy()}. Each strategy filters live rows with the predicate its column indexes best.
+ * @author yuequan
+ */
+public enum SoftDeleteStrategy {
+
+    /**
+     * A nullable {@link java.util.Date}, {@link java.time.Instant} or {@link java.time.LocalDateTime} holding the
+     * removal time. Live rows are {@code IS NULL}, which suits partial indexes on databases that have them.
+     */
+    TIMESTAMP,
+
+    /**
+     * A non-null {@code boolean} flag. Live rows are {@code = false}, a plain equality usable as the leading column of
+     * a composite index. Keeps no removal time, so rows can not be purged after a retention period.
+     */
+    BOOLEAN,
+
+    /**
+     * A non-null {@code long} holding the removal time in epoch milliseconds, {@code 0} for live rows. Live rows are
+     * {@code = 0}, removed rows {@code > 0}.
+     */
+    EPOCH_MILLIS,
+
+    /**
+     * A non-null {@code long} token, {@code 0} for live rows, so a unique constraint spanning the token column keeps
+     * live rows unique while any number of removed duplicates coexist. Every soft delete statement writes a fresh
+     * token made of the removal time in epoch milliseconds shifted left by 16 bits plus 16 random bits, which keeps
+     * the tokens ordered by time.
+     */
+    DELETED_TOKEN
+}
@@ -0,0 +1,24 @@
+package org.yuequan.jpa.soft.delete.repository.config;
+
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
+import org.yuequan.jpa.soft.delete.repository.support.SoftDeleteAsyncExecutor;
+
+/**
+ * Registers the {@link SoftDeleteAsyncExecutor} running the asynchronous soft deletes and restores.
+ * @author yuequan
+ */
+@Configuration
+public class SoftDeleteAsyncConfiguration {
+
+    public static final String ASYNC_CONCURRENCY_PROPERTY = "jpa.soft-delete.async.concurrency";
+    public static final String ASYNC_VIRTUAL_THREADS_PROPERTY = "jpa.soft-delete.async.virtual-threads";
+
+    @Bean
+    public SoftDeleteAsyncExecutor softDeleteAsyncExecutor(Environment environment) {
+        return new SoftDeleteAsyncExecutor(
+                environment.getProperty(ASYNC_CONCURRENCY_PROPERTY, Integer.class, 4),
+                environment.getProperty(ASYNC_VIRTUAL_THREADS_PROPERTY, Boolean.class, true));
+    }
+}
@@ -0,0 +1,28 @@
+package org.yuequan.jpa.soft.delete.repository.config;
+
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
+import org.yuequan.jpa.soft.delete.repository.support.SoftDeleteIndexAdvisor;
+
+import java.nio.file.Paths;
+
+/**
+ * Registers the {@link SoftDeleteIndexAdvisor} checking the soft delete columns of all repositories for an index,
+ * at startup once enabled.
+ * @author yuequan
+ */
+@Configuration
+public class SoftDeleteIndexAdvisorConfiguration {
+
+    public static final String INDEX_ADVISOR_ENABLED_PROPERTY = "jpa.soft-delete.index-advisor.enabled";
+    public static final String INDEX_ADVISOR_DDL_FILE_PROPERTY = "jpa.soft-delete.index-advisor.ddl-file";
+
+    @Bean
+    public SoftDeleteIndexAdvisor softDeleteIndexAdvisor(Environment environment) {
+        String ddlFile = environment.getProperty(INDEX_ADVISOR_DDL_FILE_PROPERTY);
+        return new SoftDeleteIndexAdvisor(
+                environment.getProperty(INDEX_ADVISOR_ENABLED_PROPERTY, Boolean.class, false),
+                ddlFile == null ? null : Paths.get(ddlFile));
+    }
+}
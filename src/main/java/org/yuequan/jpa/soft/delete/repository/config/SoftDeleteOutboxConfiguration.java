@@ -0,0 +1,33 @@
+package org.yuequan.jpa.soft.delete.repository.config;
+
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
+import org.yuequan.jpa.soft.delete.repository.support.SoftDeleteOutboxRelay;
+import org.yuequan.jpa.soft.delete.repository.support.SoftDeleteOutboxRelayer;
+
+import java.time.Duration;
+
+/**
+ * Registers the {@link SoftDeleteOutboxRelayer} draining the outboxes of repositories recording soft delete events
+ * into the {@link SoftDeleteOutboxRelay} bean, once one is defined.
+ * @author yuequan
+ */
+@Configuration
+public class SoftDeleteOutboxConfiguration {
+
+    public static final String OUTBOX_ENABLED_PROPERTY = "jpa.soft-delete.outbox.enabled";
+    public static final String OUTBOX_INTERVAL_PROPERTY = "jpa.soft-delete.outbox.interval";
+    public static final String OUTBOX_BATCH_SIZE_PROPERTY = "jpa.soft-delete.outbox.batch-size";
+
+    @Bean
+    public SoftDeleteOutboxRelayer softDeleteOutboxRelayer(Environment environment,
+            ObjectProvider<SoftDeleteOutboxRelay> relay) {
+        return new SoftDeleteOutboxRelayer(
+                Duration.parse(environment.getProperty(OUTBOX_INTERVAL_PROPERTY, "PT1S")),
+                environment.getProperty(OUTBOX_BATCH_SIZE_PROPERTY, Integer.class, 500),
+                environment.getProperty(OUTBOX_ENABLED_PROPERTY, Boolean.class, true),
+                relay::getIfAvailable);
+    }
+}
@@ -0,0 +1,30 @@
+package org.yuequan.jpa.soft.delete.repository.config;
+
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
+import org.yuequan.jpa.soft.delete.repository.support.SoftDeletePurgeScheduler;
+
+import java.time.Duration;
+
+/**
+ * Registers the {@link SoftDeletePurgeScheduler} used by repositories declaring a retention period.
+ * @author yuequan
+ */
+@Configuration
+public class SoftDeletePurgeConfiguration {
+
+    public static final String PURGE_ENABLED_PROPERTY = "jpa.soft-delete.purge.enabled";
+    public static final String PURGE_INTERVAL_PROPERTY = "jpa.soft-delete.purge.interval";
+    public static final String PURGE_CHUNK_SIZE_PROPERTY = "jpa.soft-delete.purge.chunk-size";
+    public static final String PURGE_CHUNKS_PER_SECOND_PROPERTY = "jpa.soft-delete.purge.chunks-per-second";
+
+    @Bean
+    public SoftDeletePurgeScheduler softDeletePurgeScheduler(Environment environment) {
+        return new SoftDeletePurgeScheduler(
+                Duration.parse(environment.getProperty(PURGE_INTERVAL_PROPERTY, "PT1H")),
+                environment.getProperty(PURGE_CHUNK_SIZE_PROPERTY, Integer.class, 1000),
+                environment.getProperty(PURGE_CHUNKS_PER_SECOND_PROPERTY, Double.class, 10.0),
+                environment.getProperty(PURGE_ENABLED_PROPERTY, Boolean.class, true));
+    }
+}
@@ -0,0 +1,231 @@
+package org.yuequan.jpa.soft.delete.repository.support;
+
+import org.hibernate.Session;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.hibernate.engine.spi.SharedSessionContractImplementor;
+import org.hibernate.cache.spi.UpdateTimestampsCache;
+import org.hibernate.persister.collection.AbstractCollectionPersister;
+import org.hibernate.persister.collection.CollectionPersister;
+import org.hibernate.persister.entity.EntityPersister;
+import org.hibernate.persister.entity.SingleTableEntityPersister;
+import org.hibernate.query.NativeQuery;
+import org.hibernate.type.EntityType;
+import org.hibernate.type.Type;
+import org.springframework.lang.Nullable;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.persistence.EntityManager;
+import javax.persistence.FlushModeType;
+import javax.persistence.Query;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Soft delete and restore statements by identifier for entities held in the Hibernate second-level cache. Bulk JPQL
+ * updates make Hibernate invalidate the whole entity region, so these statements run as native SQL synchronized on no
+ * entity, and only the affected entries are evicted: before the update and again after commit, together with the
+ * cached collections of the owners holding the affected rows and the query cache timestamps of its table. The owners
+ * are selected from the collection table ahead of the update, collections keyed by more than one column or by a
+ * property other than the owner identifier have their whole region evicted instead.
+ * @author yuequan
+ */
+final class CachedEntityStatements {
+
+    private final Class<?> domainClass;
+    private final SoftDeleteColumn column;
+    private final Type propertyType;
+    private final Type idType;
+    private final Serializable[] querySpaces;
+    private final List<OwnerLookup> ownerLookups = new ArrayList<>();
+    private final List<String> evictedCollectionRoles = new ArrayList<>();
+    private final String deleteByIdsQueryString;
+    private final String restoreByIdsQueryString;
+
+    private CachedEntityStatements(Class<?> domainClass, SoftDeleteColumn column, @Nullable String versionProperty,
+            SingleTableEntityPersister persister, SessionFactoryImplementor sessionFactory) {
+        this.domainClass = domainClass;
+        this.column = column;
+        this.propertyType = persister.getPropertyType(column.getProperty());
+        this.idType = persister.getIdentifierType();
+        this.querySpaces = persister.getQuerySpaces();
+        for (CollectionPersister collection : sessionFactory.getMetamodel().collectionPersisters().values()) {
+            Type elementType = collection.getElementType();
+            if (!collection.hasCache() || !elementType.isEntityType()
+                    || !persister.getEntityName().equals(((EntityType) elementType).getAssociatedEntityName())) {
+                continue;
+            }
+            if (collection instanceof AbstractCollectionPersister
+                    && ((AbstractCollectionPersister) collection).getKeyColumnNames().length == 1
+                    && ((AbstractCollectionPersister) collection).getElementColumnNames().length == 1
+                    && collection.getCollectionType().getLHSPropertyName() == null) {
+                ownerLookups.add(new OwnerLookup((AbstractCollectionPersister) collection));
+            } else {
+                evictedCollectionRoles.add(collection.getRole());
+            }
+        }
+        String columnName = persister.getPropertyColumnNames(column.getProperty())[0];
+        String ids = persister.getIdentifierColumnNames()[0] + " in (:" + SoftDeleteQueries.IDS_PARAMETER + ")";
+        String versionColumn = versionProperty == null ? null : persister.getPropertyColumnNames(versionProperty)[0];
+        String version = versionColumn == null ? "" : ", " + versionColumn + " = " + versionColumn + " + 1";
+        this.deleteByIdsQueryString = "update " + persister.getTableName() + " set " + columnName + " = :"
+                + SoftDeleteQueries.REMOVED_AT_PARAMETER + version + " where " + column.getLiveSqlCondition(columnName)
+                + " and " + ids;
+        this.restoreByIdsQueryString = "update " + persister.getTableName() + " set " + columnName + " = "
+                + column.getRestoredSqlValue() + version + " where " + column.getRemovedSqlCondition(columnName)
+                + " and " + ids;
+    }
+
+    /**
+     * Creates the statements for the given entity type, {@literal null} if it is not cached or not mapped to a single
+     * table with a simple identifier.
+     */
+    @Nullable
+    static CachedEntityStatements create(EntityManager em, Class<?> domainClass, SoftDeleteColumn column,
+            @Nullable String versionProperty) {
+        SessionFactoryImplementor sessionFactory = em.getEntityManagerFactory().unwrap(SessionFactoryImplementor.class);
+        EntityPersister persister = sessionFactory.getMetamodel().entityPersister(domainClass);
+        if (!persister.hasCache() || !(persister instanceof SingleTableEntityPersister)
+                || persister.getIdentifierType().isComponentType()
+                || persister.getEntityMetamodel().getPropertyIndexOrNull(column.getProperty()) == null) {
+            return null;
+        }
+        return new CachedEntityStatements(domainClass, column, versionProperty, (SingleTableEntityPersister) persister,
+                sessionFactory);
+    }
+
+    /**
+     * Creates the statement flagging the live rows with the identifiers bound to {@link SoftDeleteQueries#IDS_PARAMETER}
+     * as removed, writing the given value.
+     */
+    Query createDeleteByIdsQuery(EntityManager em, Object removedAt) {
+        NativeQuery<?> query = createQuery(em, deleteByIdsQueryString);
+        query.setParameter(SoftDeleteQueries.REMOVED_AT_PARAMETER, removedAt, propertyType);
+        return query;
+    }
+
+    /**
+     * Creates the statement clearing the removal flag of the removed rows with the identifiers bound to
+     * {@link SoftDeleteQueries#IDS_PARAMETER}.
+     */
+    Query createRestoreByIdsQuery(EntityManager em) {
+        return createQuery(em, restoreByIdsQueryString);
+    }
+
+    /**
+     * Binds the given identifiers to a statement created by this class.
+     */
+    void bindIds(Query query, Collection<?> ids) {
+        query.unwrap(NativeQuery.class).setParameterList(SoftDeleteQueries.IDS_PARAMETER, ids, idType);
+    }
+
+    /**
+     * Evicts the entries of the given identifiers and the cached collections holding them, and marks the query cache of
+     * the table stale ahead of an update of their rows, then repeats that once the surrounding transaction completed.
+     */
+    void evict(EntityManager em, Collection<?> ids) {
+        SessionImplementor session = em.unwrap(SessionImplementor.class);
+        SessionFactoryImplementor sessionFactory = session.getFactory();
+        UpdateTimestampsCache timestamps = sessionFactory.getCache().getUpdateTimestampsCache();
+        Map<String, List<?>> owners = findOwners(em, ids);
+        evictEntries(sessionFactory, ids, owners);
+        if (timestamps != null) {
+            timestamps.preInvalidate(querySpaces, session);
+        }
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            if (timestamps != null) {
+                timestamps.invalidate(querySpaces, session);
+            }
+            return;
+        }
+        List<?> evicted = new ArrayList<>(ids);
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+            @Override
+            public void afterCompletion(int status) {
+                evictEntries(sessionFactory, evicted, owners);
+                invalidate(sessionFactory, timestamps);
+            }
+        });
+    }
+
+    /**
+     * Returns the identifiers of the owners of the cached collections holding the rows with the given identifiers, by
+     * collection role.
+     */
+    private Map<String, List<?>> findOwners(EntityManager em, Collection<?> ids) {
+        Map<String, List<?>> owners = new LinkedHashMap<>();
+        for (OwnerLookup lookup : ownerLookups) {
+            NativeQuery<?> query = em.createNativeQuery(lookup.queryString).unwrap(NativeQuery.class);
+            query.addSynchronizedQuerySpace("");
+            query.addScalar(OwnerLookup.OWNER_ALIAS, lookup.keyType);
+            query.setParameterList(SoftDeleteQueries.IDS_PARAMETER, ids, idType);
+            owners.put(lookup.role, query.getResultList());
+        }
+        return owners;
+    }
+
+    private void evictEntries(SessionFactoryImplementor sessionFactory, Collection<?> ids, Map<String, List<?>> owners) {
+        org.hibernate.Cache cache = sessionFactory.getCache();
+        for (Object id : ids) {
+            cache.evict(domainClass, id);
+        }
+        for (Map.Entry<String, List<?>> collection : owners.entrySet()) {
+            for (Object owner : collection.getValue()) {
+                cache.evictCollection(collection.getKey(), (Serializable) owner);
+            }
+        }
+        for (String role : evictedCollectionRoles) {
+            cache.evictCollectionRegion(role);
+        }
+    }
+
+    /**
+     * Marks the query cache of the table stale after the transaction completed, through a temporary session as the
+     * session of the transaction may be closed by then.
+     */
+    private void invalidate(SessionFactoryImplementor sessionFactory, @Nullable UpdateTimestampsCache timestamps) {
+        if (timestamps == null) {
+            return;
+        }
+        try (Session session = sessionFactory.openTemporarySession()) {
+            timestamps.invalidate(querySpaces, (SharedSessionContractImplementor) session);
+        }
+    }
+
+    private NativeQuery<?> createQuery(EntityManager em, String queryString) {
+        if (em.isJoinedToTransaction() && em.getFlushMode() == FlushModeType.AUTO) {
+            em.flush();
+        }
+        NativeQuery<?> query = em.createNativeQuery(queryString).unwrap(NativeQuery.class);
+        query.addSynchronizedQuerySpace("");
+        if (column.hasRestoredParameter()) {
+            query.setParameter(SoftDeleteColumn.RESTORED_PARAMETER, column.getRestoredValue(), propertyType);
+        }
+        return query;
+    }
+
+    /**
+     * Selects the owners of one collection role from the collection table by the identifiers of its elements.
+     */
+    private static final class OwnerLookup {
+        private static final String OWNER_ALIAS = "owner_id";
+
+        private final String role;
+        private final Type keyType;
+        private final String queryString;
+
+        OwnerLookup(AbstractCollectionPersister collection) {
+            this.role = collection.getRole();
+            this.keyType = collection.getKeyType();
+            String key = collection.getKeyColumnNames()[0];
+            this.queryString = "select " + key + " as " + OWNER_ALIAS + " from " + collection.getTableName() + " where "
+                    + key + " is not null and " + collection.getElementColumnNames()[0] + " in (:"
+                    + SoftDeleteQueries.IDS_PARAMETER + ")";
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package org.yuequan.jpa.soft.delete.repository.support;
+
+import org.springframework.data.util.CloseableIterator;
+
+import javax.persistence.EntityManager;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Iterator over entities that detaches every window of entities it handed out once the caller moves past it, so
+ * iterating a large result keeps the persistence context, and with it the heap, at a constant size.
+ * @author yuequan
+ * @param <T> the type of the entity to handle
+ */
+final class DetachingIterator<T> implements CloseableIterator<T> {
+
+    private final CloseableIterator<T> delegate;
+    private final EntityManager em;
+    private final List<T> window;
+    private final int windowSize;
+
+    DetachingIterator(CloseableIterator<T> delegate, EntityManager em, int windowSize) {
+        this.delegate = delegate;
+        this.em = em;
+        this.windowSize = windowSize;
+        this.window = new ArrayList<>(windowSize);
+    }
+
+    @Override
+    public boolean hasNext() {
+        return delegate.hasNext();
+    }
+
+    @Override
+    public T next() {
+        T entity = delegate.next();
+        if (window.size() == windowSize) {
+            detachWindow();
+        }
+        window.add(entity);
+        return entity;
+    }
+
+    @Override
+    public void close() {
+        delegate.close();
+    }
+
+    private void detachWindow() {
+        for (T entity : window) {
+            if (em.contains(entity)) {
+                em.detach(entity);
+            }
+        }
+        window.clear();
+    }
+}
@@ -1,9 +1,13 @@
 package org.yuequan.jpa.soft.delete.repository.support;
 
+import org.hibernate.LockOptions;
 import org.springframework.dao.EmptyResultDataAccessException;
 import org.springframework.data.domain.Example;
 import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.domain.SliceImpl;
 import org.springframework.data.domain.Sort;
 import org.springframework.data.jpa.domain.Specification;
 import org.springframework.data.jpa.domain.Specifications;
@@ -13,11 +17,24 @@ import org.springframework.data.jpa.repository.support.CrudMethodMetadata;
 import org.springframework.data.jpa.repository.support.JpaEntityInformation;
 import org.springframework.data.jpa.repository.support.JpaEntityInformationSupport;
 import org.springframework.data.jpa.repository.support.SimpleJpaRepository;
+import org.springframework.data.projection.ProjectionFactory;
+import org.springframework.data.projection.SpelAwareProxyProjectionFactory;
+import org.springframework.data.repository.support.PageableExecutionUtils;
+import org.springframework.data.util.CloseableIterator;
+import org.springframework.data.util.StreamUtils;
 import org.springframework.lang.Nullable;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
 import org.springframework.util.Assert;
 import org.yuequan.jpa.soft.delete.repository.SoftDelete;
+import org.yuequan.jpa.soft.delete.repository.SoftDeleteCountStrategy;
+import org.yuequan.jpa.soft.delete.repository.SoftDeleteRepository;
+import org.yuequan.jpa.soft.delete.repository.SoftDeleteStrategy;
+import org.yuequan.jpa.soft.delete.repository.support.SoftDeleteMetrics.Operation;
 
 import javax.persistence.EntityManager;
 import javax.persistence.LockModeType;
@@ -26,9 +43,17 @@ import javax.persistence.TypedQuery;
 import javax.persistence.criteria.*;
 
 import java.io.Serializable;
+import java.time.Duration;
 import java.time.LocalDateTime;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.function.IntFunction;
+import java.util.function.Supplier;
+import java.util.function.ToIntFunction;
+import java.util.stream.Stream;
 
+import static org.hibernate.jpa.QueryHints.HINT_FETCH_SIZE;
 import static org.springframework.data.jpa.repository.query.QueryUtils.DELETE_ALL_QUERY_STRING;
 import static org.springframework.data.jpa.repository.query.QueryUtils.applyAndBind;
 import static org.springframework.data.jpa.repository.query.QueryUtils.getQueryString;
@@ -42,11 +67,17 @@ import static org.springframework.data.jpa.repository.query.QueryUtils.getQueryS
  * @see org.springframework.data.jpa.repository.support.SimpleJpaRepository
  */
 @SoftDelete
-public class JpaSoftDeleteRepository<T,ID extends Serializable> extends SimpleJpaRepository<T,ID> {
+public class JpaSoftDeleteRepository<T,ID extends Serializable> extends SimpleJpaRepository<T,ID> implements SoftDeleteRepository<T,ID> {
 
     private static final String ID_MUST_NOT_BE_NULL = "The given id must not be null!";
     private static final String SOFT_DELETE_FLAG_COLUMN = "removed_at";
-    private static final String SOFT_DELETE_FLAG_PROPERTIES = "removedAt";
+    static final String SOFT_DELETE_FLAG_PROPERTIES = "removedAt";
+    private static final int DEFAULT_BATCH_SIZE = 500;
+    private static final int DEFAULT_FETCH_SIZE = 500;
+    private static final Duration DEFAULT_COUNT_CACHE_TTL = Duration.ofMinutes(1);
+    private static final String LOCK_TIMEOUT_HINT = "javax.persistence.lock.timeout";
+    private static final Set<Operation> ASYNC_OPERATIONS = EnumSet.of(Operation.DELETE_ALL_BY_ID_ASYNC,
+            Operation.DELETE_WHERE_ASYNC, Operation.RESTORE_ALL_BY_ID_ASYNC);
 
     private final JpaEntityInformation<T, ?> entityInformation;
     private final EntityManager em;
@@ -54,6 +85,45 @@ public class JpaSoftDeleteRepository<T,ID extends Serializable> extends SimpleJp
 
     private @Nullable
     CrudMethodMetadata metadata;
+
+    private int batchSize = DEFAULT_BATCH_SIZE;
+    private boolean padBatches = true;
+    private int fetchSize = DEFAULT_FETCH_SIZE;
+    private boolean writeBehind;
+    private boolean lockOrdered;
+    private boolean skipLocked;
+    private SoftDeleteLockRetry lockRetry = SoftDeleteLockRetry.NONE;
+    private SoftDeleteCountStrategy countStrategy = SoftDeleteCountStrategy.EXACT;
+    private SoftDeleteCountCache countCache = new SoftDeleteCountCache(DEFAULT_COUNT_CACHE_TTL);
+    private @Nullable
+    SoftDeleteRowEstimator rowEstimator;
+    private @Nullable
+    Supplier<SoftDeleteAsyncExecutor> asyncExecutor;
+    private @Nullable
+    Supplier<PlatformTransactionManager> asyncTransactionManager;
+    private @Nullable
+    TransactionTemplate asyncTransactionTemplate;
+    private @Nullable
+    TransactionTemplate batchTransactionTemplate;
+    private @Nullable
+    ManagedEntities<T> managedEntities;
+    private @Nullable
+    CachedEntityStatements cachedEntityStatements;
+    private @Nullable
+    SoftDeleteArchive archive;
+    private @Nullable
+    SoftDeleteCascade cascade;
+    private @Nullable
+    SoftDeleteOutbox outbox;
+    private SoftDeleteIdLayout idLayout;
+    private SoftDeleteQueries queries;
+    private SoftDeleteColumn column;
+    private Object pendingDeletesKey;
+    private Specification<T> liveSpecification;
+    private Specification<T> deletedSpecification;
+    private SoftDeleteMetrics metrics = SoftDeleteMetrics.NONE;
+    private final ProjectionFactory projectionFactory = new SpelAwareProxyProjectionFactory();
+    private final Map<Class<?>, SoftDeleteProjection<T, ?>> projections = new ConcurrentHashMap<>();
     /**
      * Creates a new {@link SimpleJpaRepository} to manage objects of the given {@link JpaEntityInformation}.
      *
@@ -61,10 +131,21 @@ public class JpaSoftDeleteRepository<T,ID extends Serializable> extends SimpleJp
      * @param entityManager must not be {@literal null}.
      */
     public JpaSoftDeleteRepository(JpaEntityInformation<T, ?> entityInformation, EntityManager entityManager) {
+        this(entityInformation, entityManager, SoftDeleteMetadata.resolve(entityManager, entityInformation,
+                SOFT_DELETE_FLAG_PROPERTIES, SoftDeleteStrategy.TIMESTAMP));
+    }
+
+    /**
+     * Creates a new repository for the soft delete property of the given metadata, as resolved by the
+     * {@link JpaSoftDeleteRepositoryFactory}.
+     */
+    JpaSoftDeleteRepository(JpaEntityInformation<T, ?> entityInformation, EntityManager entityManager,
+            SoftDeleteMetadata metadata) {
         super(entityInformation, entityManager);
         this.entityInformation = entityInformation;
         this.em = entityManager;
         this.provider = PersistenceProvider.fromEntityManager(entityManager);
+        setMetadata(metadata);
     }
     /**
      * Creates a new {@link SimpleJpaRepository} to manage objects of the given domain type.
@@ -82,16 +163,186 @@ public class JpaSoftDeleteRepository<T,ID extends Serializable> extends SimpleJp
         this.metadata = crudMethodMetadata;
     }
 
-    private String getDeleteAllQueryString(){
-        StringBuilder softDeleteAllQueryBuilder = new StringBuilder();
-        softDeleteAllQueryBuilder.append("UPDATE %s x ");
-        softDeleteAllQueryBuilder.append("SET ");
-        softDeleteAllQueryBuilder.append(SOFT_DELETE_FLAG_PROPERTIES);
-        softDeleteAllQueryBuilder.append("=");
-        softDeleteAllQueryBuilder.append(" :");
-        softDeleteAllQueryBuilder.append(SOFT_DELETE_FLAG_PROPERTIES);
-        String softDeleteAllQueryString = softDeleteAllQueryBuilder.toString();
-        return getQueryString(softDeleteAllQueryString, entityInformation.getEntityName());
+    /**
+     * Configures the maximum number of identifiers bound into a single soft delete statement.
+     *
+     * @param batchSize must be greater than zero.
+     */
+    public void setBatchSize(int batchSize) {
+        Assert.isTrue(batchSize > 0, "The batch size must be greater than zero!");
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Configures whether the identifier list of each batch is padded up to the next power of two.
+     *
+     * @param padBatches
+     */
+    public void setPadBatches(boolean padBatches) {
+        this.padBatches = padBatches;
+    }
+
+    /**
+     * Configures the number of rows fetched per round trip when streaming, which is also the number of streamed
+     * entities kept attached to the persistence context.
+     *
+     * @param fetchSize must be greater than zero.
+     */
+    public void setFetchSize(int fetchSize) {
+        Assert.isTrue(fetchSize > 0, "The fetch size must be greater than zero!");
+        this.fetchSize = fetchSize;
+    }
+
+    /**
+     * Configures whether {@link #delete(Object)} and {@link #deleteAll(Iterable)} defer their soft deletes to the
+     * flush or commit of the surrounding transaction, writing all of them with set-based statements.
+     *
+     * @param writeBehind
+     */
+    public void setWriteBehind(boolean writeBehind) {
+        this.writeBehind = writeBehind;
+    }
+
+    /**
+     * Configures whether soft deletes and restores lock the affected rows in identifier order before updating them,
+     * so concurrent bulk operations on overlapping rows wait for each other instead of deadlocking.
+     *
+     * @param lockOrdered
+     */
+    public void setLockOrdered(boolean lockOrdered) {
+        Assert.state(!lockOrdered || !entityInformation.hasCompositeId(),
+                "Locking rows in order requires a simple identifier!");
+        this.lockOrdered = lockOrdered;
+    }
+
+    /**
+     * Configures whether ordered locking skips rows another transaction holds locked instead of waiting for them.
+     * Databases without {@code SKIP LOCKED} wait.
+     *
+     * @param skipLocked
+     */
+    public void setSkipLocked(boolean skipLocked) {
+        this.skipLocked = skipLocked;
+    }
+
+    /**
+     * Configures how often a batch committing on its own is retried after losing a deadlock or timing out on a row
+     * lock, waiting the given backoff before the first retry and twice as long before every further one.
+     *
+     * @param retries must not be negative, {@literal 0} never retries.
+     * @param backoff must not be negative.
+     */
+    public void setLockRetries(int retries, Duration backoff) {
+        this.lockRetry = retries == 0 ? SoftDeleteLockRetry.NONE : new SoftDeleteLockRetry(retries, backoff);
+    }
+
+    /**
+     * Configures how {@link #count()} and the totals of {@link #findAll(Pageable)} are computed.
+     *
+     * @param countStrategy must not be {@literal null}.
+     */
+    public void setCountStrategy(SoftDeleteCountStrategy countStrategy) {
+        Assert.notNull(countStrategy, "The count strategy must not be null!");
+        this.countStrategy = countStrategy;
+    }
+
+    /**
+     * Configures how long a {@link SoftDeleteCountStrategy#CACHED cached} count is kept, dropping the current one.
+     *
+     * @param countCacheTtl must be positive.
+     */
+    public void setCountCacheTtl(Duration countCacheTtl) {
+        Assert.isTrue(countCacheTtl != null && !countCacheTtl.isNegative() && !countCacheTtl.isZero(),
+                "The count cache time to live must be positive!");
+        this.countCache = new SoftDeleteCountCache(countCacheTtl);
+    }
+
+    /**
+     * Configures the transaction manager used to commit every batch of a bulk soft delete on its own, {@literal null}
+     * runs all batches in the surrounding transaction.
+     *
+     * @param transactionManager can be {@literal null}.
+     */
+    public void setBatchTransactionManager(@Nullable PlatformTransactionManager transactionManager) {
+        if (transactionManager == null) {
+            this.batchTransactionTemplate = null;
+            return;
+        }
+        this.batchTransactionTemplate = new TransactionTemplate(transactionManager);
+        this.batchTransactionTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+    }
+
+    /**
+     * Configures where the asynchronous soft deletes and restores run. Both are resolved on first use.
+     *
+     * @param executor must not be {@literal null}.
+     * @param transactionManager must not be {@literal null}, commits every chunk in its own transaction.
+     */
+    void setAsyncExecution(Supplier<SoftDeleteAsyncExecutor> executor, Supplier<PlatformTransactionManager> transactionManager) {
+        Assert.notNull(executor, "The given executor must not be null!");
+        Assert.notNull(transactionManager, "The given transaction manager must not be null!");
+        this.asyncExecutor = executor;
+        this.asyncTransactionManager = transactionManager;
+        this.asyncTransactionTemplate = null;
+    }
+
+    /**
+     * Uses the soft delete column of the given metadata, reusing the statements and identifier layout resolved for it.
+     *
+     * @param metadata must not be {@literal null}.
+     */
+    private void setMetadata(SoftDeleteMetadata metadata) {
+        Assert.notNull(metadata, "The given metadata must not be null!");
+        this.idLayout = metadata.getIdLayout();
+        this.queries = metadata.getQueries();
+        this.column = metadata.getColumn();
+        this.pendingDeletesKey = PendingSoftDeletes.key(entityInformation.getJavaType(), column);
+        this.liveSpecification = new DeletedSpecification<>(column, false);
+        this.deletedSpecification = new DeletedSpecification<>(column, true);
+        this.managedEntities = provider == PersistenceProvider.HIBERNATE
+                ? new ManagedEntities<>(entityInformation.getJavaType(), em, column, queries.getVersionProperty())
+                : null;
+        this.cachedEntityStatements = metadata.getCachedEntityStatements();
+        this.rowEstimator = metadata.getRowEstimator();
+    }
+
+    /**
+     * Configures the archive the removed rows are moved to. Deleted rows are then read from the entity table and the
+     * archive, and restores by identifier move archived rows back first.
+     *
+     * @param archive can be {@literal null}.
+     */
+    void setArchive(@Nullable SoftDeleteArchive archive) {
+        this.archive = archive;
+    }
+
+    /**
+     * Configures the cascade soft deleting the children of deleted rows, in the transaction of each batch.
+     *
+     * @param cascade can be {@literal null}.
+     */
+    void setCascade(@Nullable SoftDeleteCascade cascade) {
+        this.cascade = cascade;
+    }
+
+    /**
+     * Configures the outbox recording an event for every row soft deleted or restored, in the transaction of each
+     * batch.
+     *
+     * @param outbox can be {@literal null}.
+     */
+    void setOutbox(@Nullable SoftDeleteOutbox outbox) {
+        this.outbox = outbox;
+    }
+
+    /**
+     * Enables recording of timings and affected rows, {@link SoftDeleteMetrics#NONE} turns it off.
+     *
+     * @param metrics must not be {@literal null}.
+     */
+    void setMetrics(SoftDeleteMetrics metrics) {
+        Assert.notNull(metrics, "The given metrics must not be null!");
+        this.metrics = metrics;
     }
 
     /**
@@ -102,107 +353,1042 @@ public class JpaSoftDeleteRepository<T,ID extends Serializable> extends SimpleJp
     @Transactional
     public void delete(T entity) {
         Assert.notNull(entity, "The given entity must not be null!");
-        CriteriaBuilder criteriaBuilder = em.getCriteriaBuilder();
-        CriteriaUpdate<T> updater = criteriaBuilder.createCriteriaUpdate(getDomainClass());
-        Root<T> root = updater.from(getDomainClass());
-        updater.set(SOFT_DELETE_FLAG_PROPERTIES, new Date());
-        final List<Predicate> predicates = new ArrayList<>();
-        if(entityInformation.hasCompositeId()){
-            entityInformation.getIdAttributeNames().forEach(idName -> {
-                predicates.add(criteriaBuilder.equal(root.get(idName),
-                        entityInformation.getCompositeIdAttributeValue(entityInformation.getId(entity), idName)));
-            });
-            updater.where(criteriaBuilder.and(predicates.toArray(new Predicate[predicates.size()])));
-        }else{
-            updater.where(criteriaBuilder.equal(root.get(entityInformation.getIdAttribute().getName()), entityInformation.getId(entity)));
+        long start = metrics.start();
+        try {
+            softDeleteAllById(Collections.singletonList(entityInformation.getId(entity)), Operation.DELETE, writeBehind);
+        } finally {
+            metrics.stop(Operation.DELETE, start);
+        }
+    }
+
+    @Override
+    @Transactional
+    public void deleteById(ID id) {
+        Assert.notNull(id, ID_MUST_NOT_BE_NULL);
+        long start = metrics.start();
+        try {
+            if (softDeleteAllById(Collections.singletonList(id), Operation.DELETE_BY_ID, false) == 0) {
+                throw new EmptyResultDataAccessException(
+                        String.format("No %s entity with id %s exists!", entityInformation.getJavaType(), id), 1);
+            }
+        } finally {
+            metrics.stop(Operation.DELETE_BY_ID, start);
+        }
+    }
+
+    @Override
+    @Transactional
+    public void deleteAll(Iterable<? extends T> entities) {
+        Assert.notNull(entities, "The given Iterable of entities not be null!");
+        long start = metrics.start();
+        try {
+            softDeleteAllById(getIds(entities), Operation.DELETE_ALL, writeBehind);
+        } finally {
+            metrics.stop(Operation.DELETE_ALL, start);
+        }
+    }
+
+    @Override
+    @Transactional
+    public void deleteAll() {
+        long start = metrics.start();
+        try {
+            softDeleteAll(Operation.DELETE_ALL);
+        } finally {
+            metrics.stop(Operation.DELETE_ALL, start);
         }
-        em.createQuery(updater).executeUpdate();
     }
 
     @Override
     @Transactional
     public void deleteInBatch(Iterable<T> entities) {
+        softDeleteInBatch(entities);
+    }
+
+    @Override
+    @Transactional
+    public int softDeleteInBatch(Iterable<T> entities) {
         Assert.notNull(entities, "The given Iterable of entities not be null!");
+        long start = metrics.start();
+        try {
+            return softDeleteAllById(getIds(entities), Operation.DELETE_IN_BATCH, false);
+        } finally {
+            metrics.stop(Operation.DELETE_IN_BATCH, start);
+        }
+    }
 
-        if (!entities.iterator().hasNext()) {
-            return;
+    private List<Object> getIds(Iterable<? extends T> entities) {
+        List<Object> ids = new ArrayList<>();
+        for (T entity : entities) {
+            Object id = entityInformation.getId(entity);
+            if (id != null) {
+                ids.add(id);
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * Flags the rows with the given identifiers as removed, or defers that to the flush of the surrounding transaction.
+     *
+     * @param ids must not be {@literal null}.
+     * @param deferred whether the soft delete may be deferred.
+     * @return the number of affected rows, {@literal 0} when deferred.
+     */
+    private int softDeleteAllById(Iterable<?> ids, Operation operation, boolean deferred) {
+        if (deferred && TransactionSynchronizationManager.isSynchronizationActive()) {
+            PendingSoftDeletes.add(pendingDeletesKey, getDomainClass(), ids,
+                    pending -> softDeleteAllById(pending, operation, false));
+            return 0;
+        }
+        flushPendingDeletes();
+        long now = System.currentTimeMillis();
+        Object removedAt = column.createRemovedValue(now);
+        Consumer<List<?>> cascadeDelete = cascade == null ? null
+                : batch -> metrics.rows(Operation.CASCADE, cascade.delete(em, batch, now));
+        if (cachedEntityStatements != null) {
+            return updateAllById(ids, size -> cachedEntityStatements.createDeleteByIdsQuery(em, removedAt), null,
+                    cascadeDelete, removedAt, operation);
+        }
+        return updateAllById(ids, size -> queries.createDeleteByIdsQuery(em, size)
+                .setParameter(SoftDeleteQueries.REMOVED_AT_PARAMETER, removedAt), null, cascadeDelete, removedAt,
+                operation);
+    }
+
+    /**
+     * Clears the removal flag of the removed rows with the given identifiers, moving archived ones back first.
+     *
+     * @param ids must not be {@literal null}.
+     * @return the number of affected rows
+     */
+    private int restoreAllById(Iterable<?> ids, Operation operation) {
+        flushPendingDeletes();
+        Consumer<List<?>> unarchive = archive == null ? null : batch -> archive.unarchive(em, batch);
+        if (cachedEntityStatements != null) {
+            return updateAllById(ids, size -> cachedEntityStatements.createRestoreByIdsQuery(em), unarchive, null,
+                    column.getRestoredValue(), operation);
+        }
+        return updateAllById(ids, size -> queries.createRestoreByIdsQuery(em, size), unarchive, null,
+                column.getRestoredValue(), operation);
+    }
+
+    /**
+     * Runs the statement created for every batch of at most {@link #batchSize} identifiers, consuming the identifiers
+     * batch by batch, and stamps the written removal value onto the affected managed instances. Committing every batch
+     * on its own is left to the caller for asynchronous chunks, which already run in a transaction of their own and
+     * retry it on lock failures.
+     *
+     * @param beforeUpdate runs in the transaction of each batch ahead of its statement, can be {@literal null}.
+     * @param afterUpdate runs in the transaction of each batch after its statement, can be {@literal null}.
+     */
+    private int updateAllById(Iterable<?> ids, IntFunction<Query> statement, @Nullable Consumer<List<?>> beforeUpdate,
+                              @Nullable Consumer<List<?>> afterUpdate, @Nullable Object removedAt, Operation operation) {
+        int[] affected = new int[1];
+        boolean removing = column.isRemoved(removedAt);
+        TransactionTemplate batchTransactionTemplate = ASYNC_OPERATIONS.contains(operation) ? null
+                : this.batchTransactionTemplate;
+        forEachBatch(lockOrdered ? sort(ids) : ids, batch -> {
+            List<Object> targets = new ArrayList<>(batch);
+            int updated = batchTransactionTemplate == null
+                    ? executeUpdate(statement, targets, removing, beforeUpdate, afterUpdate, operation)
+                    : lockRetry.execute(() -> {
+                        targets.clear();
+                        targets.addAll(batch);
+                        return batchTransactionTemplate.execute(status -> executeUpdate(statement, targets, removing,
+                                beforeUpdate, afterUpdate, operation));
+                    });
+            if (managedEntities != null && updated > 0) {
+                managedEntities.markRemoved(targets, removedAt);
+            }
+            affected[0] += updated;
+        });
+        return affected[0];
+    }
+
+    private List<?> lockInOrder(List<?> ids, boolean live) {
+        Query lock = queries.createLockIdsQuery(em, live).setLockMode(LockModeType.PESSIMISTIC_WRITE);
+        if (skipLocked) {
+            lock.setHint(LOCK_TIMEOUT_HINT, LockOptions.SKIP_LOCKED);
+        }
+        return lock.setParameter(SoftDeleteQueries.IDS_PARAMETER, ids).getResultList();
+    }
+
+    /**
+     * Sorts the non-null identifiers of a collection, so all batches lock their rows in one global order. Lazily
+     * produced identifiers are left as they are, each batch still locks in order.
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private Iterable<?> sort(Iterable<?> ids) {
+        if (!(ids instanceof Collection)) {
+            return ids;
         }
-        StringBuilder whereBuilder = new StringBuilder(getDeleteAllQueryString());
+        List<Object> sorted = new ArrayList<>(((Collection<?>) ids).size());
+        for (Object id : ids) {
+            if (id != null) {
+                sorted.add(id);
+            }
+        }
+        if (!sorted.isEmpty() && sorted.get(0) instanceof Comparable) {
+            sorted.sort((left, right) -> ((Comparable) left).compareTo(right));
+        }
+        return sorted;
+    }
+
+    /**
+     * Hands the non-null identifiers to the given action in batches of at most {@link #getIdsPerStatement()},
+     * consuming them batch by batch.
+     */
+    private void forEachBatch(Iterable<?> ids, Consumer<List<Object>> action) {
+        batches(ids.iterator()).forEachRemaining(action);
+    }
+
+    /**
+     * Groups the non-null identifiers of the given iterator into batches of at most {@link #getIdsPerStatement()},
+     * pulling them batch by batch.
+     */
+    private Iterator<List<Object>> batches(Iterator<?> ids) {
+        return new Iterator<List<Object>>() {
+            private @Nullable List<Object> batch;
 
-        Iterator<T> iterator = entities.iterator();
-        int i = 0;
+            @Override
+            public boolean hasNext() {
+                while (batch == null && ids.hasNext()) {
+                    List<Object> next = new ArrayList<>();
+                    int idsPerStatement = getIdsPerStatement();
+                    while (ids.hasNext() && next.size() < idsPerStatement) {
+                        Object id = ids.next();
+                        if (id != null) {
+                            next.add(id);
+                        }
+                    }
+                    batch = next.isEmpty() ? null : next;
+                }
+                return batch != null;
+            }
 
-        whereBuilder.append(" where x in (:entities)");
+            @Override
+            public List<Object> next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                List<Object> next = batch;
+                batch = null;
+                return next;
+            }
+        };
+    }
+
+    /**
+     * Updates one batch. With ordered locking, an outbox or a cascade only the rows the statement changes are locked,
+     * in identifier order, and the batch is narrowed down to them. With an outbox an event is recorded for each of them
+     * and a cascade only follows them, the lock keeps concurrent statements from changing them first.
+     *
+     * @param batch the identifiers of the batch, replaced by the ones the statement changes.
+     * @param removing whether the statement removes live rows rather than restoring removed ones.
+     */
+    private int executeUpdate(IntFunction<Query> statement, List<Object> batch, boolean removing,
+                              @Nullable Consumer<List<?>> beforeUpdate, @Nullable Consumer<List<?>> afterUpdate,
+                              Operation operation) {
+        List<?> ids = pad(batch);
+        if (beforeUpdate != null) {
+            beforeUpdate.accept(ids);
+        }
+        if (lockOrdered || outbox != null || cascade != null) {
+            List<?> targets = lockInOrder(ids, removing);
+            batch.retainAll(targets);
+            if (batch.isEmpty()) {
+                return 0;
+            }
+            ids = pad(batch);
+        }
+        Query query = statement.apply(ids.size());
+        if (cachedEntityStatements != null) {
+            cachedEntityStatements.bindIds(query, ids);
+            cachedEntityStatements.evict(em, ids);
+        } else {
+            queries.bindIds(query, ids);
+        }
+        int affected = query.executeUpdate();
+        metrics.rows(operation, affected);
+        if (affected > 0) {
+            countCache.invalidate();
+        }
+        if (outbox != null && affected > 0) {
+            outbox.record(em, removing ? SoftDeleteEvent.Type.DELETED : SoftDeleteEvent.Type.RESTORED, batch,
+                    System.currentTimeMillis());
+        }
+        if (afterUpdate != null && affected > 0) {
+            afterUpdate.accept(batch);
+        }
+        return affected;
+    }
 
-        Query query = em.createQuery(whereBuilder.toString());
+    /**
+     * Returns the size of the batches statements by identifiers are run with, the {@link #batchSize} unless the
+     * identifiers would need more bind parameters than the database allows.
+     */
+    private int getIdsPerStatement() {
+        return Math.min(batchSize, queries.getMaxIdsPerStatement());
+    }
 
-       query.setParameter(SOFT_DELETE_FLAG_PROPERTIES, new Date());
-       query.setParameter("entities", entities);
-       query.executeUpdate();
+    /**
+     * Pads the given identifiers up to the next power of two (capped at {@link #getIdsPerStatement()}) by repeating the last one,
+     * so the statement shapes handed to the provider stay few and their plans get reused.
+     */
+    private List<?> pad(List<?> ids) {
+        if (!padBatches || ids.isEmpty()) {
+            return ids;
+        }
+        int padded = Math.min(Integer.highestOneBit(ids.size() - 1) << 1, getIdsPerStatement());
+        if (padded <= ids.size()) {
+            return ids;
+        }
+        List<Object> result = new ArrayList<>(padded);
+        result.addAll(ids);
+        Object last = ids.get(ids.size() - 1);
+        while (result.size() < padded) {
+            result.add(last);
+        }
+        return result;
     }
 
     @Override
     @Transactional
     public void deleteAllInBatch() {
-        em.createQuery(getDeleteAllQueryString())
-                .setParameter(SOFT_DELETE_FLAG_PROPERTIES, new Date())
+        long start = metrics.start();
+        try {
+            softDeleteAll(Operation.DELETE_ALL_IN_BATCH);
+        } finally {
+            metrics.stop(Operation.DELETE_ALL_IN_BATCH, start);
+        }
+    }
+
+    private int softDeleteAll(Operation operation) {
+        flushPendingDeletes();
+        if (lockOrdered || outbox != null || cascade != null) {
+            int affected = 0;
+            for (Iterator<List<Object>> pages = new KeysetIdBatches(null); pages.hasNext(); ) {
+                affected += softDeleteAllById(pages.next(), operation, false);
+            }
+            return affected;
+        }
+        long now = System.currentTimeMillis();
+        Object removedAt = column.createRemovedValue(now);
+        int affected = queries.createDeleteAllQuery(em)
+                .setParameter(SoftDeleteQueries.REMOVED_AT_PARAMETER, removedAt)
                 .executeUpdate();
+        metrics.rows(operation, affected);
+        if (affected > 0) {
+            countCache.invalidate();
+        }
+        if (managedEntities != null && affected > 0) {
+            managedEntities.markAllRemoved(removedAt);
+        }
+        return affected;
+    }
+
+    @Override
+    @Transactional
+    public boolean restore(T entity) {
+        Assert.notNull(entity, "The given entity must not be null!");
+        long start = metrics.start();
+        try {
+            Object id = entityInformation.getId(entity);
+            return id != null && restoreAllById(Collections.singletonList(id), Operation.RESTORE) > 0;
+        } finally {
+            metrics.stop(Operation.RESTORE, start);
+        }
+    }
+
+    @Override
+    @Transactional
+    public boolean restoreById(ID id) {
+        Assert.notNull(id, ID_MUST_NOT_BE_NULL);
+        long start = metrics.start();
+        try {
+            return restoreAllById(Collections.singletonList(id), Operation.RESTORE_BY_ID) > 0;
+        } finally {
+            metrics.stop(Operation.RESTORE_BY_ID, start);
+        }
+    }
+
+    @Override
+    @Transactional
+    public int restoreAllById(Iterable<ID> ids) {
+        Assert.notNull(ids, "The given Iterable of ids not be null!");
+        long start = metrics.start();
+        try {
+            return restoreAllById(ids, Operation.RESTORE_ALL_BY_ID);
+        } finally {
+            metrics.stop(Operation.RESTORE_ALL_BY_ID, start);
+        }
+    }
+
+    /**
+     * Restores the matching rows by identifier: their identifiers are selected in pages of {@link #batchSize} and each
+     * page is restored like {@link #restoreAllById(Iterable)}, so managed instances are stamped and, with an outbox,
+     * every restore is recorded. Archived rows are out of reach of the specification, so repositories with an archive
+     * reject it rather than silently skipping them.
+     *
+     * @param spec must not be {@literal null}.
+     */
+    @Override
+    @Transactional
+    public int restoreWhere(Specification<T> spec) {
+        Assert.notNull(spec, "The given specification must not be null!");
+        Assert.state(archive == null, "Restoring " + entityInformation.getEntityName() + " by specification can not "
+                + "match archived rows, restore them by identifier!");
+        Assert.state(!entityInformation.hasCompositeId(), "Restoring by specification requires a simple identifier!");
+        long start = metrics.start();
+        try {
+            flushPendingDeletes();
+            int affected = 0;
+            for (Iterator<List<Object>> pages = new KeysetIdBatches(spec, deletedSpecification); pages.hasNext(); ) {
+                affected += restoreAllById(pages.next(), Operation.RESTORE_WHERE);
+            }
+            return affected;
+        } finally {
+            metrics.stop(Operation.RESTORE_WHERE, start);
+        }
+    }
+
+    @Override
+    public Page<T> findAllDeleted(Pageable pageable) {
+        Assert.notNull(pageable, "The given pageable must not be null!");
+        long start = metrics.start();
+        try {
+            flushPendingDeletes();
+            if (archive != null) {
+                if (pageable.isUnpaged()) {
+                    return new PageImpl<>(archive.findDeleted(em, pageable.getSort(), 0, -1));
+                }
+                return PageableExecutionUtils.getPage(archive.findDeleted(em, pageable.getSort(),
+                        (int) pageable.getOffset(), pageable.getPageSize()), pageable, this::doCountDeleted);
+            }
+            TypedQuery<T> query = super.getQuery(deletedSpecification, getDomainClass(), pageable.getSort());
+            if (pageable.isUnpaged()) {
+                return new PageImpl<>(query.getResultList());
+            }
+            query.setFirstResult((int) pageable.getOffset());
+            query.setMaxResults(pageable.getPageSize());
+            return PageableExecutionUtils.getPage(query.getResultList(), pageable, this::doCountDeleted);
+        } finally {
+            metrics.stop(Operation.FIND_ALL_DELETED, start);
+        }
+    }
+
+    @Override
+    public long countDeleted() {
+        long start = metrics.start();
+        try {
+            return doCountDeleted();
+        } finally {
+            metrics.stop(Operation.COUNT_DELETED, start);
+        }
     }
 
+    private long doCountDeleted() {
+        flushPendingDeletes();
+        if (archive != null) {
+            return archive.countDeleted(em);
+        }
+        return super.getCountQuery(deletedSpecification, getDomainClass()).getSingleResult();
+    }
+
+    /**
+     * Streams the live entities over a forward-only cursor, {@link #fetchSize} rows per round trip. Entities the
+     * caller has moved past are detached in windows of {@link #fetchSize}.
+     *
+     * @param spec can be {@literal null}.
+     */
+    @Override
+    public Stream<T> streamAll(@Nullable Specification<T> spec) {
+        Assert.state(TransactionSynchronizationManager.isActualTransactionActive(),
+                "Streaming requires a surrounding transaction that keeps the connection open!");
+        TypedQuery<T> query = getQuery(spec, Sort.unsorted());
+        if (provider == PersistenceProvider.HIBERNATE) {
+            query.setHint(HINT_FETCH_SIZE, fetchSize);
+        }
+        @SuppressWarnings("unchecked")
+        CloseableIterator<T> cursor = (CloseableIterator<T>) provider.executeQueryWithResultStream(query);
+        return StreamUtils.createStreamFromIterator(new DetachingIterator<>(cursor, em, fetchSize));
+    }
+
+    /**
+     * Streams the live entities in pages of {@link #fetchSize} ordered by identifier, each page continuing after the
+     * last identifier of the previous one. Entities the caller has moved past are detached page by page.
+     *
+     * @param spec can be {@literal null}.
+     */
+    @Override
+    public Stream<T> streamAllByKeyset(@Nullable Specification<T> spec) {
+        Assert.state(!entityInformation.hasCompositeId(), "Keyset streaming requires a simple identifier!");
+        flushPendingDeletes();
+        return StreamUtils.createStreamFromIterator(new DetachingIterator<>(new KeysetIterator(spec), em, fetchSize));
+    }
+
+    @Override
+    public SoftDeleteJob deleteAllByIdAsync(Iterable<ID> ids) {
+        Assert.notNull(ids, "The given Iterable of Id's must not be null!");
+        return submitAsync(batches(ids.iterator()), Operation.DELETE_ALL_BY_ID_ASYNC,
+                batch -> softDeleteAllById(batch, Operation.DELETE_ALL_BY_ID_ASYNC, false));
+    }
+
+    @Override
+    public SoftDeleteJob deleteAllByIdAsync(Stream<ID> ids) {
+        Assert.notNull(ids, "The given Stream of Id's must not be null!");
+        SoftDeleteJob job = deleteAllByIdAsync((Iterable<ID>) ids::iterator);
+        job.whenComplete((rows, ex) -> ids.close());
+        return job;
+    }
+
+    @Override
+    public SoftDeleteJob deleteWhereAsync(Specification<T> spec) {
+        Assert.notNull(spec, "The given specification must not be null!");
+        Assert.state(!entityInformation.hasCompositeId(), "Deleting by specification in the background requires a simple identifier!");
+        return submitAsync(new KeysetIdBatches(spec), Operation.DELETE_WHERE_ASYNC,
+                batch -> softDeleteAllById(batch, Operation.DELETE_WHERE_ASYNC, false));
+    }
+
+    @Override
+    public SoftDeleteJob restoreAllByIdAsync(Iterable<ID> ids) {
+        Assert.notNull(ids, "The given Iterable of Id's must not be null!");
+        return submitAsync(batches(ids.iterator()), Operation.RESTORE_ALL_BY_ID_ASYNC,
+                batch -> restoreAllById(batch, Operation.RESTORE_ALL_BY_ID_ASYNC));
+    }
+
+    /**
+     * Hands the batches to the {@link SoftDeleteAsyncExecutor}, running the given chunk action for each of them in a
+     * new transaction.
+     */
+    private SoftDeleteJob submitAsync(Iterator<List<Object>> batches, Operation operation, ToIntFunction<List<Object>> chunk) {
+        Assert.state(asyncExecutor != null && asyncTransactionManager != null,
+                "Asynchronous soft deletes require a repository created by the JpaSoftDeleteRepositoryFactory!");
+        if (asyncTransactionTemplate == null) {
+            TransactionTemplate transactionTemplate = new TransactionTemplate(asyncTransactionManager.get());
+            transactionTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+            asyncTransactionTemplate = transactionTemplate;
+        }
+        TransactionTemplate transactionTemplate = asyncTransactionTemplate;
+        long start = metrics.start();
+        SoftDeleteJob job = asyncExecutor.get().submit(batches,
+                batch -> lockRetry.execute(() -> transactionTemplate.execute(status -> chunk.applyAsInt(batch))));
+        job.whenComplete((rows, ex) -> metrics.stop(operation, start));
+        return job;
+    }
+
+    /**
+     * Selects the identifiers of the live, or removed, entities matching a specification in pages of
+     * {@link #batchSize} ordered by identifier, each page continuing after the last identifier of the previous one.
+     */
+    private final class KeysetIdBatches implements Iterator<List<Object>> {
+        private final @Nullable Specification<T> spec;
+        private final Specification<T> state;
+        private final String idName = entityInformation.getIdAttribute().getName();
+        private @Nullable List<Object> page;
+        private @Nullable Object lastId;
+        private boolean last;
+
+        KeysetIdBatches(@Nullable Specification<T> spec) {
+            this(spec, liveSpecification);
+        }
+
+        /**
+         * @param state selects the live or the removed rows.
+         */
+        KeysetIdBatches(@Nullable Specification<T> spec, Specification<T> state) {
+            this.spec = spec;
+            this.state = state;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (page == null && !last) {
+                Specification<T> pageSpec = Specification.where(spec).and(state);
+                if (lastId != null) {
+                    pageSpec = pageSpec.and(new AfterIdSpecification<>(idName, lastId));
+                }
+                CriteriaBuilder builder = em.getCriteriaBuilder();
+                CriteriaQuery<Object> query = builder.createQuery();
+                Root<T> root = query.from(getDomainClass());
+                query.select(root.get(idName)).where(pageSpec.toPredicate(root, query, builder));
+                query.orderBy(builder.asc(root.get(idName)));
+                List<Object> ids = em.createQuery(query).setMaxResults(batchSize).getResultList();
+                last = ids.size() < batchSize;
+                if (!ids.isEmpty()) {
+                    lastId = ids.get(ids.size() - 1);
+                    page = ids;
+                }
+            }
+            return page != null;
+        }
+
+        @Override
+        public List<Object> next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            List<Object> next = page;
+            page = null;
+            return next;
+        }
+    }
+
+    /**
+     * Iterates the pages of a keyset pagination over the identifier, querying the next page once the current one is
+     * exhausted.
+     */
+    private final class KeysetIterator implements CloseableIterator<T> {
+        private final @Nullable Specification<T> spec;
+        private final Sort sort = Sort.by(entityInformation.getIdAttribute().getName());
+        private Iterator<T> page = Collections.emptyIterator();
+        private @Nullable Object lastId;
+        private boolean last;
+
+        KeysetIterator(@Nullable Specification<T> spec) {
+            this.spec = spec;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (!page.hasNext() && !last) {
+                List<T> entities = createPageQuery().setMaxResults(fetchSize).getResultList();
+                last = entities.size() < fetchSize;
+                if (!entities.isEmpty()) {
+                    lastId = entityInformation.getId(entities.get(entities.size() - 1));
+                }
+                page = entities.iterator();
+            }
+            return page.hasNext();
+        }
+
+        /**
+         * Builds the page query directly, the repository method metadata is no longer bound once the stream is
+         * consumed.
+         */
+        private TypedQuery<T> createPageQuery() {
+            Specification<T> pageSpec = Specification.where(spec).and(liveSpecification);
+            if (lastId != null) {
+                pageSpec = pageSpec.and(new AfterIdSpecification<>(entityInformation.getIdAttribute().getName(), lastId));
+            }
+            CriteriaBuilder builder = em.getCriteriaBuilder();
+            CriteriaQuery<T> query = builder.createQuery(getDomainClass());
+            Root<T> root = query.from(getDomainClass());
+            query.select(root).where(pageSpec.toPredicate(root, query, builder));
+            query.orderBy(QueryUtils.toOrders(sort, root, builder));
+            return em.createQuery(query);
+        }
+
+        @Override
+        public T next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return page.next();
+        }
+
+        @Override
+        public void close() {
+            last = true;
+            page = Collections.emptyIterator();
+        }
+    }
+
+    /**
+     * Answers from the persistence context when it holds the entity, otherwise probes for the identifier of a live
+     * row and stops at the first match.
+     *
+     * @param id must not be {@literal null}.
+     */
+    @Override
+    public boolean existsById(ID id) {
+        Assert.notNull(id, ID_MUST_NOT_BE_NULL);
+        long start = metrics.start();
+        try {
+            if (entityInformation.hasCompositeId()) {
+                return doFindById(id).isPresent();
+            }
+            flushPendingDeletes();
+            T managed = managedEntities == null ? null : managedEntities.find(id);
+            if (managed != null) {
+                return !managedEntities.isRemoved(managed);
+            }
+            return !queries.createFindIdsByIdsQuery(em)
+                    .setParameter(SoftDeleteQueries.IDS_PARAMETER, Collections.singletonList(id))
+                    .setMaxResults(1)
+                    .getResultList()
+                    .isEmpty();
+        } finally {
+            metrics.stop(Operation.EXISTS_BY_ID, start);
+        }
+    }
+
+    /**
+     * Takes the entities the persistence context holds from there and loads the others with one {@code IN} query per
+     * batch of {@link #batchSize} identifiers.
+     *
+     * @param ids must not be {@literal null}.
+     */
+    @Override
+    public List<T> findAllById(Iterable<ID> ids) {
+        Assert.notNull(ids, "The given Iterable of Id's must not be null!");
+        long start = metrics.start();
+        try {
+            if (entityInformation.hasCompositeId() || (metadata != null && metadata.getLockModeType() != null)) {
+                return super.findAllById(ids);
+            }
+            flushPendingDeletes();
+            List<T> result = new ArrayList<>();
+            forEachBatch(findManaged(ids, result::add), batch -> result.addAll(
+                    queries.createFindByIdsQuery(em, getDomainClass())
+                            .setParameter(SoftDeleteQueries.IDS_PARAMETER, pad(batch))
+                            .getResultList()));
+            return result;
+        } finally {
+            metrics.stop(Operation.FIND_ALL_BY_ID, start);
+        }
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public Set<ID> existsAllById(Iterable<ID> ids) {
+        Assert.notNull(ids, "The given Iterable of Id's must not be null!");
+        long start = metrics.start();
+        try {
+            flushPendingDeletes();
+            Set<ID> result = new HashSet<>();
+            if (entityInformation.hasCompositeId()) {
+                for (ID id : ids) {
+                    if (id != null && doFindById(id).isPresent()) {
+                        result.add(id);
+                    }
+                }
+                return result;
+            }
+            forEachBatch(findManaged(ids, managed -> result.add((ID) entityInformation.getId(managed))), batch -> result.addAll(
+                    queries.createFindIdsByIdsQuery(em)
+                            .setParameter(SoftDeleteQueries.IDS_PARAMETER, pad(batch))
+                            .getResultList()));
+            return result;
+        } finally {
+            metrics.stop(Operation.EXISTS_ALL_BY_ID, start);
+        }
+    }
+
+    /**
+     * Hands the live entities the persistence context holds for the given identifiers to the given consumer.
+     *
+     * @return the distinct identifiers the persistence context holds no entity for.
+     */
+    private Collection<ID> findManaged(Iterable<ID> ids, Consumer<T> live) {
+        Set<ID> missing = new LinkedHashSet<>();
+        for (ID id : ids) {
+            if (id == null || missing.contains(id)) {
+                continue;
+            }
+            T managed = managedEntities == null ? null : managedEntities.find(id);
+            if (managed == null) {
+                missing.add(id);
+            } else if (!managedEntities.isRemoved(managed)) {
+                live.accept(managed);
+            }
+        }
+        return missing;
+    }
+
+    /**
+     * Counts the live rows with a statement built once per entity type, following the configured
+     * {@link SoftDeleteCountStrategy}.
+     */
+    @Override
+    public long count() {
+        return count(countStrategy);
+    }
+
+    @Override
+    public long count(SoftDeleteCountStrategy countStrategy) {
+        Assert.notNull(countStrategy, "The count strategy must not be null!");
+        long start = metrics.start();
+        try {
+            return doCount(null, countStrategy);
+        } finally {
+            metrics.stop(Operation.COUNT, start);
+        }
+    }
+
+    /**
+     * Counts the live rows matching the given specification, only an unfiltered count honours the given strategy.
+     */
+    private long doCount(@Nullable Specification<T> spec, SoftDeleteCountStrategy countStrategy) {
+        flushPendingDeletes();
+        if (spec != null) {
+            long total = 0L;
+            for (Long count : getCountQuery(spec, getDomainClass()).getResultList()) {
+                total += count == null ? 0 : count;
+            }
+            return total;
+        }
+        switch (countStrategy) {
+            case CACHED:
+                return countCache.get(() -> queries.createCountQuery(em).getSingleResult());
+            case ESTIMATED:
+                Long estimate = rowEstimator == null ? null : rowEstimator.estimate(em);
+                return estimate != null ? estimate : queries.createCountQuery(em).getSingleResult();
+            default:
+                return queries.createCountQuery(em).getSingleResult();
+        }
+    }
+
+    @Override
+    public Page<T> findAll(Pageable pageable) {
+        return findAll(null, pageable, countStrategy);
+    }
+
+    @Override
+    public Page<T> findAll(@Nullable Specification<T> spec, Pageable pageable) {
+        return findAll(spec, pageable, countStrategy);
+    }
+
+    @Override
+    public Page<T> findAll(Pageable pageable, SoftDeleteCountStrategy countStrategy) {
+        return findAll(null, pageable, countStrategy);
+    }
+
+    /**
+     * Reads a page of live entities, computing the total with the given strategy unless the page itself tells it.
+     */
+    @Override
+    public Page<T> findAll(@Nullable Specification<T> spec, Pageable pageable, SoftDeleteCountStrategy countStrategy) {
+        Assert.notNull(pageable, "The given pageable must not be null!");
+        Assert.notNull(countStrategy, "The count strategy must not be null!");
+        TypedQuery<T> query = getQuery(spec, pageable);
+        if (pageable.isUnpaged()) {
+            return new PageImpl<>(query.getResultList());
+        }
+        query.setFirstResult((int) pageable.getOffset());
+        query.setMaxResults(pageable.getPageSize());
+        return PageableExecutionUtils.getPage(query.getResultList(), pageable, () -> doCount(spec, countStrategy));
+    }
+
+    @Override
+    public Slice<T> findSlice(Pageable pageable) {
+        return findSlice(null, pageable);
+    }
+
+    /**
+     * Reads one entity more than the page holds to tell whether a next slice exists, without counting.
+     */
+    @Override
+    public Slice<T> findSlice(@Nullable Specification<T> spec, Pageable pageable) {
+        Assert.notNull(pageable, "The given pageable must not be null!");
+        long start = metrics.start();
+        try {
+            TypedQuery<T> query = getQuery(spec, pageable);
+            if (pageable.isUnpaged()) {
+                return new SliceImpl<>(query.getResultList(), pageable, false);
+            }
+            query.setFirstResult((int) pageable.getOffset());
+            query.setMaxResults(pageable.getPageSize() + 1);
+            List<T> content = query.getResultList();
+            boolean hasNext = content.size() > pageable.getPageSize();
+            return new SliceImpl<>(hasNext ? content.subList(0, pageable.getPageSize()) : content, pageable, hasNext);
+        } finally {
+            metrics.stop(Operation.FIND_SLICE, start);
+        }
+    }
+
+    /**
+     * Reads the live rows as projections selecting only the properties the projection needs.
+     */
+    @Override
+    public <P> List<P> findAll(@Nullable Specification<T> spec, Class<P> projection, Sort sort) {
+        Assert.notNull(sort, "The given sort must not be null!");
+        long start = metrics.start();
+        try {
+            SoftDeleteProjection<T, P> reader = getProjection(projection);
+            return reader.toProjections(createProjectionQuery(reader, spec, sort).getResultList());
+        } finally {
+            metrics.stop(Operation.FIND_ALL_PROJECTED, start);
+        }
+    }
+
+    /**
+     * Reads a page of live rows as projections, counting the total with {@link SoftDeleteOptions#countStrategy()} unless the
+     * page itself tells it.
+     */
+    @Override
+    public <P> Page<P> findAll(@Nullable Specification<T> spec, Class<P> projection, Pageable pageable) {
+        Assert.notNull(pageable, "The given pageable must not be null!");
+        long start = metrics.start();
+        try {
+            SoftDeleteProjection<T, P> reader = getProjection(projection);
+            TypedQuery<?> query = createProjectionQuery(reader, spec, pageable.getSort());
+            if (pageable.isUnpaged()) {
+                return new PageImpl<>(reader.toProjections(query.getResultList()));
+            }
+            query.setFirstResult((int) pageable.getOffset());
+            query.setMaxResults(pageable.getPageSize());
+            return PageableExecutionUtils.getPage(reader.toProjections(query.getResultList()), pageable,
+                    () -> doCount(spec, countStrategy));
+        } finally {
+            metrics.stop(Operation.FIND_ALL_PROJECTED, start);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private <P> SoftDeleteProjection<T, P> getProjection(Class<P> projection) {
+        Assert.notNull(projection, "The projection type must not be null!");
+        return (SoftDeleteProjection<T, P>) projections.computeIfAbsent(projection,
+                type -> new SoftDeleteProjection<>(em.getMetamodel(), getDomainClass(), type, projectionFactory));
+    }
+
+    private TypedQuery<?> createProjectionQuery(SoftDeleteProjection<T, ?> reader, @Nullable Specification<T> spec,
+            Sort sort) {
+        flushPendingDeletes();
+        return reader.createQuery(em, spec != null ? spec.and(live()) : live(), sort);
+    }
+
+    /**
+     * Drops the cached count before inserting new entities.
+     */
+    @Override
+    @Transactional
+    public <S extends T> S save(S entity) {
+        if (entityInformation.isNew(entity)) {
+            countCache.invalidate();
+        }
+        return super.save(entity);
+    }
+
+    /**
+     * Answers from the persistence context or the second-level cache when they hold the entity and checks the soft
+     * delete flag in memory, only a miss on both is sent to the database as a filtered query.
+     *
+     * @param id must not be {@literal null}.
+     */
     @Override
     public Optional<T> findById(ID id) {
-       return super.findOne(Specification.where(new ByIdSpecification<T,ID>(id,entityInformation)));
+        Assert.notNull(id, ID_MUST_NOT_BE_NULL);
+        long start = metrics.start();
+        try {
+            return doFindById(id);
+        } finally {
+            metrics.stop(Operation.FIND_BY_ID, start);
+        }
+    }
+
+    private Optional<T> doFindById(ID id) {
+        flushPendingDeletes();
+        if (managedEntities != null && !entityInformation.hasCompositeId()
+                && (metadata == null || metadata.getLockModeType() == null)) {
+            T entity = managedEntities.find(id);
+            if (entity == null && managedEntities.isCached(id)) {
+                entity = em.find(getDomainClass(), id);
+            }
+            if (entity != null) {
+                return managedEntities.isRemoved(entity) ? Optional.empty() : Optional.of(entity);
+            }
+        }
+        return super.findOne(Specification.where(new ByIdSpecification<T,ID>(id,idLayout)));
     }
 
     @Override
     protected <S extends T> TypedQuery<Long> getCountQuery(Specification<S> spec, Class<S> domainClass) {
-        return super.getCountQuery(spec != null ? spec.and(new DeletedSpecification<>()) : new DeletedSpecification<>(), domainClass);
+        long start = metrics.start();
+        try {
+            flushPendingDeletes();
+            return super.getCountQuery(spec != null ? spec.and(live()) : live(), domainClass);
+        } finally {
+            metrics.stop(Operation.GET_COUNT_QUERY, start);
+        }
+    }
+
+    /**
+     * Writes the soft deletes of the entity type deferred in the current transaction, so the statement about to run
+     * sees them.
+     */
+    private void flushPendingDeletes() {
+        PendingSoftDeletes.flush(pendingDeletesKey);
+    }
+
+    @Override
+    @Transactional
+    public void flush() {
+        flushPendingDeletes();
+        super.flush();
+    }
+
+    @SuppressWarnings("unchecked")
+    private <S extends T> Specification<S> live() {
+        return (Specification<S>) liveSpecification;
     }
 
     private static final class ByIdSpecification<T,ID extends Serializable> implements Specification<T>{
         private final ID id;
-        private final JpaEntityInformation<T, ?> information;
+        private final SoftDeleteIdLayout idLayout;
 
-        public ByIdSpecification(ID id, JpaEntityInformation<T, ?> information) {
+        public ByIdSpecification(ID id, SoftDeleteIdLayout idLayout) {
             this.id = id;
-            this.information = information;
+            this.idLayout = idLayout;
         }
 
         @Override
         public Predicate toPredicate(Root<T> root, CriteriaQuery<?> query, CriteriaBuilder criteriaBuilder) {
             final List<Predicate> predicates = new ArrayList<>();
-            if(information.hasCompositeId()){
-                information.getIdAttributeNames().forEach(name ->
-                        predicates.add(criteriaBuilder.equal(root.get(name), information.getCompositeIdAttributeValue(id, name))));
+            if(idLayout.isComposite()){
+                List<String> names = idLayout.getAttributeNames();
+                for (int i = 0; i < names.size(); i++) {
+                    predicates.add(criteriaBuilder.equal(root.get(names.get(i)), idLayout.getAttributeValue(id, i)));
+                }
                 return criteriaBuilder.and(predicates.toArray(new Predicate[predicates.size()]));
             }
-            return criteriaBuilder.equal(root.get(information.getIdAttribute().getName()), id);
+            return criteriaBuilder.equal(root.get(idLayout.getAttributeName()), id);
         }
     }
 
-    private static final class DeletedSpecification<T> implements Specification<T>{
-        private boolean isDeleted;
+    private static final class AfterIdSpecification<T> implements Specification<T>{
+        private final String idName;
+        private final Object lastId;
 
-        public DeletedSpecification(boolean isDeleted) {
-            this.isDeleted = isDeleted;
+        AfterIdSpecification(String idName, Object lastId) {
+            this.idName = idName;
+            this.lastId = lastId;
         }
 
-        public DeletedSpecification() {
-            this.isDeleted = false;
+        @Override
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        public Predicate toPredicate(Root<T> root, CriteriaQuery<?> query, CriteriaBuilder criteriaBuilder) {
+            return criteriaBuilder.greaterThan((Expression) root.get(idName), (Comparable) lastId);
+        }
+    }
+
+    private static final class DeletedSpecification<T> implements Specification<T>{
+        private final SoftDeleteColumn column;
+        private final boolean isDeleted;
+
+        public DeletedSpecification(SoftDeleteColumn column, boolean isDeleted) {
+            this.column = column;
+            this.isDeleted = isDeleted;
         }
 
         @Override
         public Predicate toPredicate(Root<T> root, CriteriaQuery<?> query, CriteriaBuilder criteriaBuilder) {
             if(isDeleted){
-                return criteriaBuilder.isNotNull(root.get(SOFT_DELETE_FLAG_PROPERTIES));
+                return column.isRemoved(root, criteriaBuilder);
             }else{
-                return criteriaBuilder.isNull(root.get(SOFT_DELETE_FLAG_PROPERTIES));
+                return column.isLive(root, criteriaBuilder);
             }
         }
     }
 
     @Override
     protected <S extends T> TypedQuery<S> getQuery(Specification<S> spec, Class<S> domainClass, Sort sort) {
-        return super.getQuery(spec != null ? spec.and(new DeletedSpecification<>()) : new DeletedSpecification<>(), domainClass, sort);
+        long start = metrics.start();
+        try {
+            flushPendingDeletes();
+            return super.getQuery(spec != null ? spec.and(live()) : live(), domainClass, sort);
+        } finally {
+            metrics.stop(Operation.GET_QUERY, start);
+        }
     }
 }
@@ -1,18 +1,52 @@
 package org.yuequan.jpa.soft.delete.repository.support;
 
+import org.springframework.beans.BeansException;
+import org.springframework.beans.factory.BeanFactory;
+import org.springframework.beans.factory.NoSuchBeanDefinitionException;
+import org.springframework.data.jpa.provider.PersistenceProvider;
+import org.springframework.data.jpa.provider.QueryExtractor;
+import org.springframework.data.jpa.repository.query.JpaQueryLookupStrategy;
 import org.springframework.data.jpa.repository.support.JpaEntityInformation;
 import org.springframework.data.jpa.repository.support.JpaRepositoryFactory;
 import org.springframework.data.jpa.repository.support.SimpleJpaRepository;
 import org.springframework.data.repository.core.RepositoryInformation;
 import org.springframework.data.repository.core.RepositoryMetadata;
+import org.springframework.data.repository.query.EvaluationContextProvider;
+import org.springframework.data.repository.query.QueryLookupStrategy;
+import org.springframework.lang.Nullable;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.util.Assert;
+import org.springframework.util.ClassUtils;
 import org.yuequan.jpa.soft.delete.repository.SoftDelete;
+import org.yuequan.jpa.soft.delete.repository.SoftDeleteOptions;
 
 import javax.persistence.EntityManager;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * @author yuequan
  */
 public class JpaSoftDeleteRepositoryFactory extends JpaRepositoryFactory {
+
+    private static final String DEFAULT_TRANSACTION_MANAGER = "transactionManager";
+    private static final String MICROMETER_REGISTRY_CLASS = "io.micrometer.core.instrument.MeterRegistry";
+    private static final SoftDeleteOptions DEFAULT_OPTIONS = Defaults.class.getAnnotation(SoftDeleteOptions.class);
+
+    private final EntityManager entityManager;
+    private final Map<List<?>, SoftDeleteMetadata> resolvedMetadata = new ConcurrentHashMap<>();
+    private final Map<List<?>, Optional<SoftDeleteCascade>> cascades = new ConcurrentHashMap<>();
+
+    private @Nullable BeanFactory beanFactory;
+    private String transactionManagerName = DEFAULT_TRANSACTION_MANAGER;
+    private boolean metricsEnabled;
+
     /**
      * Creates a new {@link JpaRepositoryFactory}.
      *
@@ -20,6 +54,47 @@ public class JpaSoftDeleteRepositoryFactory extends JpaRepositoryFactory {
      */
     public JpaSoftDeleteRepositoryFactory(EntityManager entityManager) {
         super(entityManager);
+        this.entityManager = entityManager;
+    }
+
+    @Override
+    public void setBeanFactory(BeanFactory beanFactory) throws BeansException {
+        super.setBeanFactory(beanFactory);
+        this.beanFactory = beanFactory;
+    }
+
+    /**
+     * Configures the name of the transaction manager used for repositories committing every soft delete batch on its
+     * own.
+     *
+     * @param transactionManagerName can be {@literal null}, defaults to {@code transactionManager}.
+     */
+    public void setTransactionManagerName(@Nullable String transactionManagerName) {
+        this.transactionManagerName = transactionManagerName == null ? DEFAULT_TRANSACTION_MANAGER : transactionManagerName;
+    }
+
+    /**
+     * Configures whether soft delete repositories record Micrometer timings and affected rows. Requires
+     * {@code micrometer-core} on the classpath.
+     *
+     * @param metricsEnabled
+     */
+    public void setMetricsEnabled(boolean metricsEnabled) {
+        this.metricsEnabled = metricsEnabled;
+    }
+
+    /**
+     * Resolves the query methods of {@link SoftDelete} repositories against an {@link EntityManager} adding the soft
+     * delete filter to their queries.
+     */
+    @Override
+    protected Optional<QueryLookupStrategy> getQueryLookupStrategy(@Nullable QueryLookupStrategy.Key key,
+            EvaluationContextProvider evaluationContextProvider) {
+        QueryExtractor extractor = PersistenceProvider.fromEntityManager(entityManager);
+        return Optional.of(new SoftDeleteQueryLookupStrategy(
+                JpaQueryLookupStrategy.create(entityManager, key, extractor, evaluationContextProvider),
+                this::createFilter, filter -> JpaQueryLookupStrategy.create(filter.wrap(entityManager), key, extractor,
+                        evaluationContextProvider)));
     }
 
     @Override
@@ -29,4 +104,138 @@ public class JpaSoftDeleteRepositoryFactory extends JpaRepositoryFactory {
         }
         return super.getRepositoryBaseClass(metadata);
     }
+
+    @Override
+    protected SimpleJpaRepository<?, ?> getTargetRepository(RepositoryInformation information, EntityManager entityManager) {
+        SoftDelete softDelete = information.getRepositoryInterface().getAnnotation(SoftDelete.class);
+        if (softDelete == null || !JpaSoftDeleteRepository.class.isAssignableFrom(information.getRepositoryBaseClass())) {
+            return super.getTargetRepository(information, entityManager);
+        }
+        SoftDeleteMetadata metadata = getMetadata(information.getDomainType(), softDelete);
+        JpaSoftDeleteRepository<?, ?> repository = getTargetRepositoryViaReflection(information,
+                getEntityInformation(information.getDomainType()), entityManager, metadata);
+        SoftDeleteOptions options = information.getRepositoryInterface().getAnnotation(SoftDeleteOptions.class);
+        configure(repository, information, options == null ? DEFAULT_OPTIONS : options, metadata);
+        return repository;
+    }
+
+    private void configure(JpaSoftDeleteRepository<?, ?> repository, RepositoryInformation information,
+            SoftDeleteOptions options, SoftDeleteMetadata metadata) {
+        SoftDeleteColumn column = metadata.getColumn();
+        SoftDeleteQueries softDeleteQueries = metadata.getQueries();
+        repository.setBatchSize(options.batchSize());
+        repository.setPadBatches(options.padBatches());
+        repository.setFetchSize(options.fetchSize());
+        repository.setWriteBehind(options.writeBehind());
+        if (options.writeBehind() && PersistenceProvider.fromEntityManager(entityManager) == PersistenceProvider.HIBERNATE) {
+            PendingSoftDeletes.registerFlushListener(entityManager.getEntityManagerFactory());
+        }
+        repository.setLockOrdered(options.lockOrdered());
+        repository.setSkipLocked(options.skipLocked());
+        repository.setLockRetries(options.lockRetries(), Duration.parse(options.lockRetryBackoff()));
+        repository.setCountStrategy(options.countStrategy());
+        repository.setCountCacheTtl(Duration.parse(options.countCacheTtl()));
+        if (options.cascade()) {
+            repository.setCascade(cascades.computeIfAbsent(Arrays.asList(information.getDomainType(), column,
+                    options.cascadeDepth()), key -> Optional.ofNullable(SoftDeleteCascade.create(entityManager,
+                    information.getDomainType(), column, options.cascadeDepth()))).orElse(null));
+        }
+        String entityName = metadata.getEntityName();
+        SoftDeleteMetrics metrics = SoftDeleteMetrics.NONE;
+        if (metricsEnabled) {
+            Assert.state(ClassUtils.isPresent(MICROMETER_REGISTRY_CLASS, getClass().getClassLoader()),
+                    "Soft delete metrics require micrometer-core on the classpath!");
+            metrics = MicrometerSoftDeleteMetrics.create(beanFactory, entityName);
+        }
+        repository.setMetrics(metrics);
+        if (beanFactory != null) {
+            BeanFactory asyncBeanFactory = beanFactory;
+            repository.setAsyncExecution(() -> asyncBeanFactory.getBean(SoftDeleteAsyncExecutor.class),
+                    this::getTransactionManager);
+        }
+        if (options.commitPerBatch()) {
+            repository.setBatchTransactionManager(getTransactionManager());
+        }
+        SoftDeleteArchive archive = null;
+        if (options.archive()) {
+            Assert.state(beanFactory != null, "A BeanFactory is required to archive soft deleted rows!");
+            Assert.state(PersistenceProvider.fromEntityManager(entityManager) == PersistenceProvider.HIBERNATE,
+                    "Archiving soft deleted rows requires Hibernate!");
+            archive = SoftDeleteArchive.create(entityManager, information.getDomainType(), column, options.archiveTable());
+            repository.setArchive(archive);
+            beanFactory.getBean(SoftDeletePurgeScheduler.class).register(new SoftDeleteArchiver(entityName,
+                    entityManager, archive, createChunkTransactionTemplate(), metrics));
+        }
+        if (options.outbox()) {
+            Assert.state(beanFactory != null, "A BeanFactory is required to relay soft delete events!");
+            Assert.state(PersistenceProvider.fromEntityManager(entityManager) == PersistenceProvider.HIBERNATE,
+                    "Recording soft delete events requires Hibernate!");
+            SoftDeleteOutbox outbox = SoftDeleteOutbox.create(entityManager, information.getDomainType(), entityName,
+                    options.outboxTable());
+            repository.setOutbox(outbox);
+            beanFactory.getBean(SoftDeleteOutboxRelayer.class).register(outbox.getTable(), entityManager,
+                    createChunkTransactionTemplate());
+        }
+        if (beanFactory != null) {
+            registerIndexAdvice(metadata, !options.retention().isEmpty() || options.archive());
+        }
+        if (!options.retention().isEmpty()) {
+            Assert.state(beanFactory != null, "A BeanFactory is required to purge soft deleted rows!");
+            Assert.state(column.hasRemovalTime(), "The " + column.getStrategy() + " strategy keeps no removal time to purge by!");
+            beanFactory.getBean(SoftDeletePurgeScheduler.class).register(new SoftDeletePurger(entityName, entityManager,
+                    softDeleteQueries, createChunkTransactionTemplate(), Duration.parse(options.retention()), metrics,
+                    archive));
+        }
+    }
+
+    /**
+     * Hands the soft delete column to the {@link SoftDeleteIndexAdvisor}, if one is defined.
+     */
+    private void registerIndexAdvice(SoftDeleteMetadata metadata, boolean selectsRemoved) {
+        SoftDeleteIndexAdvisor advisor;
+        try {
+            advisor = beanFactory.getBean(SoftDeleteIndexAdvisor.class);
+        } catch (NoSuchBeanDefinitionException ex) {
+            return;
+        }
+        advisor.register(entityManager.getEntityManagerFactory(), metadata, selectsRemoved);
+    }
+
+    private TransactionTemplate createChunkTransactionTemplate() {
+        TransactionTemplate transactionTemplate = new TransactionTemplate(getTransactionManager());
+        transactionTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        return transactionTemplate;
+    }
+
+    private SoftDeleteFilter createFilter(RepositoryMetadata metadata) {
+        SoftDelete softDelete = metadata.getRepositoryInterface().getAnnotation(SoftDelete.class);
+        Class<?> domainClass = metadata.getDomainType();
+        SoftDeleteMetadata softDeleteMetadata = getMetadata(domainClass, softDelete);
+        SoftDeleteColumn column = softDeleteMetadata.getColumn();
+        Object pendingDeletesKey = PendingSoftDeletes.key(domainClass, column);
+        return new SoftDeleteFilter(domainClass, softDeleteMetadata.getEntityName(), column,
+                entityManager, softDeleteMetadata.getTable(),
+                () -> PendingSoftDeletes.flush(pendingDeletesKey));
+    }
+
+    /**
+     * Returns the soft delete metadata of the given entity type, resolving it on first use and failing right away if it
+     * lacks the soft delete property.
+     */
+    private SoftDeleteMetadata getMetadata(Class<?> domainClass, SoftDelete softDelete) {
+        SoftDeleteMetadata metadata = resolvedMetadata.computeIfAbsent(Arrays.asList(domainClass,
+                softDelete.property(), softDelete.strategy()), key -> SoftDeleteMetadata.resolve(entityManager,
+                getEntityInformation(domainClass), softDelete.property(), softDelete.strategy()));
+        metadata.validate();
+        return metadata;
+    }
+
+    private PlatformTransactionManager getTransactionManager() {
+        Assert.state(beanFactory != null, "A BeanFactory is required to look up the transaction manager!");
+        return beanFactory.getBean(transactionManagerName, PlatformTransactionManager.class);
+    }
+
+    @SoftDeleteOptions
+    private interface Defaults {
+    }
 }
@@ -1,5 +1,7 @@
 package org.yuequan.jpa.soft.delete.repository.support;
 
+import org.springframework.context.EnvironmentAware;
+import org.springframework.core.env.Environment;
 import org.springframework.data.jpa.repository.support.JpaRepositoryFactory;
 import org.springframework.data.jpa.repository.support.JpaRepositoryFactoryBean;
 import org.springframework.data.repository.Repository;
@@ -10,7 +12,17 @@ import javax.persistence.EntityManager;
 /**
  * @author yuequan
  */
-public class JpaSoftDeleteRepositoryFactoryBean<T extends Repository<S, ID>, S, ID> extends JpaRepositoryFactoryBean<T, S, ID> {
+public class JpaSoftDeleteRepositoryFactoryBean<T extends Repository<S, ID>, S, ID> extends JpaRepositoryFactoryBean<T, S, ID>
+        implements EnvironmentAware {
+
+    /**
+     * Property enabling the Micrometer instrumentation of soft delete repositories.
+     */
+    public static final String METRICS_ENABLED_PROPERTY = "jpa.soft-delete.metrics.enabled";
+
+    private String transactionManagerName;
+    private boolean metricsEnabled;
+
     /**
      * Creates a new {@link JpaRepositoryFactoryBean} for the given repository interface.
      *
@@ -20,8 +32,22 @@ public class JpaSoftDeleteRepositoryFactoryBean<T extends Repository<S, ID>, S,
         super(repositoryInterface);
     }
 
+    @Override
+    public void setTransactionManager(String transactionManager) {
+        super.setTransactionManager(transactionManager);
+        this.transactionManagerName = transactionManager;
+    }
+
+    @Override
+    public void setEnvironment(Environment environment) {
+        this.metricsEnabled = environment.getProperty(METRICS_ENABLED_PROPERTY, Boolean.class, false);
+    }
+
     @Override
     protected RepositoryFactorySupport createRepositoryFactory(EntityManager entityManager) {
-        return new JpaSoftDeleteRepositoryFactory(entityManager);
+        JpaSoftDeleteRepositoryFactory factory = new JpaSoftDeleteRepositoryFactory(entityManager);
+        factory.setTransactionManagerName(transactionManagerName);
+        factory.setMetricsEnabled(metricsEnabled);
+        return factory;
     }
 }
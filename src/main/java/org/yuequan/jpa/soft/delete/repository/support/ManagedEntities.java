@@ -0,0 +1,146 @@
+package org.yuequan.jpa.soft.delete.repository.support;
+
+import org.hibernate.engine.spi.EntityEntry;
+import org.hibernate.engine.spi.EntityKey;
+import org.hibernate.engine.spi.PersistenceContext;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.hibernate.engine.spi.Status;
+import org.hibernate.persister.entity.EntityPersister;
+import org.springframework.lang.Nullable;
+
+import javax.persistence.EntityManager;
+import java.io.Serializable;
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * Access to the instances of one entity type held by the Hibernate persistence context of an {@link EntityManager}.
+ * Lets the soft delete repository answer lookups from memory and keep managed instances in line with the bulk
+ * updates it issues.
+ * @author yuequan
+ * @param <T> the type of the entity to handle
+ */
+final class ManagedEntities<T> {
+
+    private final Class<T> domainClass;
+    private final EntityManager em;
+    private final SoftDeleteColumn column;
+    private final @Nullable String versionProperty;
+
+    /**
+     * @param versionProperty the version property the soft delete statements increment, can be {@literal null}.
+     */
+    ManagedEntities(Class<T> domainClass, EntityManager em, SoftDeleteColumn column, @Nullable String versionProperty) {
+        this.domainClass = domainClass;
+        this.em = em;
+        this.column = column;
+        this.versionProperty = versionProperty;
+    }
+
+    /**
+     * Returns the managed instance with the given identifier without touching the database.
+     *
+     * @param id must not be {@literal null}.
+     * @return the managed instance or {@literal null} if the persistence context does not hold one.
+     */
+    @Nullable
+    T find(Object id) {
+        SessionImplementor session = em.unwrap(SessionImplementor.class);
+        EntityPersister persister = session.getFactory().getMetamodel().entityPersister(domainClass);
+        Object entity = session.getPersistenceContext().getEntity(new EntityKey((Serializable) id, persister));
+        return domainClass.isInstance(entity) ? domainClass.cast(entity) : null;
+    }
+
+    /**
+     * Returns whether the second-level cache holds an entry for the given identifier.
+     */
+    boolean isCached(Object id) {
+        return em.getEntityManagerFactory().getCache().contains(domainClass, id);
+    }
+
+    /**
+     * Returns whether the given managed instance is flagged as removed.
+     */
+    boolean isRemoved(T entity) {
+        SessionImplementor session = em.unwrap(SessionImplementor.class);
+        return column.isRemoved(session.getEntityPersister(null, entity).getPropertyValue(entity, column.getProperty()));
+    }
+
+    /**
+     * Stamps the given removal value onto the managed instances with the given identifiers whose removal state it
+     * changes, looking each of them up by its entity key.
+     *
+     * @param ids the identifiers of the rows the statement changed.
+     * @param removedAt the value written to the database.
+     * @see #stamp(Object, EntityEntry, Object, SessionImplementor)
+     */
+    void markRemoved(Collection<?> ids, @Nullable Object removedAt) {
+        SessionImplementor session = em.unwrap(SessionImplementor.class);
+        PersistenceContext persistenceContext = session.getPersistenceContext();
+        EntityPersister persister = session.getFactory().getMetamodel().entityPersister(domainClass);
+        for (Object id : ids) {
+            Object managed = persistenceContext.getEntity(session.generateEntityKey((Serializable) id, persister));
+            if (managed != null) {
+                stamp(managed, persistenceContext.getEntry(managed), removedAt, session);
+            }
+        }
+    }
+
+    /**
+     * Stamps the given removal value onto every managed instance of the entity type whose removal state it changes,
+     * for statements updating the whole table.
+     *
+     * @param removedAt the value written to the database.
+     */
+    void markAllRemoved(@Nullable Object removedAt) {
+        SessionImplementor session = em.unwrap(SessionImplementor.class);
+        for (Map.Entry<Object, EntityEntry> managed : session.getPersistenceContext().reentrantSafeEntityEntries()) {
+            if (domainClass.isInstance(managed.getKey())) {
+                stamp(managed.getKey(), managed.getValue(), removedAt, session);
+            }
+        }
+    }
+
+    /**
+     * Stamps the removal value onto a managed instance unless it already has that removal state, including the loaded
+     * state so the change is not flushed a second time, and increments the version like the statement did. Mirrors
+     * statements that only update live rows when removing and only removed rows when restoring.
+     */
+    private void stamp(Object entity, @Nullable EntityEntry entry, @Nullable Object removedAt, SessionImplementor session) {
+        if (entry == null || !isLive(entry.getStatus())) {
+            return;
+        }
+        EntityPersister persister = entry.getPersister();
+        int index = persister.getEntityMetamodel().getPropertyIndex(column.getProperty());
+        if (column.isRemoved(persister.getPropertyValue(entity, index)) == column.isRemoved(removedAt)) {
+            return;
+        }
+        persister.setPropertyValue(entity, index, removedAt);
+        Object[] loadedState = entry.getLoadedState();
+        if (loadedState != null) {
+            loadedState[index] = removedAt;
+        }
+        if (versionProperty != null && persister.isVersioned()) {
+            incrementVersion(entity, entry, session);
+        }
+    }
+
+    /**
+     * Increments the version of the given managed instance, in the instance, its loaded state and its entry, so its
+     * next flush is checked against the version the statement wrote.
+     */
+    @SuppressWarnings("unchecked")
+    private void incrementVersion(Object entity, EntityEntry entry, SessionImplementor session) {
+        EntityPersister persister = entry.getPersister();
+        Object version = persister.getVersionType().next(entry.getVersion(), session);
+        if (entry.getLoadedState() == null) {
+            persister.setPropertyValue(entity, persister.getVersionProperty(), version);
+            return;
+        }
+        entry.forceLocked(entity, version);
+    }
+
+    private static boolean isLive(Status status) {
+        return status == Status.MANAGED || status == Status.READ_ONLY;
+    }
+}
@@ -0,0 +1,75 @@
+package org.yuequan.jpa.soft.delete.repository.support;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.beans.factory.BeanFactory;
+import org.springframework.beans.factory.NoSuchBeanDefinitionException;
+import org.springframework.lang.Nullable;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link SoftDeleteMetrics} backed by Micrometer. Publishes the {@code jpa.soft.delete} timer and the
+ * {@code jpa.soft.delete.rows} summary, tagged by {@code entity} and {@code operation}. All meters are registered up
+ * front so recording is a plain map lookup.
+ * @author yuequan
+ */
+final class MicrometerSoftDeleteMetrics implements SoftDeleteMetrics {
+
+    static final String TIMER_NAME = "jpa.soft.delete";
+    static final String ROWS_NAME = "jpa.soft.delete.rows";
+
+    private final Map<Operation, Timer> timers = new EnumMap<>(Operation.class);
+    private final Map<Operation, DistributionSummary> rows = new EnumMap<>(Operation.class);
+
+    private MicrometerSoftDeleteMetrics(MeterRegistry registry, String entityName) {
+        for (Operation operation : Operation.values()) {
+            timers.put(operation, Timer.builder(TIMER_NAME)
+                    .description("Time spent in soft delete repository operations")
+                    .tag("entity", entityName)
+                    .tag("operation", operation.getTag())
+                    .register(registry));
+            rows.put(operation, DistributionSummary.builder(ROWS_NAME)
+                    .description("Rows affected by a single soft delete statement")
+                    .baseUnit("rows")
+                    .tag("entity", entityName)
+                    .tag("operation", operation.getTag())
+                    .register(registry));
+        }
+    }
+
+    /**
+     * Creates the metrics of the given entity, registered with the {@link MeterRegistry} of the given
+     * {@link BeanFactory} or the global registry if there is none.
+     */
+    static SoftDeleteMetrics create(@Nullable BeanFactory beanFactory, String entityName) {
+        MeterRegistry registry = Metrics.globalRegistry;
+        if (beanFactory != null) {
+            try {
+                registry = beanFactory.getBean(MeterRegistry.class);
+            } catch (NoSuchBeanDefinitionException ex) {
+                // fall back to the global registry
+            }
+        }
+        return new MicrometerSoftDeleteMetrics(registry, entityName);
+    }
+
+    @Override
+    public long start() {
+        return System.nanoTime();
+    }
+
+    @Override
+    public void stop(Operation operation, long start) {
+        timers.get(operation).record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public void rows(Operation operation, int rows) {
+        this.rows.get(operation).record(rows);
+    }
+}
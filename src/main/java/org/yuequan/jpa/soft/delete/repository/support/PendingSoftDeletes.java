@@ -0,0 +1,180 @@
+package org.yuequan.jpa.soft.delete.repository.support;
+
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.event.service.spi.EventListenerGroup;
+import org.hibernate.event.service.spi.EventListenerRegistry;
+import org.hibernate.event.spi.AutoFlushEvent;
+import org.hibernate.event.spi.AutoFlushEventListener;
+import org.hibernate.event.spi.EventSource;
+import org.hibernate.event.spi.EventType;
+import org.hibernate.event.spi.FlushEvent;
+import org.hibernate.event.spi.FlushEventListener;
+import org.hibernate.persister.entity.EntityPersister;
+import org.springframework.lang.Nullable;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.persistence.EntityManagerFactory;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.ToIntFunction;
+
+/**
+ * The identifiers of one entity type whose soft delete is deferred, bound to the surrounding transaction as a
+ * resource. They are written with set-based statements when the transaction flushes or commits, or earlier when a
+ * query on the entity type asks for it through {@link #flush(Object)}. With Hibernate the listener registered by
+ * {@link #registerFlushListener(EntityManagerFactory)} also writes them when the session flushes, and before every
+ * query reading the table of the entity type that Hibernate auto-flushes for. A rollback discards them.
+ * @author yuequan
+ */
+final class PendingSoftDeletes {
+
+    private final Class<?> domainClass;
+    private final Set<Object> ids = new LinkedHashSet<>();
+    private final ToIntFunction<Collection<Object>> writer;
+
+    private PendingSoftDeletes(Class<?> domainClass, ToIntFunction<Collection<Object>> writer) {
+        this.domainClass = domainClass;
+        this.writer = writer;
+    }
+
+    /**
+     * Returns the key of the pending soft deletes of the given entity type and column, equal for every repository of
+     * them.
+     */
+    static Object key(Class<?> domainClass, SoftDeleteColumn column) {
+        return Arrays.asList(PendingSoftDeletes.class, domainClass, column);
+    }
+
+    /**
+     * Defers the soft delete of the given identifiers until the transaction flushes, binding the pending soft deletes
+     * for the given key on first use.
+     *
+     * @param key as returned by {@link #key(Class, SoftDeleteColumn)}.
+     * @param domainClass the entity type of the key.
+     * @param ids must not be {@literal null}.
+     * @param writer soft deletes a collection of identifiers and returns the number of affected rows.
+     */
+    static void add(Object key, Class<?> domainClass, Iterable<?> ids, ToIntFunction<Collection<Object>> writer) {
+        PendingSoftDeletes pending = (PendingSoftDeletes) TransactionSynchronizationManager.getResource(key);
+        if (pending == null) {
+            pending = new PendingSoftDeletes(domainClass, writer);
+            TransactionSynchronizationManager.bindResource(key, pending);
+            TransactionSynchronizationManager.registerSynchronization(new FlushingSynchronization(key, pending));
+        }
+        for (Object id : ids) {
+            if (id != null) {
+                pending.ids.add(id);
+            }
+        }
+    }
+
+    /**
+     * Writes the soft deletes pending for the given key in the current transaction, if any.
+     *
+     * @return the number of affected rows.
+     */
+    static int flush(Object key) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            return 0;
+        }
+        PendingSoftDeletes pending = (PendingSoftDeletes) TransactionSynchronizationManager.getResource(key);
+        return pending == null ? 0 : pending.flush();
+    }
+
+    /**
+     * Registers the listener writing pending soft deletes on the flushes of the sessions of the given Hibernate
+     * {@link EntityManagerFactory}, unless it already is.
+     */
+    static void registerFlushListener(EntityManagerFactory entityManagerFactory) {
+        EventListenerRegistry registry = entityManagerFactory.unwrap(SessionFactoryImplementor.class)
+                .getServiceRegistry().getService(EventListenerRegistry.class);
+        EventListenerGroup<AutoFlushEventListener> autoFlush = registry.getEventListenerGroup(EventType.AUTO_FLUSH);
+        for (AutoFlushEventListener listener : autoFlush.listeners()) {
+            if (listener instanceof FlushListener) {
+                return;
+            }
+        }
+        FlushListener listener = new FlushListener();
+        registry.prependListeners(EventType.AUTO_FLUSH, listener);
+        registry.prependListeners(EventType.FLUSH, listener);
+    }
+
+    private int flush() {
+        if (ids.isEmpty()) {
+            return 0;
+        }
+        List<Object> flushed = new ArrayList<>(ids);
+        ids.clear();
+        return writer.applyAsInt(flushed);
+    }
+
+    /**
+     * Writes the soft deletes pending in the current transaction when a Hibernate session flushes, those of the entity
+     * types a query reads from before an auto-flush.
+     */
+    private static final class FlushListener implements AutoFlushEventListener, FlushEventListener {
+
+        @Override
+        public void onAutoFlush(AutoFlushEvent event) {
+            flushPending(event.getSession(), event.getQuerySpaces());
+        }
+
+        @Override
+        public void onFlush(FlushEvent event) {
+            flushPending(event.getSession(), null);
+        }
+
+        /**
+         * @param querySpaces the tables a query reads from, {@literal null} for all.
+         */
+        private void flushPending(EventSource session, @Nullable Set<Serializable> querySpaces) {
+            if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+                return;
+            }
+            for (Object resource : new ArrayList<>(TransactionSynchronizationManager.getResourceMap().values())) {
+                if (!(resource instanceof PendingSoftDeletes) || ((PendingSoftDeletes) resource).ids.isEmpty()) {
+                    continue;
+                }
+                PendingSoftDeletes pending = (PendingSoftDeletes) resource;
+                EntityPersister persister = session.getFactory().getMetamodel().entityPersisters()
+                        .get(pending.domainClass.getName());
+                if (persister != null && (querySpaces == null
+                        || !Collections.disjoint(Arrays.asList(persister.getQuerySpaces()), querySpaces))) {
+                    pending.flush();
+                }
+            }
+        }
+    }
+
+    private static final class FlushingSynchronization extends TransactionSynchronizationAdapter {
+        private final Object key;
+        private final PendingSoftDeletes pending;
+
+        FlushingSynchronization(Object key, PendingSoftDeletes pending) {
+            this.key = key;
+            this.pending = pending;
+        }
+
+        @Override
+        public void flush() {
+            pending.flush();
+        }
+
+        @Override
+        public void beforeCommit(boolean readOnly) {
+            pending.flush();
+        }
+
+        @Override
+        public void afterCompletion(int status) {
+            TransactionSynchronizationManager.unbindResourceIfPossible(key);
+        }
+    }
+}
@@ -0,0 +1,227 @@
+package org.yuequan.jpa.soft.delete.repository.support;
+
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.persister.entity.EntityPersister;
+import org.hibernate.persister.entity.SingleTableEntityPersister;
+import org.hibernate.query.NativeQuery;
+import org.hibernate.type.Type;
+import org.springframework.data.domain.Sort;
+import org.springframework.lang.Nullable;
+import org.springframework.util.Assert;
+import org.springframework.util.StringUtils;
+
+import javax.persistence.EntityManager;
+import javax.persistence.Query;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * The archive table of one entity type, a mirror of its table with the same columns in the same order that removed
+ * rows are moved to, so the entity table only holds live data. Rows are copied with {@code INSERT ... SELECT *} and
+ * every statement skips rows that already made it, so a chunk interrupted halfway can simply run again. Hibernate only,
+ * the statements are native SQL built from the entity persister.
+ * @author yuequan
+ */
+final class SoftDeleteArchive {
+
+    private static final String ARCHIVE_TABLE_SUFFIX = "_archive";
+
+    private final Class<?> domainClass;
+    private final SoftDeleteColumn column;
+    private final Type propertyType;
+    private final Type idType;
+    private final String table;
+    private final String archiveTable;
+    private final String idColumn;
+    private final String columnName;
+    private final SingleTableEntityPersister persister;
+    private final String forUpdate;
+
+    private SoftDeleteArchive(Class<?> domainClass, SoftDeleteColumn column, SingleTableEntityPersister persister,
+            String archiveTable) {
+        this.domainClass = domainClass;
+        this.column = column;
+        this.persister = persister;
+        this.propertyType = persister.getPropertyType(column.getProperty());
+        this.idType = persister.getIdentifierType();
+        this.table = persister.getTableName();
+        this.archiveTable = archiveTable;
+        this.idColumn = persister.getIdentifierColumnNames()[0];
+        this.columnName = persister.getPropertyColumnNames(column.getProperty())[0];
+        this.forUpdate = persister.getFactory().getJdbcServices().getDialect().getForUpdateString();
+    }
+
+    /**
+     * Creates the archive of the given entity type.
+     *
+     * @param archiveTable the name of the archive table, empty for the table name followed by {@code _archive}.
+     */
+    static SoftDeleteArchive create(EntityManager em, Class<?> domainClass, SoftDeleteColumn column, String archiveTable) {
+        SessionFactoryImplementor sessionFactory = em.getEntityManagerFactory().unwrap(SessionFactoryImplementor.class);
+        EntityPersister persister = sessionFactory.getMetamodel().entityPersister(domainClass);
+        Assert.state(persister instanceof SingleTableEntityPersister && !persister.getIdentifierType().isComponentType(),
+                "Archiving requires an entity mapped to a single table with a simple identifier!");
+        String tableName = ((SingleTableEntityPersister) persister).getTableName();
+        return new SoftDeleteArchive(domainClass, column, (SingleTableEntityPersister) persister,
+                StringUtils.hasText(archiveTable) ? archiveTable : tableName + ARCHIVE_TABLE_SUFFIX);
+    }
+
+    String getArchiveTable() {
+        return archiveTable;
+    }
+
+    /**
+     * Selects the identifiers of the next chunk of removed rows still in the entity table, ordered by identifier and
+     * following the given one.
+     */
+    List<?> findArchivableIds(EntityManager em, @Nullable Object lastId, int chunkSize) {
+        NativeQuery<?> query = createQuery(em, "select " + idColumn + " from " + table + " where "
+                + column.getRemovedSqlCondition(columnName) + (lastId == null ? "" : " and " + idColumn + " > :"
+                + SoftDeleteQueries.LAST_ID_PARAMETER) + " order by " + idColumn, true, true);
+        if (lastId != null) {
+            query.setParameter(SoftDeleteQueries.LAST_ID_PARAMETER, lastId, idType);
+        }
+        return query.setMaxResults(chunkSize).getResultList();
+    }
+
+    /**
+     * Moves the removed rows with the given identifiers from the entity table to the archive. The rows are locked in
+     * identifier order first, so none is restored between the copy and the delete and left live in the entity table
+     * while its copy stays in the archive.
+     *
+     * @return the number of rows removed from the entity table.
+     */
+    int archive(EntityManager em, Collection<?> ids) {
+        List<?> locked = bindIds(createQuery(em, "select " + idColumn + " from " + table + " where "
+                + column.getRemovedSqlCondition(columnName) + " and " + idColumn + " in (:"
+                + SoftDeleteQueries.IDS_PARAMETER + ") order by " + idColumn + forUpdate, true, true), ids)
+                .getResultList();
+        if (locked.isEmpty()) {
+            return 0;
+        }
+        bindIds(createQuery(em, "insert into " + archiveTable + " select * from " + table + " where "
+                + column.getRemovedSqlCondition(columnName) + " and " + idColumn + " in (:"
+                + SoftDeleteQueries.IDS_PARAMETER + ") and " + idColumn + " not in (select " + idColumn + " from "
+                + archiveTable + " where " + idColumn + " in (:" + SoftDeleteQueries.IDS_PARAMETER + "))", true, false),
+                locked)
+                .executeUpdate();
+        return bindIds(createQuery(em, "delete from " + table + " where " + column.getRemovedSqlCondition(columnName)
+                + " and " + idColumn + " in (:" + SoftDeleteQueries.IDS_PARAMETER + ") and " + idColumn + " in (select "
+                + idColumn + " from " + archiveTable + " where " + idColumn + " in (:" + SoftDeleteQueries.IDS_PARAMETER
+                + "))", true, true), locked)
+                .executeUpdate();
+    }
+
+    /**
+     * Moves the archived rows with the given identifiers back to the entity table, still flagged as removed.
+     *
+     * @return the number of rows moved back.
+     */
+    int unarchive(EntityManager em, Collection<?> ids) {
+        int moved = bindIds(createQuery(em, "insert into " + table + " select * from " + archiveTable + " where "
+                + idColumn + " in (:" + SoftDeleteQueries.IDS_PARAMETER + ") and " + idColumn + " not in (select "
+                + idColumn + " from " + table + " where " + idColumn + " in (:" + SoftDeleteQueries.IDS_PARAMETER
+                + "))", false, false), ids)
+                .executeUpdate();
+        bindIds(createQuery(em, "delete from " + archiveTable + " where " + idColumn + " in (:"
+                + SoftDeleteQueries.IDS_PARAMETER + ")", false, false), ids)
+                .executeUpdate();
+        return moved;
+    }
+
+    /**
+     * Selects a page of the removed rows, from the entity table and the archive, as entities.
+     *
+     * @param sort by properties mapped to a single column, unsorted orders by identifier.
+     */
+    @SuppressWarnings("unchecked")
+    <T> List<T> findDeleted(EntityManager em, Sort sort, int offset, int limit) {
+        Query query = em.createNativeQuery("select * from (select * from " + table + " where "
+                + column.getRemovedSqlCondition(columnName) + " union all select * from " + archiveTable + ") removed"
+                + " order by " + toOrderBy(sort), domainClass);
+        NativeQuery<?> nativeQuery = query.unwrap(NativeQuery.class);
+        nativeQuery.addSynchronizedEntityClass(domainClass);
+        bindRestoredValue(nativeQuery, true);
+        if (limit >= 0) {
+            query.setFirstResult(offset).setMaxResults(limit);
+        }
+        return query.getResultList();
+    }
+
+    /**
+     * Counts the removed rows, in the entity table and the archive.
+     */
+    long countDeleted(EntityManager em) {
+        Number removed = (Number) createQuery(em, "select count(*) from " + table + " where "
+                + column.getRemovedSqlCondition(columnName), true, true).getSingleResult();
+        Number archived = (Number) createQuery(em, "select count(*) from " + archiveTable, false, false)
+                .getSingleResult();
+        return removed.longValue() + archived.longValue();
+    }
+
+    /**
+     * Selects the identifiers of the next chunk of archived rows removed before the cutoff, ordered by identifier and
+     * following the given one.
+     */
+    List<?> findPurgeableIds(EntityManager em, Date cutoff, @Nullable Object lastId, int chunkSize) {
+        NativeQuery<?> query = createQuery(em, "select " + idColumn + " from " + archiveTable + " where " + columnName
+                + " < :" + SoftDeleteQueries.CUTOFF_PARAMETER + (lastId == null ? "" : " and " + idColumn + " > :"
+                + SoftDeleteQueries.LAST_ID_PARAMETER) + " order by " + idColumn, false, false);
+        query.setParameter(SoftDeleteQueries.CUTOFF_PARAMETER, column.getCutoffValue(cutoff), propertyType);
+        if (lastId != null) {
+            query.setParameter(SoftDeleteQueries.LAST_ID_PARAMETER, lastId, idType);
+        }
+        return query.setMaxResults(chunkSize).getResultList();
+    }
+
+    /**
+     * Physically deletes the archived rows with the given identifiers.
+     */
+    int purge(EntityManager em, Collection<?> ids) {
+        return bindIds(createQuery(em, "delete from " + archiveTable + " where " + idColumn + " in (:"
+                + SoftDeleteQueries.IDS_PARAMETER + ")", false, false), ids)
+                .executeUpdate();
+    }
+
+    private String toOrderBy(Sort sort) {
+        if (sort.isUnsorted()) {
+            return idColumn;
+        }
+        StringBuilder orderBy = new StringBuilder();
+        for (Sort.Order order : sort) {
+            String[] columns = persister.getIdentifierPropertyName().equals(order.getProperty())
+                    ? persister.getIdentifierColumnNames() : persister.getPropertyColumnNames(order.getProperty());
+            Assert.state(columns.length == 1 && columns[0] != null,
+                    "Sorting removed rows requires properties mapped to a single column!");
+            orderBy.append(orderBy.length() == 0 ? "" : ", ").append(columns[0]).append(order.isAscending() ? " asc" : " desc");
+        }
+        return orderBy.toString();
+    }
+
+    /**
+     * Creates a native statement. Statements reading or deleting from the entity table are synchronized on the entity
+     * so Hibernate flushes it first. Rows moved back from the archive are still removed, the restore that follows
+     * evicts them, so those statements and the ones on the archive alone are synchronized on nothing.
+     */
+    private NativeQuery<?> createQuery(EntityManager em, String sql, boolean bindsRestoredValue, boolean touchesEntity) {
+        NativeQuery<?> query = em.createNativeQuery(sql).unwrap(NativeQuery.class);
+        if (touchesEntity) {
+            query.addSynchronizedEntityClass(domainClass);
+        } else {
+            query.addSynchronizedQuerySpace("");
+        }
+        bindRestoredValue(query, bindsRestoredValue);
+        return query;
+    }
+
+    private void bindRestoredValue(NativeQuery<?> query, boolean bindsRestoredValue) {
+        if (bindsRestoredValue && column.hasRestoredParameter()) {
+            query.setParameter(SoftDeleteColumn.RESTORED_PARAMETER, column.getRestoredValue(), propertyType);
+        }
+    }
+
+    private NativeQuery<?> bindIds(NativeQuery<?> query, Collection<?> ids) {
+        return query.setParameterList(SoftDeleteQueries.IDS_PARAMETER, ids, idType);
+    }
+}
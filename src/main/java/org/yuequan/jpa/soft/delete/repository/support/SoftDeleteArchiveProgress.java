@@ -0,0 +1,66 @@
+package org.yuequan.jpa.soft.delete.repository.support;
+
+import org.springframework.lang.Nullable;
+
+import java.util.Date;
+
+/**
+ * Snapshot of the archiving progress of one entity type.
+ * @author yuequan
+ */
+public final class SoftDeleteArchiveProgress {
+
+    private final String entityName;
+    private final String archiveTable;
+    private final boolean running;
+    private final long archivedRows;
+    private final long chunks;
+    private final @Nullable Date lastFinishedAt;
+
+    SoftDeleteArchiveProgress(String entityName, String archiveTable, boolean running, long archivedRows, long chunks,
+                              @Nullable Date lastFinishedAt) {
+        this.entityName = entityName;
+        this.archiveTable = archiveTable;
+        this.running = running;
+        this.archivedRows = archivedRows;
+        this.chunks = chunks;
+        this.lastFinishedAt = lastFinishedAt;
+    }
+
+    public String getEntityName() {
+        return entityName;
+    }
+
+    public String getArchiveTable() {
+        return archiveTable;
+    }
+
+    /**
+     * Whether archiving of the entity type is in progress.
+     */
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * Rows moved to the archive since startup.
+     */
+    public long getArchivedRows() {
+        return archivedRows;
+    }
+
+    /**
+     * Chunks moved since startup, each in its own transaction.
+     */
+    public long getChunks() {
+        return chunks;
+    }
+
+    /**
+     * When the last complete run finished, {@literal null} before the first one.
+     */
+    @Nullable
+    public Date getLastFinishedAt() {
+        return lastFinishedAt;
+    }
+}
@@ -0,0 +1,104 @@
+package org.yuequan.jpa.soft.delete.repository.support;
+
+import org.springframework.lang.Nullable;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.yuequan.jpa.soft.delete.repository.support.SoftDeleteMetrics.Operation;
+
+import javax.persistence.EntityManager;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Moves the soft deleted rows of one entity type to its {@link SoftDeleteArchive}. Walks the removed rows by
+ * identifier (keyset pagination) and moves every chunk in its own short transaction, like the
+ * {@link SoftDeletePurger}.
+ * @author yuequan
+ */
+final class SoftDeleteArchiver {
+
+    private final String entityName;
+    private final EntityManager em;
+    private final SoftDeleteArchive archive;
+    private final TransactionTemplate transactionTemplate;
+    private final SoftDeleteMetrics metrics;
+
+    private final AtomicLong archivedRows = new AtomicLong();
+    private final AtomicLong chunks = new AtomicLong();
+    private volatile boolean running;
+    private volatile @Nullable Date lastFinishedAt;
+
+    SoftDeleteArchiver(String entityName, EntityManager em, SoftDeleteArchive archive,
+                       TransactionTemplate transactionTemplate, SoftDeleteMetrics metrics) {
+        this.entityName = entityName;
+        this.em = em;
+        this.archive = archive;
+        this.transactionTemplate = transactionTemplate;
+        this.metrics = metrics;
+    }
+
+    /**
+     * Moves all removed rows to the archive.
+     *
+     * @param chunkSize the maximum number of rows moved per transaction.
+     * @param chunkIntervalNanos the minimum time between the start of two chunks, {@literal 0} for no limit.
+     * @return the number of archived rows.
+     * @throws InterruptedException if the thread is interrupted while waiting for the next chunk.
+     */
+    synchronized int archive(int chunkSize, long chunkIntervalNanos) throws InterruptedException {
+        running = true;
+        long archivedBefore = archivedRows.get();
+        try {
+            Object lastId = null;
+            long chunkStart = 0;
+            while (true) {
+                if (chunkIntervalNanos > 0 && chunkStart != 0) {
+                    long wait = chunkStart + chunkIntervalNanos - System.nanoTime();
+                    if (wait > 0) {
+                        TimeUnit.NANOSECONDS.sleep(wait);
+                    }
+                }
+                if (Thread.currentThread().isInterrupted()) {
+                    throw new InterruptedException();
+                }
+                chunkStart = System.nanoTime();
+                Object after = lastId;
+                List<?> ids = transactionTemplate.execute(status -> archiveChunk(after, chunkSize));
+                if (ids.isEmpty()) {
+                    break;
+                }
+                lastId = ids.get(ids.size() - 1);
+                if (ids.size() < chunkSize) {
+                    break;
+                }
+            }
+            lastFinishedAt = new Date();
+            return (int) (archivedRows.get() - archivedBefore);
+        } finally {
+            running = false;
+        }
+    }
+
+    private List<?> archiveChunk(@Nullable Object lastId, int chunkSize) {
+        long start = metrics.start();
+        try {
+            List<?> ids = archive.findArchivableIds(em, lastId, chunkSize);
+            if (ids.isEmpty()) {
+                return ids;
+            }
+            int archived = archive.archive(em, ids);
+            archivedRows.addAndGet(archived);
+            chunks.incrementAndGet();
+            metrics.rows(Operation.ARCHIVE, archived);
+            return ids;
+        } finally {
+            metrics.stop(Operation.ARCHIVE, start);
+        }
+    }
+
+    SoftDeleteArchiveProgress getProgress() {
+        return new SoftDeleteArchiveProgress(entityName, archive.getArchiveTable(), running, archivedRows.get(),
+                chunks.get(), lastFinishedAt);
+    }
+}
@@ -0,0 +1,145 @@
+package org.yuequan.jpa.soft.delete.repository.support;
+
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.util.Assert;
+import org.springframework.util.ReflectionUtils;
+
+import java.lang.reflect.Method;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.ToIntFunction;
+
+/**
+ * Runs the chunks of asynchronous soft deletes and restores. At most {@link #getConcurrency()} chunks run at a time
+ * across all jobs, each holding one connection, so keep it below the size of the connection pool. Chunks run on
+ * virtual threads where the runtime offers them, otherwise on a fixed pool of {@link #getConcurrency()} threads.
+ * @author yuequan
+ */
+public class SoftDeleteAsyncExecutor implements DisposableBean {
+
+    private static final String VIRTUAL_THREAD_EXECUTOR_METHOD = "newVirtualThreadPerTaskExecutor";
+
+    private final int concurrency;
+    private final Semaphore connections;
+    private final ExecutorService executor;
+    private final boolean virtual;
+
+    /**
+     * Creates a new {@link SoftDeleteAsyncExecutor}.
+     *
+     * @param concurrency the maximum number of chunks running at a time, must be greater than zero.
+     * @param virtualThreads whether to run chunks on virtual threads if the runtime supports them.
+     */
+    public SoftDeleteAsyncExecutor(int concurrency, boolean virtualThreads) {
+        Assert.isTrue(concurrency > 0, "The soft delete concurrency must be greater than zero!");
+        this.concurrency = concurrency;
+        this.connections = new Semaphore(concurrency);
+        Method virtualThreadExecutor = virtualThreads
+                ? ReflectionUtils.findMethod(Executors.class, VIRTUAL_THREAD_EXECUTOR_METHOD) : null;
+        this.virtual = virtualThreadExecutor != null;
+        if (virtual) {
+            this.executor = (ExecutorService) ReflectionUtils.invokeMethod(virtualThreadExecutor, null);
+        } else {
+            AtomicInteger threads = new AtomicInteger();
+            this.executor = Executors.newFixedThreadPool(concurrency, runnable -> {
+                Thread thread = new Thread(runnable, "soft-delete-async-" + threads.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    public int getConcurrency() {
+        return concurrency;
+    }
+
+    /**
+     * Whether chunks run on virtual threads.
+     */
+    public boolean isVirtual() {
+        return virtual;
+    }
+
+    /**
+     * Runs the given chunk action for every batch of the given iterator, at most {@link #getConcurrency()} of them at
+     * a time. Batches are pulled one after the other as chunks finish, so a lazily produced iterator never gets ahead
+     * of the chunks by more than that.
+     *
+     * @param batches the batches to process, {@link Iterator#next()} may query the database.
+     * @param chunk processes a batch in its own transaction, returning the number of affected rows.
+     */
+    SoftDeleteJob submit(Iterator<List<Object>> batches, ToIntFunction<List<Object>> chunk) {
+        Chunks chunks = new Chunks(batches, chunk);
+        chunks.start();
+        return chunks.job;
+    }
+
+    @Override
+    public void destroy() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * The chunks of one job, each of the {@link #concurrency} slots running one chunk after the other.
+     */
+    private final class Chunks {
+        private final SoftDeleteJob job = new SoftDeleteJob();
+        private final Iterator<List<Object>> batches;
+        private final ToIntFunction<List<Object>> chunk;
+        private int slots;
+
+        Chunks(Iterator<List<Object>> batches, ToIntFunction<List<Object>> chunk) {
+            this.batches = batches;
+            this.chunk = chunk;
+        }
+
+        void start() {
+            slots = concurrency;
+            for (int i = 0; i < concurrency; i++) {
+                schedule();
+            }
+        }
+
+        private void schedule() {
+            try {
+                executor.execute(this::runNext);
+            } catch (RejectedExecutionException ex) {
+                job.completeExceptionally(ex);
+            }
+        }
+
+        private void runNext() {
+            List<Object> batch;
+            synchronized (this) {
+                try {
+                    batch = !job.isDone() && batches.hasNext() ? batches.next() : null;
+                } catch (RuntimeException ex) {
+                    job.completeExceptionally(ex);
+                    batch = null;
+                }
+                if (batch == null) {
+                    if (--slots == 0) {
+                        job.complete(job.getAffectedRows());
+                    }
+                    return;
+                }
+            }
+            connections.acquireUninterruptibly();
+            try {
+                if (!job.isDone()) {
+                    job.chunkCompleted(chunk.applyAsInt(batch));
+                }
+            } catch (RuntimeException | Error ex) {
+                job.completeExceptionally(ex);
+            } finally {
+                connections.release();
+            }
+            schedule();
+        }
+    }
+}
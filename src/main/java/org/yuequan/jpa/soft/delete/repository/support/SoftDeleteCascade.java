@@ -0,0 +1,257 @@
+package org.yuequan.jpa.soft.delete.repository.support;
+
+import org.springframework.data.jpa.provider.PersistenceProvider;
+import org.springframework.lang.Nullable;
+import org.springframework.util.Assert;
+import org.yuequan.jpa.soft.delete.repository.SoftDelete;
+import org.yuequan.jpa.soft.delete.repository.SoftDeleteStrategy;
+
+import javax.persistence.CascadeType;
+import javax.persistence.EntityManager;
+import javax.persistence.ManyToMany;
+import javax.persistence.OneToMany;
+import javax.persistence.metamodel.Attribute;
+import javax.persistence.metamodel.EntityType;
+import javax.persistence.metamodel.PluralAttribute;
+import javax.persistence.metamodel.Type;
+import java.lang.reflect.AnnotatedElement;
+import java.lang.reflect.Member;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * Cascades soft deletes along the {@code @OneToMany} and {@code @ManyToMany} associations that cascade
+ * {@link CascadeType#REMOVE} (or remove orphans), level by level: the identifiers of the live children of the parents
+ * flagged so far are selected, then flagged by identifier, so no child is loaded and no statement reads the table it
+ * updates. The statements are built once from the metamodel. Children use the {@link SoftDelete} property and strategy
+ * declared on their entity class, {@code removedAt} and {@link SoftDeleteStrategy#TIMESTAMP} by default, associations
+ * to entities without that property are not followed. With Hibernate managed children are stamped like the parents.
+ * <p>
+ * The walk stops at a depth limit. An association leading back to an entity type already on the path is a cycle: it
+ * is still followed, as trees of a self-referencing type need it, but at run time its branch ends at the first level
+ * that flags no rows.
+ * @author yuequan
+ */
+final class SoftDeleteCascade {
+
+    private static final String IDS = ":" + SoftDeleteQueries.IDS_PARAMETER;
+    private static final int IDS_PER_STATEMENT = 1000;
+
+    private final List<Level> levels;
+    private final boolean hibernate;
+
+    private SoftDeleteCascade(List<Level> levels, boolean hibernate) {
+        this.levels = levels;
+        this.hibernate = hibernate;
+    }
+
+    /**
+     * Builds the cascade of the given entity type.
+     *
+     * @param column the soft delete column of the entity type itself.
+     * @param maxDepth the number of association levels to follow, must be greater than zero.
+     * @return the cascade or {@literal null} if no association cascades.
+     */
+    @Nullable
+    static SoftDeleteCascade create(EntityManager em, Class<?> domainClass, SoftDeleteColumn column, int maxDepth) {
+        Assert.isTrue(maxDepth > 0, "The cascade depth must be greater than zero!");
+        EntityType<?> root = em.getMetamodel().entity(domainClass);
+        Assert.state(root.hasSingleIdAttribute(), "Cascading soft deletes requires a simple identifier!");
+        Deque<Class<?>> path = new ArrayDeque<>();
+        path.push(domainClass);
+        List<Level> levels = walk(em, domainClass, column, root, getIdName(root), path, 1, maxDepth);
+        return levels.isEmpty() ? null
+                : new SoftDeleteCascade(levels, PersistenceProvider.fromEntityManager(em) == PersistenceProvider.HIBERNATE);
+    }
+
+    private static List<Level> walk(EntityManager em, Class<?> rootClass, SoftDeleteColumn rootColumn,
+            EntityType<?> parent, String parentIdName, Deque<Class<?>> path, int depth, int maxDepth) {
+        List<Level> levels = new ArrayList<>();
+        for (PluralAttribute<?, ?, ?> association : parent.getPluralAttributes()) {
+            if (association.getElementType().getPersistenceType() != Type.PersistenceType.ENTITY
+                    || !cascadesRemove(association.getJavaMember())) {
+                continue;
+            }
+            Class<?> childClass = association.getElementType().getJavaType();
+            EntityType<?> child = em.getMetamodel().entity(childClass);
+            SoftDeleteColumn column = childClass == rootClass ? rootColumn : getColumn(em, childClass);
+            if (column == null || !child.hasSingleIdAttribute()) {
+                continue;
+            }
+            String childIdName = getIdName(child);
+            String mappedBy = getMappedBy(association.getJavaMember());
+            String versionProperty = SoftDeleteQueries.getVersionProperty(em, childClass);
+            boolean cyclic = path.contains(childClass);
+            List<Level> children = Collections.emptyList();
+            if (depth < maxDepth) {
+                path.push(childClass);
+                children = walk(em, rootClass, rootColumn, child, childIdName, path, depth + 1, maxDepth);
+                path.pop();
+            }
+            levels.add(new Level(parent.getName() + "." + association.getName(), childClass, column, versionProperty,
+                    selectChildIds(parent, parentIdName, association, child, childIdName, mappedBy, column),
+                    toUpdate(child.getName(), childIdName, column, versionProperty), cyclic, children));
+        }
+        return levels;
+    }
+
+    /**
+     * Soft deletes the children of the parents with the given identifiers. Run it after the parents are flagged.
+     *
+     * @param ids the identifiers of the parents the statement flagged.
+     * @param now the removal time written, as by {@link SoftDeleteColumn#createRemovedValue(long)}.
+     * @return the number of children flagged, at any level.
+     */
+    int delete(EntityManager em, Collection<?> ids, long now) {
+        return delete(em, levels, ids, now);
+    }
+
+    private int delete(EntityManager em, List<Level> levels, Collection<?> ids, long now) {
+        if (ids.isEmpty()) {
+            return 0;
+        }
+        int affected = 0;
+        for (Level level : levels) {
+            List<Object> childIds = new ArrayList<>();
+            for (List<?> chunk : chunks(ids)) {
+                childIds.addAll(em.createQuery(level.selectQueryString)
+                        .setParameter(SoftDeleteQueries.IDS_PARAMETER, chunk)
+                        .getResultList());
+            }
+            Object removedAt = level.column.createRemovedValue(now);
+            for (List<?> chunk : chunks(childIds)) {
+                affected += em.createQuery(level.deleteQueryString)
+                        .setParameter(SoftDeleteQueries.REMOVED_AT_PARAMETER, removedAt)
+                        .setParameter(SoftDeleteQueries.IDS_PARAMETER, chunk)
+                        .executeUpdate();
+            }
+            if (hibernate && !childIds.isEmpty()) {
+                new ManagedEntities<>(level.domainClass, em, level.column, level.versionProperty)
+                        .markRemoved(childIds, removedAt);
+            }
+            affected += delete(em, level.children, childIds, now);
+        }
+        return affected;
+    }
+
+    private static List<List<?>> chunks(Collection<?> ids) {
+        List<?> list = ids instanceof List ? (List<?>) ids : new ArrayList<>(ids);
+        List<List<?>> chunks = new ArrayList<>();
+        for (int from = 0; from < list.size(); from += IDS_PER_STATEMENT) {
+            chunks.add(list.subList(from, Math.min(from + IDS_PER_STATEMENT, list.size())));
+        }
+        return chunks;
+    }
+
+    /**
+     * Returns the followed associations, for example {@code Folder.children > Folder.documents}, one per line.
+     */
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        append(builder, levels, "");
+        return builder.toString();
+    }
+
+    private static void append(StringBuilder builder, List<Level> levels, String prefix) {
+        for (Level level : levels) {
+            String path = prefix + level.association;
+            builder.append(path).append(level.cyclic ? " (cycle)" : "").append('\n');
+            append(builder, level.children, path + " > ");
+        }
+    }
+
+    private static boolean cascadesRemove(Member member) {
+        if (!(member instanceof AnnotatedElement)) {
+            return false;
+        }
+        OneToMany oneToMany = ((AnnotatedElement) member).getAnnotation(OneToMany.class);
+        if (oneToMany != null) {
+            return oneToMany.orphanRemoval() || cascadesRemove(oneToMany.cascade());
+        }
+        ManyToMany manyToMany = ((AnnotatedElement) member).getAnnotation(ManyToMany.class);
+        return manyToMany != null && cascadesRemove(manyToMany.cascade());
+    }
+
+    private static boolean cascadesRemove(CascadeType[] cascade) {
+        List<CascadeType> types = Arrays.asList(cascade);
+        return types.contains(CascadeType.REMOVE) || types.contains(CascadeType.ALL);
+    }
+
+    /**
+     * Returns the owning property of a one-to-many association mapped by the child, {@literal null} if it uses a join
+     * table.
+     */
+    @Nullable
+    private static String getMappedBy(Member member) {
+        OneToMany oneToMany = ((AnnotatedElement) member).getAnnotation(OneToMany.class);
+        return oneToMany == null || oneToMany.mappedBy().isEmpty() ? null : oneToMany.mappedBy();
+    }
+
+    @Nullable
+    private static SoftDeleteColumn getColumn(EntityManager em, Class<?> domainClass) {
+        SoftDelete softDelete = domainClass.getAnnotation(SoftDelete.class);
+        String property = softDelete == null ? JpaSoftDeleteRepository.SOFT_DELETE_FLAG_PROPERTIES : softDelete.property();
+        try {
+            em.getMetamodel().entity(domainClass).getAttribute(property);
+        } catch (IllegalArgumentException ex) {
+            return null;
+        }
+        return SoftDeleteColumn.of(em, domainClass, property,
+                softDelete == null ? SoftDeleteStrategy.TIMESTAMP : softDelete.strategy());
+    }
+
+    private static String getIdName(EntityType<?> type) {
+        return type.getId(type.getIdType().getJavaType()).getName();
+    }
+
+    /**
+     * Returns the query selecting the identifiers of the live children reached through one association from the parents
+     * with the identifiers bound to {@link SoftDeleteQueries#IDS_PARAMETER}.
+     */
+    private static String selectChildIds(EntityType<?> parent, String parentIdName, Attribute<?, ?> association,
+            EntityType<?> child, String childIdName, @Nullable String mappedBy, SoftDeleteColumn column) {
+        if (mappedBy != null) {
+            return "select c." + childIdName + " from " + child.getName() + " c where c." + mappedBy + "."
+                    + parentIdName + " in (" + IDS + ") and " + column.getLiveCondition("c");
+        }
+        return "select c." + childIdName + " from " + parent.getName() + " p join p." + association.getName()
+                + " c where p." + parentIdName + " in (" + IDS + ") and " + column.getLiveCondition("c");
+    }
+
+    private static String toUpdate(String entityName, String idName, SoftDeleteColumn column,
+            @Nullable String versionProperty) {
+        String version = versionProperty == null ? "" : ", x." + versionProperty + " = x." + versionProperty + " + 1";
+        return "update " + entityName + " x set x." + column.getProperty() + " = :"
+                + SoftDeleteQueries.REMOVED_AT_PARAMETER + version + " where " + column.getLiveCondition("x")
+                + " and x." + idName + " in (" + IDS + ")";
+    }
+
+    private static final class Level {
+        private final String association;
+        private final Class<?> domainClass;
+        private final SoftDeleteColumn column;
+        private final @Nullable String versionProperty;
+        private final String selectQueryString;
+        private final String deleteQueryString;
+        private final boolean cyclic;
+        private final List<Level> children;
+
+        Level(String association, Class<?> domainClass, SoftDeleteColumn column, @Nullable String versionProperty,
+                String selectQueryString, String deleteQueryString, boolean cyclic, List<Level> children) {
+            this.association = association;
+            this.domainClass = domainClass;
+            this.column = column;
+            this.versionProperty = versionProperty;
+            this.selectQueryString = selectQueryString;
+            this.deleteQueryString = deleteQueryString;
+            this.cyclic = cyclic;
+            this.children = children;
+        }
+    }
+}
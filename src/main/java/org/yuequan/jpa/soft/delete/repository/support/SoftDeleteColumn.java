@@ -0,0 +1,265 @@
+package org.yuequan.jpa.soft.delete.repository.support;
+
+import org.springframework.lang.Nullable;
+import org.springframework.util.Assert;
+import org.yuequan.jpa.soft.delete.repository.SoftDeleteStrategy;
+
+import javax.persistence.EntityManager;
+import javax.persistence.criteria.CriteriaBuilder;
+import javax.persistence.criteria.From;
+import javax.persistence.criteria.Predicate;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Date;
+import java.util.Objects;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * The soft delete property of one entity type and the {@link SoftDeleteStrategy} it is written with. Knows the
+ * predicates selecting live and removed rows, in JPQL and as criteria, and the values the strategy writes.
+ * @author yuequan
+ */
+final class SoftDeleteColumn {
+
+    /**
+     * The parameter SQL conditions bind the restored value to, unless the strategy restores to {@code null}.
+     */
+    static final String RESTORED_PARAMETER = "live";
+
+    private static final int TOKEN_RANDOM_BITS = 16;
+
+    private final String property;
+    private final SoftDeleteStrategy strategy;
+    private final Class<?> javaType;
+
+    SoftDeleteColumn(String property, SoftDeleteStrategy strategy, Class<?> javaType) {
+        Assert.hasText(property, "The soft delete property must not be empty!");
+        Assert.notNull(strategy, "The soft delete strategy must not be null!");
+        this.property = property;
+        this.strategy = strategy;
+        this.javaType = javaType;
+    }
+
+    /**
+     * Creates the column of the given entity type, resolving the Java type of the property from the metamodel.
+     */
+    static SoftDeleteColumn of(EntityManager em, Class<?> domainClass, String property, SoftDeleteStrategy strategy) {
+        Class<?> javaType = Date.class;
+        try {
+            javaType = em.getMetamodel().entity(domainClass).getAttribute(property).getJavaType();
+        } catch (IllegalArgumentException ex) {
+            // not a managed attribute, the provider reports it once the statements are created
+        }
+        return new SoftDeleteColumn(property, strategy, javaType);
+    }
+
+    String getProperty() {
+        return property;
+    }
+
+    SoftDeleteStrategy getStrategy() {
+        return strategy;
+    }
+
+    /**
+     * Returns whether removed rows keep their removal time, which purging after a retention period requires.
+     */
+    boolean hasRemovalTime() {
+        return strategy != SoftDeleteStrategy.BOOLEAN;
+    }
+
+    /**
+     * Returns the JPQL condition selecting the live rows of the given alias, of the unaliased entity for {@literal null}.
+     */
+    String getLiveCondition(@Nullable String alias) {
+        String path = alias == null ? property : alias + "." + property;
+        switch (strategy) {
+            case TIMESTAMP:
+                return path + " is null";
+            case BOOLEAN:
+                return path + " = false";
+            default:
+                return path + " = 0";
+        }
+    }
+
+    /**
+     * Returns the JPQL condition selecting the removed rows of the given alias.
+     */
+    String getRemovedCondition(String alias) {
+        switch (strategy) {
+            case TIMESTAMP:
+                return alias + "." + property + " is not null";
+            case BOOLEAN:
+                return alias + "." + property + " = true";
+            default:
+                return alias + "." + property + " > 0";
+        }
+    }
+
+    /**
+     * Returns the JPQL literal a restore writes.
+     */
+    String getRestoredLiteral() {
+        switch (strategy) {
+            case TIMESTAMP:
+                return "null";
+            case BOOLEAN:
+                return "false";
+            default:
+                return "0";
+        }
+    }
+
+    /**
+     * Returns whether SQL statements built by {@link #getLiveSqlCondition(String)},
+     * {@link #getRemovedSqlCondition(String)} or {@link #getRestoredSqlValue()} bind {@link #RESTORED_PARAMETER}.
+     * Binding the restored value keeps boolean literals out of the SQL, which databases spell differently.
+     */
+    boolean hasRestoredParameter() {
+        return strategy != SoftDeleteStrategy.TIMESTAMP;
+    }
+
+    /**
+     * Returns the SQL condition selecting the live rows by the given column.
+     */
+    String getLiveSqlCondition(String columnName) {
+        return hasRestoredParameter() ? columnName + " = :" + RESTORED_PARAMETER : columnName + " is null";
+    }
+
+    /**
+     * Returns the SQL condition selecting the removed rows by the given column.
+     */
+    String getRemovedSqlCondition(String columnName) {
+        return hasRestoredParameter() ? columnName + " <> :" + RESTORED_PARAMETER : columnName + " is not null";
+    }
+
+    /**
+     * Returns the SQL value a restore writes.
+     */
+    String getRestoredSqlValue() {
+        return hasRestoredParameter() ? ":" + RESTORED_PARAMETER : "null";
+    }
+
+    /**
+     * Returns the predicate selecting the live rows of the given root.
+     */
+    Predicate isLive(From<?, ?> root, CriteriaBuilder builder) {
+        switch (strategy) {
+            case TIMESTAMP:
+                return builder.isNull(root.get(property));
+            case BOOLEAN:
+                return builder.equal(root.get(property), false);
+            default:
+                return builder.equal(root.get(property), 0L);
+        }
+    }
+
+    /**
+     * Returns the predicate selecting the removed rows of the given root.
+     */
+    Predicate isRemoved(From<?, ?> root, CriteriaBuilder builder) {
+        switch (strategy) {
+            case TIMESTAMP:
+                return builder.isNotNull(root.get(property));
+            case BOOLEAN:
+                return builder.equal(root.get(property), true);
+            default:
+                return builder.gt(root.<Number>get(property), 0L);
+        }
+    }
+
+    /**
+     * Returns whether the given property value marks a row as removed.
+     */
+    boolean isRemoved(@Nullable Object value) {
+        switch (strategy) {
+            case TIMESTAMP:
+                return value != null;
+            case BOOLEAN:
+                return Boolean.TRUE.equals(value);
+            default:
+                return value != null && ((Number) value).longValue() > 0;
+        }
+    }
+
+    /**
+     * Creates the value a soft delete statement issued at the given time writes.
+     *
+     * @param now epoch milliseconds.
+     */
+    Object createRemovedValue(long now) {
+        switch (strategy) {
+            case TIMESTAMP:
+                return toTemporal(now);
+            case BOOLEAN:
+                return true;
+            case EPOCH_MILLIS:
+                return now;
+            default:
+                return now << TOKEN_RANDOM_BITS | ThreadLocalRandom.current().nextInt(1 << TOKEN_RANDOM_BITS);
+        }
+    }
+
+    /**
+     * Returns the value a restore writes.
+     */
+    @Nullable
+    Object getRestoredValue() {
+        switch (strategy) {
+            case TIMESTAMP:
+                return null;
+            case BOOLEAN:
+                return false;
+            default:
+                return 0L;
+        }
+    }
+
+    /**
+     * Returns the value rows removed before the given time compare lower than.
+     */
+    Object getCutoffValue(Date cutoff) {
+        Assert.state(hasRemovalTime(), "The " + strategy + " strategy keeps no removal time!");
+        switch (strategy) {
+            case TIMESTAMP:
+                return toTemporal(cutoff.getTime());
+            case EPOCH_MILLIS:
+                return cutoff.getTime();
+            default:
+                return cutoff.getTime() << TOKEN_RANDOM_BITS;
+        }
+    }
+
+    private Object toTemporal(long millis) {
+        if (Instant.class.equals(javaType)) {
+            return Instant.ofEpochMilli(millis);
+        }
+        if (LocalDateTime.class.equals(javaType)) {
+            return LocalDateTime.ofInstant(Instant.ofEpochMilli(millis), ZoneId.systemDefault());
+        }
+        if (Timestamp.class.equals(javaType)) {
+            return new Timestamp(millis);
+        }
+        return new Date(millis);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof SoftDeleteColumn)) {
+            return false;
+        }
+        SoftDeleteColumn that = (SoftDeleteColumn) o;
+        return property.equals(that.property) && strategy == that.strategy;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(property, strategy);
+    }
+}
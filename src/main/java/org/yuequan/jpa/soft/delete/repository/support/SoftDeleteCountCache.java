@@ -0,0 +1,80 @@
+package org.yuequan.jpa.soft.delete.repository.support;
+
+import org.springframework.lang.Nullable;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * The exact live row count of one repository, kept for a time to live. Every invalidation bumps a generation, so a
+ * count that was running while rows changed is never stored. Counts are only stored outside of read-write
+ * transactions, which may see their own uncommitted changes, and writes invalidate again once their transaction
+ * completed.
+ * @author yuequan
+ */
+final class SoftDeleteCountCache {
+
+    private final long timeToLiveNanos;
+    private final AtomicLong generation = new AtomicLong();
+    private volatile @Nullable Entry entry;
+
+    SoftDeleteCountCache(Duration timeToLive) {
+        this.timeToLiveNanos = timeToLive.toNanos();
+    }
+
+    /**
+     * Returns the cached count, running the given counter if there is none or it expired.
+     */
+    long get(LongSupplier counter) {
+        Entry cached = entry;
+        long now = System.nanoTime();
+        if (cached != null && cached.generation == generation.get() && now - cached.expiresAt < 0) {
+            return cached.count;
+        }
+        long countedGeneration = generation.get();
+        long count = counter.getAsLong();
+        if (!TransactionSynchronizationManager.isActualTransactionActive()
+                || TransactionSynchronizationManager.isCurrentTransactionReadOnly()) {
+            Entry counted = new Entry(count, now + timeToLiveNanos, countedGeneration);
+            if (generation.get() == countedGeneration) {
+                entry = counted;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Drops the cached count now and again once the surrounding transaction completed.
+     */
+    void invalidate() {
+        generation.incrementAndGet();
+        entry = null;
+        if (TransactionSynchronizationManager.isSynchronizationActive()
+                && !TransactionSynchronizationManager.hasResource(this)) {
+            TransactionSynchronizationManager.bindResource(this, Boolean.TRUE);
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCompletion(int status) {
+                    TransactionSynchronizationManager.unbindResourceIfPossible(SoftDeleteCountCache.this);
+                    generation.incrementAndGet();
+                    entry = null;
+                }
+            });
+        }
+    }
+
+    private static final class Entry {
+        private final long count;
+        private final long expiresAt;
+        private final long generation;
+
+        Entry(long count, long expiresAt, long generation) {
+            this.count = count;
+            this.expiresAt = expiresAt;
+            this.generation = generation;
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package org.yuequan.jpa.soft.delete.repository.support;
+
+import java.util.Date;
+
+/**
+ * A soft delete or restore of one row, read from the outbox.
+ * @author yuequan
+ */
+public final class SoftDeleteEvent {
+
+    /**
+     * What happened to the row.
+     */
+    public enum Type {
+        DELETED, RESTORED
+    }
+
+    private final long id;
+    private final String entityName;
+    private final String entityId;
+    private final Type type;
+    private final Date occurredAt;
+
+    SoftDeleteEvent(long id, String entityName, String entityId, Type type, Date occurredAt) {
+        this.id = id;
+        this.entityName = entityName;
+        this.entityId = entityId;
+        this.type = type;
+        this.occurredAt = occurredAt;
+    }
+
+    /**
+     * The identifier of the outbox row, increasing in the order the events were recorded.
+     */
+    public long getId() {
+        return id;
+    }
+
+    public String getEntityName() {
+        return entityName;
+    }
+
+    /**
+     * The identifier of the affected entity, as text.
+     */
+    public String getEntityId() {
+        return entityId;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public Date getOccurredAt() {
+        return occurredAt;
+    }
+
+    @Override
+    public String toString() {
+        return entityName + "#" + entityId + " " + type + " at " + occurredAt;
+    }
+}
@@ -0,0 +1,306 @@
+package org.yuequan.jpa.soft.delete.repository.support;
+
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.springframework.core.annotation.AnnotatedElementUtils;
+import org.springframework.data.jpa.provider.PersistenceProvider;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.core.NamedQueries;
+import org.springframework.lang.Nullable;
+import org.springframework.util.ClassUtils;
+import org.springframework.util.StringUtils;
+import org.yuequan.jpa.soft.delete.repository.IncludeDeleted;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.criteria.CriteriaBuilder;
+import javax.persistence.criteria.CriteriaQuery;
+import javax.persistence.criteria.From;
+import javax.persistence.criteria.Join;
+import javax.persistence.criteria.Predicate;
+import javax.persistence.criteria.Root;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Adds the live row predicate of one entity type to the queries of repository query methods. Derived queries get it
+ * added to their criteria query, for the roots of the entity and as join condition of the joins reaching it. JPQL
+ * queries selecting from the entity get it spliced into their top level {@code where} clause. JPQL reaching the entity
+ * any other way, through a join, a subquery or a further root, can not be filtered and is rejected, as are native and
+ * named queries: {@link #check(Method, NamedQueries)} fails the repository creation for them unless the method is
+ * annotated with {@link IncludeDeleted}. With Hibernate the references to the entity are counted in the SQL the query
+ * translates to, elsewhere by its name in the JPQL. Rewritten JPQL is cached per query string, and criteria queries
+ * that a query method caches are only touched once, so the filter costs a map lookup per execution.
+ * @author yuequan
+ */
+final class SoftDeleteFilter {
+
+    private static final String[] CLAUSES_AFTER_WHERE = { "group by", "having", "order by" };
+    private static final Pattern ROOT = Pattern.compile("\\s*([\\p{L}_$][\\p{L}\\p{N}_$.]*)(?:\\s+(?:as\\s+)?([\\p{L}_$][\\p{L}\\p{N}_$]*))?",
+            Pattern.CASE_INSENSITIVE);
+    private static final Set<String> KEYWORDS_AFTER_ROOT = new HashSet<>(Arrays.asList(
+            "where", "join", "inner", "left", "right", "outer", "cross", "fetch", "order", "group", "having"));
+
+    private final Class<?> domainClass;
+    private final String entityName;
+    private final SoftDeleteColumn column;
+    private final EntityManagerFactory entityManagerFactory;
+    private final @Nullable SessionFactoryImplementor sessionFactory;
+    private final @Nullable String table;
+    private final Runnable beforeQuery;
+    private final Map<String, String> rewrittenQueries = new ConcurrentHashMap<>();
+    private final Set<CriteriaQuery<?>> filteredCriteriaQueries = Collections.synchronizedSet(
+            Collections.newSetFromMap(new WeakHashMap<>()));
+
+    /**
+     * @param table the table of the entity, see {@link SoftDeleteMetadata#getTable()}, {@literal null} to count the
+     * references to the entity by its name.
+     * @param beforeQuery runs before every filtered query is created, writing deferred soft deletes.
+     */
+    SoftDeleteFilter(Class<?> domainClass, String entityName, SoftDeleteColumn column,
+            EntityManager entityManager, @Nullable String table, Runnable beforeQuery) {
+        this.domainClass = domainClass;
+        this.entityName = entityName;
+        this.column = column;
+        this.entityManagerFactory = entityManager.getEntityManagerFactory();
+        this.sessionFactory = PersistenceProvider.fromEntityManager(entityManager) == PersistenceProvider.HIBERNATE
+                ? entityManagerFactory.unwrap(SessionFactoryImplementor.class) : null;
+        this.table = table;
+        this.beforeQuery = beforeQuery;
+    }
+
+    /**
+     * Fails unless the queries of the given method can be filtered: its JPQL is rewritten right away, native queries and
+     * named queries of the persistence unit are rejected.
+     *
+     * @throws IllegalStateException naming the method.
+     */
+    void check(Method method, NamedQueries namedQueries) {
+        Query annotation = AnnotatedElementUtils.findMergedAnnotation(method, Query.class);
+        String queryName = annotation != null && StringUtils.hasText(annotation.name()) ? annotation.name()
+                : entityName + "." + method.getName();
+        try {
+            if (annotation != null && annotation.nativeQuery()) {
+                throw new IllegalStateException("native queries are not filtered");
+            }
+            if (annotation != null && StringUtils.hasText(annotation.value())) {
+                apply(annotation.value().replace("#{#entityName}", entityName));
+                if (StringUtils.hasText(annotation.countQuery())) {
+                    apply(annotation.countQuery().replace("#{#entityName}", entityName));
+                }
+            } else if (namedQueries.hasQuery(queryName)) {
+                apply(namedQueries.getQuery(queryName));
+            } else if (hasNamedQuery(queryName)) {
+                throw new IllegalStateException("named queries are not filtered");
+            }
+        } catch (IllegalStateException ex) {
+            throw new IllegalStateException("The query of " + method + " can not be restricted to live " + entityName
+                    + " rows, " + ex.getMessage() + ". Annotate it with @" + IncludeDeleted.class.getSimpleName()
+                    + " and filter removed rows yourself!", ex);
+        }
+    }
+
+    private boolean hasNamedQuery(String queryName) {
+        EntityManager lookup = entityManagerFactory.createEntityManager();
+        try {
+            lookup.createNamedQuery(queryName);
+            return true;
+        } catch (IllegalArgumentException ex) {
+            return false;
+        } finally {
+            lookup.close();
+        }
+    }
+
+    /**
+     * Wraps the given {@link EntityManager} so every JPQL and criteria query created through it is filtered.
+     */
+    EntityManager wrap(EntityManager target) {
+        return (EntityManager) Proxy.newProxyInstance(target.getClass().getClassLoader(),
+                ClassUtils.getAllInterfaces(target), (proxy, method, args) -> {
+                    if ("createQuery".equals(method.getName()) && args != null) {
+                        beforeQuery.run();
+                        if (args[0] instanceof String) {
+                            args[0] = apply((String) args[0]);
+                        } else if (args[0] instanceof CriteriaQuery) {
+                            apply((CriteriaQuery<?>) args[0], target.getCriteriaBuilder());
+                        }
+                    }
+                    try {
+                        return method.invoke(target, args);
+                    } catch (InvocationTargetException ex) {
+                        throw ex.getTargetException();
+                    }
+                });
+    }
+
+    /**
+     * Returns the given JPQL with the live row predicate added, unchanged if it does not reference the entity.
+     *
+     * @throws IllegalStateException if the query references the entity other than as the root of a select.
+     */
+    String apply(String query) {
+        return rewrittenQueries.computeIfAbsent(query, this::rewrite);
+    }
+
+    /**
+     * Adds the live row predicate for every root of the entity type to the given criteria query, and to the join
+     * condition of every join reaching it.
+     */
+    void apply(CriteriaQuery<?> query, CriteriaBuilder builder) {
+        if (!filteredCriteriaQueries.add(query)) {
+            return;
+        }
+        for (Root<?> root : query.getRoots()) {
+            if (domainClass.equals(root.getJavaType())) {
+                Predicate restriction = query.getRestriction();
+                Predicate live = column.isLive(root, builder);
+                query.where(restriction == null ? live : builder.and(live, restriction));
+            }
+            applyToJoins(root, builder);
+        }
+    }
+
+    private void applyToJoins(From<?, ?> from, CriteriaBuilder builder) {
+        for (Join<?, ?> join : from.getJoins()) {
+            if (domainClass.equals(join.getJavaType())) {
+                Predicate on = join.getOn();
+                Predicate live = column.isLive(join, builder);
+                join.on(on == null ? live : builder.and(live, on));
+            }
+            applyToJoins(join, builder);
+        }
+    }
+
+    private String rewrite(String query) {
+        int references = countReferences(query);
+        if (references == 0) {
+            return query;
+        }
+        String lowerCase = query.toLowerCase(Locale.ENGLISH);
+        if (!lowerCase.trim().startsWith("select") && !lowerCase.trim().startsWith("from")) {
+            throw unsupported(query, "only selects are filtered");
+        }
+        int from = indexOfTopLevel(lowerCase, "from", 0);
+        String alias = from < 0 ? null : getAlias(query, from + "from".length());
+        if (alias == null || references > 1) {
+            throw unsupported(query, "it reaches the entity through a join, a subquery or a further root");
+        }
+        int where = indexOfTopLevel(lowerCase, "where", from);
+        int end = query.length();
+        for (String clause : CLAUSES_AFTER_WHERE) {
+            int index = indexOfTopLevel(lowerCase, clause, where < 0 ? from : where);
+            if (index >= 0 && index < end) {
+                end = index;
+            }
+        }
+        String live = column.getLiveCondition(alias.isEmpty() ? null : alias);
+        if (where < 0) {
+            return query.substring(0, end).trim() + " where " + live + (end < query.length() ? " " + query.substring(end) : "");
+        }
+        int condition = where + "where".length();
+        return query.substring(0, condition) + " " + live + " and (" + query.substring(condition, end).trim() + ")"
+                + (end < query.length() ? " " + query.substring(end) : "");
+    }
+
+    private IllegalStateException unsupported(String query, String reason) {
+        return new IllegalStateException("Can not add the soft delete filter of " + entityName + " to '" + query
+                + "', " + reason);
+    }
+
+    /**
+     * Counts how often the given JPQL references the table of the entity once translated to SQL, which also finds the
+     * joins reaching it through an association. Without Hibernate or for queries it can not translate up front, the
+     * references to the entity by name are counted instead.
+     */
+    private int countReferences(String query) {
+        if (table != null && sessionFactory != null) {
+            try {
+                String[] sqlStrings = sessionFactory.getQueryPlanCache()
+                        .getHQLQueryPlan(query, false, Collections.emptyMap()).getSqlStrings();
+                Pattern tableName = Pattern.compile("(?<![\\w$.])" + Pattern.quote(table) + "(?![\\w$])",
+                        Pattern.CASE_INSENSITIVE);
+                int references = 0;
+                for (String sql : sqlStrings) {
+                    for (Matcher matcher = tableName.matcher(sql); matcher.find(); ) {
+                        references++;
+                    }
+                }
+                return references;
+            } catch (RuntimeException ex) {
+                // parameter expressions the repository resolves later, count by name
+            }
+        }
+        int references = 0;
+        for (int i = indexOfName(query, 0); i >= 0; i = indexOfName(query, i + 1)) {
+            references++;
+        }
+        return references;
+    }
+
+    private int indexOfName(String query, int start) {
+        int entity = indexOfTopLevel(query, entityName, start, false);
+        int className = indexOfTopLevel(query, domainClass.getName(), start, false);
+        return entity < 0 ? className : className < 0 ? entity : Math.min(entity, className);
+    }
+
+    /**
+     * Returns the alias of the entity in the {@code from} clause starting at the given index, empty if it declares none
+     * and {@literal null} if the clause starts with another entity.
+     */
+    @Nullable
+    private String getAlias(String query, int index) {
+        Matcher root = ROOT.matcher(query).region(index, query.length());
+        if (!root.lookingAt() || (!root.group(1).equals(entityName) && !root.group(1).equals(domainClass.getName()))) {
+            return null;
+        }
+        String alias = root.group(2);
+        return alias == null || KEYWORDS_AFTER_ROOT.contains(alias.toLowerCase(Locale.ENGLISH)) ? "" : alias;
+    }
+
+    /**
+     * Returns the index of the given keyword outside of string literals and parentheses, starting at the given index.
+     */
+    private static int indexOfTopLevel(String query, String keyword, int start) {
+        return indexOfTopLevel(query, keyword, start, true);
+    }
+
+    /**
+     * Returns the index of the given keyword outside of string literals, starting at the given index.
+     *
+     * @param topLevel whether to skip parenthesized parts of the query.
+     */
+    private static int indexOfTopLevel(String query, String keyword, int start, boolean topLevel) {
+        int depth = 0;
+        boolean literal = false;
+        for (int i = Math.max(start, 0); i < query.length(); i++) {
+            char c = query.charAt(i);
+            if (c == '\'') {
+                literal = !literal;
+            } else if (!literal && c == '(') {
+                depth++;
+            } else if (!literal && c == ')') {
+                depth--;
+            } else if (!literal && (depth == 0 || !topLevel) && query.startsWith(keyword, i)
+                    && (i == 0 || !isIdentifierPart(query.charAt(i - 1)))
+                    && (i + keyword.length() == query.length() || !isIdentifierPart(query.charAt(i + keyword.length())))) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean isIdentifierPart(char c) {
+        return Character.isLetterOrDigit(c) || c == '_' || c == '$' || c == '.' || c == ':';
+    }
+}
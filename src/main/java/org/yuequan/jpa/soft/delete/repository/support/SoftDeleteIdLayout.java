@@ -0,0 +1,94 @@
+package org.yuequan.jpa.soft.delete.repository.support;
+
+import org.springframework.beans.BeanUtils;
+import org.springframework.data.jpa.repository.support.JpaEntityInformation;
+import org.springframework.lang.Nullable;
+import org.springframework.util.ReflectionUtils;
+
+import java.beans.PropertyDescriptor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * The identifier attributes of one entity type, resolved once. Composite identifiers declared by an {@code @IdClass}
+ * keep an accessor per attribute, so binding them does not introspect the identifier class on every call.
+ * @author yuequan
+ */
+final class SoftDeleteIdLayout {
+
+    private final boolean composite;
+    private final List<String> attributeNames;
+    private final List<Function<Object, Object>> accessors;
+
+    private SoftDeleteIdLayout(boolean composite, List<String> attributeNames, List<Function<Object, Object>> accessors) {
+        this.composite = composite;
+        this.attributeNames = Collections.unmodifiableList(attributeNames);
+        this.accessors = accessors;
+    }
+
+    static SoftDeleteIdLayout of(JpaEntityInformation<?, ?> information) {
+        if (!information.hasCompositeId()) {
+            return new SoftDeleteIdLayout(false,
+                    Collections.singletonList(information.getIdAttribute().getName()), Collections.emptyList());
+        }
+        List<String> attributeNames = new ArrayList<>();
+        List<Function<Object, Object>> accessors = new ArrayList<>();
+        for (String name : information.getIdAttributeNames()) {
+            attributeNames.add(name);
+            accessors.add(createAccessor(information, name));
+        }
+        return new SoftDeleteIdLayout(true, attributeNames, accessors);
+    }
+
+    /**
+     * Reads the attribute through its getter, else its field, like
+     * {@link JpaEntityInformation#getCompositeIdAttributeValue(Object, String)} does.
+     */
+    private static Function<Object, Object> createAccessor(JpaEntityInformation<?, ?> information, String name) {
+        Class<?> idType = information.getIdType();
+        PropertyDescriptor descriptor = BeanUtils.getPropertyDescriptor(idType, name);
+        Method getter = descriptor == null ? null : descriptor.getReadMethod();
+        if (getter != null) {
+            ReflectionUtils.makeAccessible(getter);
+            return id -> ReflectionUtils.invokeMethod(getter, id);
+        }
+        Field field = ReflectionUtils.findField(idType, name);
+        if (field != null) {
+            ReflectionUtils.makeAccessible(field);
+            return id -> ReflectionUtils.getField(field, id);
+        }
+        return id -> information.getCompositeIdAttributeValue(id, name);
+    }
+
+    boolean isComposite() {
+        return composite;
+    }
+
+    /**
+     * Returns the identifier attribute names, the single one of a simple identifier.
+     */
+    List<String> getAttributeNames() {
+        return attributeNames;
+    }
+
+    /**
+     * Returns the simple identifier attribute name, {@literal null} for composite identifiers.
+     */
+    @Nullable
+    String getAttributeName() {
+        return composite ? null : attributeNames.get(0);
+    }
+
+    /**
+     * Returns the value of the identifier attribute at the given index of {@link #getAttributeNames()} of a composite
+     * identifier.
+     */
+    @Nullable
+    Object getAttributeValue(Object id, int index) {
+        return accessors.get(index).apply(id);
+    }
+}
@@ -0,0 +1,232 @@
+package org.yuequan.jpa.soft.delete.repository.support;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.hibernate.Session;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.lang.Nullable;
+import org.springframework.util.StringUtils;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.DatabaseMetaData;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Checks through the JDBC {@link DatabaseMetaData} that the soft delete column of every
+ * {@link org.yuequan.jpa.soft.delete.repository.SoftDelete} repository is indexed, as every filtered query otherwise
+ * scans the whole table. A column is indexed once it leads an index or an index is restricted to its live rows. For
+ * the others the advisor logs a warning with the DDL of an index fitted to how the repositories query the table: on
+ * PostgreSQL an index of the identifier restricted to the live rows, the rows every query and keyset page selects,
+ * elsewhere or once removed rows are purged or archived a composite index of the soft delete column and the
+ * identifier. Hibernate only, the tables come from the entity persisters.
+ * @author yuequan
+ */
+public class SoftDeleteIndexAdvisor implements SmartInitializingSingleton {
+
+    private static final Log logger = LogFactory.getLog(SoftDeleteIndexAdvisor.class);
+
+    private final Map<String, Target> targets = new ConcurrentHashMap<>();
+    private final boolean enabled;
+    private final @Nullable
+    Path ddlFile;
+
+    /**
+     * Creates a new {@link SoftDeleteIndexAdvisor}.
+     *
+     * @param enabled whether to inspect the tables once all singletons are created, {@link #inspect()} works either
+     * way.
+     * @param ddlFile the file the suggested DDL is written to, {@literal null} to only log it.
+     */
+    public SoftDeleteIndexAdvisor(boolean enabled, @Nullable Path ddlFile) {
+        this.enabled = enabled;
+        this.ddlFile = ddlFile;
+    }
+
+    /**
+     * Registers the soft delete column of a repository, repositories sharing a table are inspected once.
+     *
+     * @param selectsRemoved whether the repository purges or archives, selecting removed rows by the column.
+     */
+    void register(EntityManagerFactory entityManagerFactory, SoftDeleteMetadata metadata, boolean selectsRemoved) {
+        if (metadata.getTable() == null) {
+            return;
+        }
+        Target target = new Target(entityManagerFactory, metadata, selectsRemoved);
+        targets.merge(metadata.getTable() + "." + metadata.getColumnName(), target,
+                (registered, added) -> registered.selectsRemoved ? registered : added);
+    }
+
+    @Override
+    public void afterSingletonsInstantiated() {
+        if (enabled) {
+            inspect();
+        }
+    }
+
+    /**
+     * Inspects the indexes of every registered table, logging and writing the DDL of the missing ones.
+     *
+     * @return the missing indexes, empty if every soft delete column is indexed.
+     */
+    public List<Advice> inspect() {
+        List<Advice> advice = new ArrayList<>();
+        for (Target target : targets.values()) {
+            Advice missing = inspect(target);
+            if (missing != null) {
+                logger.warn(missing);
+                advice.add(missing);
+            }
+        }
+        advice.sort((left, right) -> left.table.compareTo(right.table));
+        if (ddlFile != null) {
+            write(ddlFile, advice);
+        }
+        return Collections.unmodifiableList(advice);
+    }
+
+    @Nullable
+    private Advice inspect(Target target) {
+        EntityManager em = target.entityManagerFactory.createEntityManager();
+        try {
+            return em.unwrap(Session.class).doReturningWork(connection -> inspect(connection.getMetaData(), target));
+        } finally {
+            em.close();
+        }
+    }
+
+    @Nullable
+    private Advice inspect(DatabaseMetaData metaData, Target target) throws SQLException {
+        int dot = target.table.lastIndexOf('.');
+        String schema = dot < 0 ? null : toStoredCase(metaData, target.table.substring(0, dot));
+        String table = toStoredCase(metaData, target.table.substring(dot + 1));
+        try (ResultSet indexes = metaData.getIndexInfo(null, schema, table, false, true)) {
+            while (indexes.next()) {
+                String column = indexes.getString("COLUMN_NAME");
+                String filter = indexes.getString("FILTER_CONDITION");
+                if ((indexes.getShort("ORDINAL_POSITION") == 1 && target.columnName.equalsIgnoreCase(column))
+                        || (filter != null && filter.toLowerCase(Locale.ROOT).contains(
+                                target.columnName.toLowerCase(Locale.ROOT)))) {
+                    return null;
+                }
+            }
+        }
+        boolean partial = !target.selectsRemoved
+                && metaData.getDatabaseProductName().toLowerCase(Locale.ROOT).contains("postgresql");
+        return target.advise(partial);
+    }
+
+    private static String toStoredCase(DatabaseMetaData metaData, String identifier) throws SQLException {
+        if (metaData.storesUpperCaseIdentifiers()) {
+            return identifier.toUpperCase(Locale.ROOT);
+        }
+        return metaData.storesLowerCaseIdentifiers() ? identifier.toLowerCase(Locale.ROOT) : identifier;
+    }
+
+    private static void write(Path ddlFile, List<Advice> advice) {
+        List<String> lines = new ArrayList<>();
+        for (Advice missing : advice) {
+            lines.add(missing.ddl + ";");
+        }
+        try {
+            Files.write(ddlFile, lines, StandardCharsets.UTF_8);
+        } catch (IOException ex) {
+            throw new UncheckedIOException("Writing the soft delete index DDL to " + ddlFile + " failed", ex);
+        }
+    }
+
+    /**
+     * A soft delete column lacking an index, with the DDL creating a fitting one.
+     */
+    public static final class Advice {
+        private final String entityName;
+        private final String table;
+        private final String column;
+        private final String reason;
+        private final String ddl;
+
+        Advice(String entityName, String table, String column, String reason, String ddl) {
+            this.entityName = entityName;
+            this.table = table;
+            this.column = column;
+            this.reason = reason;
+            this.ddl = ddl;
+        }
+
+        public String getEntityName() {
+            return entityName;
+        }
+
+        public String getTable() {
+            return table;
+        }
+
+        public String getColumn() {
+            return column;
+        }
+
+        /**
+         * Describes the queries the suggested index serves.
+         */
+        public String getReason() {
+            return reason;
+        }
+
+        /**
+         * Returns the {@code CREATE INDEX} statement, without a trailing semicolon.
+         */
+        public String getDdl() {
+            return ddl;
+        }
+
+        @Override
+        public String toString() {
+            return "The soft delete column " + table + "." + column + " of " + entityName + " is not indexed, " + reason
+                    + ". Consider: " + ddl;
+        }
+    }
+
+    private static final class Target {
+        private final EntityManagerFactory entityManagerFactory;
+        private final String entityName;
+        private final String table;
+        private final String columnName;
+        private final String idColumns;
+        private final String liveCondition;
+        private final boolean selectsRemoved;
+
+        Target(EntityManagerFactory entityManagerFactory, SoftDeleteMetadata metadata, boolean selectsRemoved) {
+            this.entityManagerFactory = entityManagerFactory;
+            this.entityName = metadata.getEntityName();
+            this.table = metadata.getTable();
+            this.columnName = metadata.getColumnName();
+            this.idColumns = StringUtils.collectionToDelimitedString(metadata.getIdColumns(), ", ");
+            SoftDeleteColumn column = metadata.getColumn();
+            this.liveCondition = column.hasRestoredParameter()
+                    ? columnName + " = " + column.getRestoredLiteral() : columnName + " is null";
+            this.selectsRemoved = selectsRemoved;
+        }
+
+        Advice advise(boolean partial) {
+            String name = "idx_" + table.substring(table.lastIndexOf('.') + 1) + "_" + columnName;
+            String reason = "every query filters by " + liveCondition + " and batches and keyset pages order by "
+                    + idColumns + (selectsRemoved ? ", purging or archiving selects the removed rows" : "");
+            String ddl = partial
+                    ? "create index " + name + " on " + table + " (" + idColumns + ") where " + liveCondition
+                    : "create index " + name + " on " + table + " (" + columnName + ", " + idColumns + ")";
+            return new Advice(entityName, table, columnName, reason, ddl);
+        }
+    }
+}
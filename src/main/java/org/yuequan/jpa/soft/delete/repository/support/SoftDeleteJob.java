@@ -0,0 +1,38 @@
+package org.yuequan.jpa.soft.delete.repository.support;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An asynchronous soft delete or restore running in chunks, each in its own transaction. Completes with the number of
+ * affected rows once every chunk is done, or exceptionally with the failure of the first chunk. {@link #cancel(boolean)
+ * Cancelling} stops further chunks from starting, chunks already running still commit.
+ * @author yuequan
+ */
+public final class SoftDeleteJob extends CompletableFuture<Long> {
+
+    private final AtomicLong affectedRows = new AtomicLong();
+    private final AtomicLong completedChunks = new AtomicLong();
+
+    SoftDeleteJob() {
+    }
+
+    /**
+     * Rows affected by the chunks completed so far.
+     */
+    public long getAffectedRows() {
+        return affectedRows.get();
+    }
+
+    /**
+     * Chunks completed so far, each committed in its own transaction.
+     */
+    public long getCompletedChunks() {
+        return completedChunks.get();
+    }
+
+    void chunkCompleted(int rows) {
+        affectedRows.addAndGet(rows);
+        completedChunks.incrementAndGet();
+    }
+}
@@ -0,0 +1,87 @@
+package org.yuequan.jpa.soft.delete.repository.support;
+
+import org.springframework.dao.PessimisticLockingFailureException;
+import org.springframework.util.Assert;
+
+import javax.persistence.LockTimeoutException;
+import javax.persistence.PessimisticLockException;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Runs a unit of work that commits on its own again when it lost a deadlock or timed out waiting for a row lock,
+ * backing off exponentially with jitter between attempts. Work joining a surrounding transaction must not be retried,
+ * the database may already have rolled that transaction back.
+ * @author yuequan
+ */
+final class SoftDeleteLockRetry {
+
+    static final SoftDeleteLockRetry NONE = new SoftDeleteLockRetry(0, Duration.ZERO);
+
+    private static final String SERIALIZATION_FAILURE = "40001";
+    private static final String POSTGRESQL_DEADLOCK = "40P01";
+    private static final String H2_LOCK_TIMEOUT = "HYT00";
+    private static final int MYSQL_LOCK_WAIT_TIMEOUT = 1205;
+    private static final int MYSQL_DEADLOCK = 1213;
+
+    private final int retries;
+    private final long backoffNanos;
+
+    /**
+     * @param retries the number of attempts after the first one, must not be negative.
+     * @param backoff the wait before the first retry, doubled for every further one.
+     */
+    SoftDeleteLockRetry(int retries, Duration backoff) {
+        Assert.isTrue(retries >= 0, "The number of lock retries must not be negative!");
+        Assert.isTrue(backoff != null && !backoff.isNegative(), "The lock retry backoff must not be negative!");
+        this.retries = retries;
+        this.backoffNanos = backoff.toNanos();
+    }
+
+    /**
+     * Runs the given work, repeating it on lock failures up to the configured number of retries.
+     */
+    <R> R execute(Supplier<R> work) {
+        for (int attempt = 0; ; attempt++) {
+            try {
+                return work.get();
+            } catch (RuntimeException ex) {
+                if (attempt >= retries || !isLockFailure(ex)) {
+                    throw ex;
+                }
+                long backoff = backoffNanos << Math.min(attempt, 16);
+                try {
+                    TimeUnit.NANOSECONDS.sleep(backoff / 2 + ThreadLocalRandom.current().nextLong(backoff / 2 + 1));
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    throw ex;
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns whether the given exception, or one of its causes, reports a deadlock or a lock wait timeout.
+     */
+    static boolean isLockFailure(Throwable ex) {
+        for (Throwable cause = ex; cause != null; cause = cause.getCause() == cause ? null : cause.getCause()) {
+            if (cause instanceof PessimisticLockException || cause instanceof LockTimeoutException
+                    || cause instanceof PessimisticLockingFailureException) {
+                return true;
+            }
+            if (cause instanceof SQLException) {
+                SQLException sqlException = (SQLException) cause;
+                String state = sqlException.getSQLState();
+                if (SERIALIZATION_FAILURE.equals(state) || POSTGRESQL_DEADLOCK.equals(state)
+                        || H2_LOCK_TIMEOUT.equals(state) || sqlException.getErrorCode() == MYSQL_DEADLOCK
+                        || sqlException.getErrorCode() == MYSQL_LOCK_WAIT_TIMEOUT) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,168 @@
+package org.yuequan.jpa.soft.delete.repository.support;
+
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.persister.entity.EntityPersister;
+import org.hibernate.persister.entity.SingleTableEntityPersister;
+import org.springframework.data.jpa.provider.PersistenceProvider;
+import org.springframework.data.jpa.repository.support.JpaEntityInformation;
+import org.springframework.lang.Nullable;
+import org.springframework.util.Assert;
+import org.yuequan.jpa.soft.delete.repository.SoftDelete;
+import org.yuequan.jpa.soft.delete.repository.SoftDeleteStrategy;
+
+import javax.persistence.EntityManager;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Everything a soft delete repository needs to know about one entity type and soft delete property, resolved once
+ * from the JPA metamodel and, with Hibernate, the entity persister: the soft delete column, the statements built for
+ * it, the identifier layout and the table and column names. The {@link JpaSoftDeleteRepositoryFactory} keeps the ones
+ * it resolved, so the repositories and query methods it creates for an entity type share one.
+ * @author yuequan
+ */
+final class SoftDeleteMetadata {
+
+    private final Class<?> domainClass;
+    private final String entityName;
+    private final SoftDeleteColumn column;
+    private final @Nullable Class<?> propertyType;
+    private final SoftDeleteIdLayout idLayout;
+    private final SoftDeleteQueries queries;
+    private final @Nullable CachedEntityStatements cachedEntityStatements;
+    private final @Nullable SoftDeleteRowEstimator rowEstimator;
+    private final @Nullable String table;
+    private final @Nullable String columnName;
+    private final List<String> idColumns;
+
+    private SoftDeleteMetadata(EntityManager em, JpaEntityInformation<?, ?> information, String property,
+            SoftDeleteStrategy strategy) {
+        this.domainClass = information.getJavaType();
+        this.entityName = information.getEntityName();
+        this.column = SoftDeleteColumn.of(em, domainClass, property, strategy);
+        this.propertyType = getPropertyType(em, domainClass, property);
+        this.idLayout = SoftDeleteIdLayout.of(information);
+        this.queries = new SoftDeleteQueries(information, idLayout, column,
+                SoftDeleteQueries.getVersionProperty(em, domainClass));
+        boolean hibernate = PersistenceProvider.fromEntityManager(em) == PersistenceProvider.HIBERNATE;
+        EntityPersister persister = hibernate ? em.getEntityManagerFactory().unwrap(SessionFactoryImplementor.class)
+                .getMetamodel().entityPersister(domainClass) : null;
+        if (propertyType != null && persister instanceof SingleTableEntityPersister) {
+            SingleTableEntityPersister singleTable = (SingleTableEntityPersister) persister;
+            this.table = singleTable.getTableName();
+            this.columnName = singleTable.getPropertyColumnNames(property)[0];
+            this.idColumns = Collections.unmodifiableList(Arrays.asList(singleTable.getIdentifierColumnNames()));
+        } else {
+            this.table = null;
+            this.columnName = null;
+            this.idColumns = Collections.emptyList();
+        }
+        this.cachedEntityStatements = hibernate
+                ? CachedEntityStatements.create(em, domainClass, column, queries.getVersionProperty()) : null;
+        this.rowEstimator = hibernate ? SoftDeleteRowEstimator.create(em, domainClass, column) : null;
+        if (propertyType != null && supports(strategy, propertyType)) {
+            queries.register(em.getEntityManagerFactory());
+        }
+    }
+
+    /**
+     * Resolves the metadata of the given entity type and soft delete property. A property the entity lacks is not
+     * reported here, see {@link #validate()}.
+     */
+    static SoftDeleteMetadata resolve(EntityManager em, JpaEntityInformation<?, ?> information, String property,
+            SoftDeleteStrategy strategy) {
+        return new SoftDeleteMetadata(em, information, property, strategy);
+    }
+
+    @Nullable
+    private static Class<?> getPropertyType(EntityManager em, Class<?> domainClass, String property) {
+        try {
+            return em.getMetamodel().entity(domainClass).getAttribute(property).getJavaType();
+        } catch (IllegalArgumentException ex) {
+            return null;
+        }
+    }
+
+    /**
+     * Fails unless the entity maps the soft delete property with a type its strategy can write.
+     *
+     * @throws IllegalStateException naming the entity and the property.
+     */
+    void validate() {
+        Assert.state(propertyType != null, "Entity " + entityName + " has no soft delete property '"
+                + column.getProperty() + "', map it or point @" + SoftDelete.class.getSimpleName()
+                + "(property) to an existing one!");
+        Assert.state(supports(column.getStrategy(), propertyType), "The soft delete property " + entityName + "."
+                + column.getProperty() + " of type " + propertyType.getName() + " does not suit the "
+                + column.getStrategy() + " strategy!");
+    }
+
+    private static boolean supports(SoftDeleteStrategy strategy, Class<?> type) {
+        switch (strategy) {
+            case TIMESTAMP:
+                return Date.class.isAssignableFrom(type) || type == Instant.class || type == LocalDateTime.class;
+            case BOOLEAN:
+                return type == boolean.class || type == Boolean.class;
+            default:
+                return type == long.class || type == Long.class;
+        }
+    }
+
+    Class<?> getDomainClass() {
+        return domainClass;
+    }
+
+    String getEntityName() {
+        return entityName;
+    }
+
+    SoftDeleteColumn getColumn() {
+        return column;
+    }
+
+    SoftDeleteIdLayout getIdLayout() {
+        return idLayout;
+    }
+
+    SoftDeleteQueries getQueries() {
+        return queries;
+    }
+
+    @Nullable
+    CachedEntityStatements getCachedEntityStatements() {
+        return cachedEntityStatements;
+    }
+
+    @Nullable
+    SoftDeleteRowEstimator getRowEstimator() {
+        return rowEstimator;
+    }
+
+    /**
+     * Returns the table of the entity, {@literal null} unless Hibernate maps it to a single table holding the soft
+     * delete column.
+     */
+    @Nullable
+    String getTable() {
+        return table;
+    }
+
+    /**
+     * Returns the soft delete column, {@literal null} whenever {@link #getTable()} is.
+     */
+    @Nullable
+    String getColumnName() {
+        return columnName;
+    }
+
+    /**
+     * Returns the identifier columns, empty whenever {@link #getTable()} is {@literal null}.
+     */
+    List<String> getIdColumns() {
+        return idColumns;
+    }
+}
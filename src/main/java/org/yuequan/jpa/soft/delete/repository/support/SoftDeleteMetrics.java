@@ -0,0 +1,80 @@
+package org.yuequan.jpa.soft.delete.repository.support;
+
+/**
+ * Records timings and affected rows of the soft delete repository operations. {@link #NONE} is used unless metrics are
+ * enabled and keeps the hot path free of clock reads and meter lookups.
+ * @author yuequan
+ */
+interface SoftDeleteMetrics {
+
+    SoftDeleteMetrics NONE = new SoftDeleteMetrics() {
+        @Override
+        public long start() {
+            return 0L;
+        }
+
+        @Override
+        public void stop(Operation operation, long start) {
+        }
+
+        @Override
+        public void rows(Operation operation, int rows) {
+        }
+    };
+
+    /**
+     * Starts timing an operation.
+     *
+     * @return the token to hand to {@link #stop(Operation, long)}.
+     */
+    long start();
+
+    /**
+     * Records the time elapsed since the given {@link #start()} token.
+     */
+    void stop(Operation operation, long start);
+
+    /**
+     * Records the number of rows a single soft delete {@code UPDATE} (or purge {@code DELETE}) touched.
+     */
+    void rows(Operation operation, int rows);
+
+    enum Operation {
+        DELETE("delete"),
+        DELETE_BY_ID("deleteById"),
+        DELETE_ALL("deleteAll"),
+        DELETE_IN_BATCH("deleteInBatch"),
+        DELETE_ALL_IN_BATCH("deleteAllInBatch"),
+        FIND_BY_ID("findById"),
+        EXISTS_BY_ID("existsById"),
+        FIND_ALL_BY_ID("findAllById"),
+        EXISTS_ALL_BY_ID("existsAllById"),
+        COUNT("count"),
+        FIND_SLICE("findSlice"),
+        FIND_ALL_PROJECTED("findAllProjected"),
+        GET_QUERY("getQuery"),
+        GET_COUNT_QUERY("getCountQuery"),
+        RESTORE("restore"),
+        RESTORE_BY_ID("restoreById"),
+        RESTORE_ALL_BY_ID("restoreAllById"),
+        RESTORE_WHERE("restoreWhere"),
+        FIND_ALL_DELETED("findAllDeleted"),
+        COUNT_DELETED("countDeleted"),
+        DELETE_ALL_BY_ID_ASYNC("deleteAllByIdAsync"),
+        DELETE_WHERE_ASYNC("deleteWhereAsync"),
+        RESTORE_ALL_BY_ID_ASYNC("restoreAllByIdAsync"),
+        PURGE("purge"),
+        ARCHIVE("archive"),
+        CASCADE("cascade");
+
+        private final String tag;
+
+        Operation(String tag) {
+            this.tag = tag;
+        }
+
+        String getTag() {
+            return tag;
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package org.yuequan.jpa.soft.delete.repository.support;
+
+import org.hibernate.Session;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.persister.entity.EntityPersister;
+import org.hibernate.persister.entity.SingleTableEntityPersister;
+import org.springframework.util.Assert;
+
+import javax.persistence.EntityManager;
+import java.sql.PreparedStatement;
+import java.sql.Timestamp;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Records the soft deletes and restores of one entity type in an outbox table, one row per affected entity, with
+ * one JDBC batch of native statements on the connection of the current transaction. Only identifiers known in memory
+ * are recorded, so repositories with an outbox soft delete all rows by id batches. Hibernate only.
+ * @author yuequan
+ */
+final class SoftDeleteOutbox {
+
+    static final String COLUMNS = "entity, entity_id, event, occurred_at";
+
+    private final String entityName;
+    private final String table;
+    private final String insertQueryString;
+
+    private SoftDeleteOutbox(String entityName, String table) {
+        this.entityName = entityName;
+        this.table = table;
+        this.insertQueryString = "insert into " + table + " (" + COLUMNS + ") values (?, ?, ?, ?)";
+    }
+
+    /**
+     * Creates the outbox of the given entity type.
+     */
+    static SoftDeleteOutbox create(EntityManager em, Class<?> domainClass, String entityName, String table) {
+        Assert.hasText(table, "The outbox table must not be empty!");
+        SessionFactoryImplementor sessionFactory = em.getEntityManagerFactory().unwrap(SessionFactoryImplementor.class);
+        EntityPersister persister = sessionFactory.getMetamodel().entityPersister(domainClass);
+        Assert.state(persister instanceof SingleTableEntityPersister && !persister.getIdentifierType().isComponentType(),
+                "The outbox requires an entity mapped to a single table with a simple identifier!");
+        return new SoftDeleteOutbox(entityName, table);
+    }
+
+    String getTable() {
+        return table;
+    }
+
+    /**
+     * Records the given event for every distinct identifier with one JDBC batch.
+     */
+    void record(EntityManager em, SoftDeleteEvent.Type type, Collection<?> ids, long now) {
+        Set<?> distinct = new LinkedHashSet<>(ids);
+        if (distinct.isEmpty()) {
+            return;
+        }
+        Timestamp occurredAt = new Timestamp(now);
+        em.unwrap(Session.class).doWork(connection -> {
+            try (PreparedStatement statement = connection.prepareStatement(insertQueryString)) {
+                for (Object id : distinct) {
+                    statement.setString(1, entityName);
+                    statement.setString(2, String.valueOf(id));
+                    statement.setString(3, type.name());
+                    statement.setTimestamp(4, occurredAt);
+                    statement.addBatch();
+                }
+                statement.executeBatch();
+            }
+        });
+    }
+}
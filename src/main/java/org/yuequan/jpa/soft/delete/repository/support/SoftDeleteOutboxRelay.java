@@ -0,0 +1,18 @@
+package org.yuequan.jpa.soft.delete.repository.support;
+
+import java.util.List;
+
+/**
+ * Publishes the events read from the outbox, for example to a message broker or a search index. Events are handed over
+ * in the order they were recorded and removed from the outbox once this returns, in the same transaction, so an
+ * exception leaves them for the next run. Delivery is at least once.
+ * @author yuequan
+ */
+@FunctionalInterface
+public interface SoftDeleteOutboxRelay {
+
+    /**
+     * @param events a batch of events, never empty.
+     */
+    void relay(List<SoftDeleteEvent> events);
+}
@@ -0,0 +1,206 @@
+package org.yuequan.jpa.soft.delete.repository.support;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.hibernate.query.NativeQuery;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.lang.Nullable;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.util.Assert;
+
+import javax.persistence.EntityManager;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Periodically drains the outbox tables of every {@link org.yuequan.jpa.soft.delete.repository.SoftDelete} repository
+ * that enables the {@link org.yuequan.jpa.soft.delete.repository.SoftDeleteOptions#outbox() outbox}, handing the events to a
+ * {@link SoftDeleteOutboxRelay} in batches ordered by outbox id. Every batch is read, relayed and deleted in its own
+ * transaction. Runs on a single background thread and only once a relay is available.
+ * @author yuequan
+ */
+public class SoftDeleteOutboxRelayer implements SmartLifecycle {
+
+    private static final Log logger = LogFactory.getLog(SoftDeleteOutboxRelayer.class);
+
+    private final Map<String, Outbox> outboxes = new ConcurrentHashMap<>();
+    private final Duration interval;
+    private final int batchSize;
+    private final boolean enabled;
+    private final Supplier<SoftDeleteOutboxRelay> relay;
+    private final AtomicLong relayedEvents = new AtomicLong();
+
+    private @Nullable
+    ScheduledExecutorService executor;
+
+    /**
+     * Creates a new {@link SoftDeleteOutboxRelayer}.
+     *
+     * @param interval the delay between two runs, must not be {@literal null}.
+     * @param batchSize the maximum number of events relayed per transaction.
+     * @param enabled whether the outboxes are drained in the background, {@link #relayNow(SoftDeleteOutboxRelay)}
+     * works either way.
+     * @param relay looked up before every background run, may supply {@literal null} while no relay exists.
+     */
+    public SoftDeleteOutboxRelayer(Duration interval, int batchSize, boolean enabled,
+            Supplier<SoftDeleteOutboxRelay> relay) {
+        Assert.notNull(interval, "The relay interval must not be null!");
+        Assert.isTrue(!interval.isNegative() && !interval.isZero(), "The relay interval must be positive!");
+        Assert.isTrue(batchSize > 0, "The relay batch size must be greater than zero!");
+        Assert.notNull(relay, "The relay supplier must not be null!");
+        this.interval = interval;
+        this.batchSize = batchSize;
+        this.enabled = enabled;
+        this.relay = relay;
+    }
+
+    /**
+     * Registers an outbox table, tables shared by several entity types are drained once.
+     */
+    void register(String table, EntityManager em, TransactionTemplate transactionTemplate) {
+        outboxes.putIfAbsent(table, new Outbox(table, em, transactionTemplate));
+    }
+
+    /**
+     * Drains every registered outbox on the calling thread.
+     *
+     * @param relay must not be {@literal null}.
+     * @return the number of relayed events.
+     */
+    public int relayNow(SoftDeleteOutboxRelay relay) {
+        Assert.notNull(relay, "The relay must not be null!");
+        int relayed = 0;
+        for (Outbox outbox : outboxes.values()) {
+            relayed += outbox.drain(relay);
+        }
+        return relayed;
+    }
+
+    /**
+     * Events relayed since startup.
+     */
+    public long getRelayedEvents() {
+        return relayedEvents.get();
+    }
+
+    private void relayInBackground() {
+        SoftDeleteOutboxRelay current = relay.get();
+        if (current == null) {
+            return;
+        }
+        for (Outbox outbox : outboxes.values()) {
+            try {
+                outbox.drain(current);
+            } catch (RuntimeException ex) {
+                logger.warn("Relaying the soft delete events of " + outbox.table + " failed", ex);
+            }
+        }
+    }
+
+    @Override
+    public synchronized void start() {
+        if (!enabled || executor != null) {
+            return;
+        }
+        executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "soft-delete-outbox");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.scheduleWithFixedDelay(this::relayInBackground, interval.toMillis(), interval.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public synchronized void stop() {
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+    }
+
+    @Override
+    public synchronized boolean isRunning() {
+        return executor != null;
+    }
+
+    @Override
+    public boolean isAutoStartup() {
+        return true;
+    }
+
+    @Override
+    public void stop(Runnable callback) {
+        stop();
+        callback.run();
+    }
+
+    @Override
+    public int getPhase() {
+        return 0;
+    }
+
+    /**
+     * One outbox table. Its statements are native SQL synchronized on no entity, so they neither flush nor invalidate
+     * cached entities.
+     */
+    private final class Outbox {
+        private final String table;
+        private final EntityManager em;
+        private final TransactionTemplate transactionTemplate;
+
+        Outbox(String table, EntityManager em, TransactionTemplate transactionTemplate) {
+            this.table = table;
+            this.em = em;
+            this.transactionTemplate = transactionTemplate;
+        }
+
+        synchronized int drain(SoftDeleteOutboxRelay relay) {
+            int relayed = 0;
+            int batch;
+            do {
+                batch = transactionTemplate.execute(status -> relayBatch(relay));
+                relayed += batch;
+                relayedEvents.addAndGet(batch);
+            } while (batch == batchSize);
+            return relayed;
+        }
+
+        private int relayBatch(SoftDeleteOutboxRelay relay) {
+            List<?> rows = createQuery("select id, " + SoftDeleteOutbox.COLUMNS + " from " + table + " order by id")
+                    .setMaxResults(batchSize)
+                    .getResultList();
+            if (rows.isEmpty()) {
+                return 0;
+            }
+            List<SoftDeleteEvent> events = new ArrayList<>(rows.size());
+            List<Long> ids = new ArrayList<>(rows.size());
+            for (Object row : rows) {
+                Object[] values = (Object[]) row;
+                long id = ((Number) values[0]).longValue();
+                ids.add(id);
+                events.add(new SoftDeleteEvent(id, (String) values[1], (String) values[2],
+                        SoftDeleteEvent.Type.valueOf((String) values[3]), new Date(((Date) values[4]).getTime())));
+            }
+            relay.relay(events);
+            createQuery("delete from " + table + " where id in (:" + SoftDeleteQueries.IDS_PARAMETER + ")")
+                    .setParameterList(SoftDeleteQueries.IDS_PARAMETER, ids)
+                    .executeUpdate();
+            return rows.size();
+        }
+
+        private NativeQuery<?> createQuery(String sql) {
+            NativeQuery<?> query = em.createNativeQuery(sql).unwrap(NativeQuery.class);
+            query.addSynchronizedQuerySpace("");
+            return query;
+        }
+    }
+}
@@ -0,0 +1,200 @@
+package org.yuequan.jpa.soft.delete.repository.support;
+
+import org.springframework.data.domain.Sort;
+import org.springframework.data.jpa.domain.Specification;
+import org.springframework.data.jpa.repository.query.QueryUtils;
+import org.springframework.data.mapping.PreferredConstructor;
+import org.springframework.data.mapping.model.PreferredConstructorDiscoverer;
+import org.springframework.data.projection.ProjectionFactory;
+import org.springframework.data.projection.ProjectionInformation;
+import org.springframework.lang.Nullable;
+import org.springframework.util.Assert;
+import org.springframework.util.ClassUtils;
+
+import javax.persistence.EntityManager;
+import javax.persistence.Tuple;
+import javax.persistence.TypedQuery;
+import javax.persistence.criteria.CriteriaBuilder;
+import javax.persistence.criteria.CriteriaQuery;
+import javax.persistence.criteria.Predicate;
+import javax.persistence.criteria.Root;
+import javax.persistence.criteria.Selection;
+import javax.persistence.metamodel.EntityType;
+import javax.persistence.metamodel.Metamodel;
+import java.beans.PropertyDescriptor;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads one projection type of an entity type with a query selecting only the properties the projection needs, so no
+ * entity is hydrated, snapshotted for dirty checking or registered in the persistence context. Classes are filled
+ * through a constructor expression taking those properties in the order of their constructor. Closed interfaces whose
+ * getters return the property types are JDK proxies over the selected values, other closed interfaces are created by
+ * the {@link ProjectionFactory}, converting the values as needed. Everything is resolved once per projection type.
+ * @author yuequan
+ * @param <T> the type of the entity to read
+ * @param <P> the type of the projection
+ */
+final class SoftDeleteProjection<T, P> {
+
+    private final Class<T> domainClass;
+    private final Class<P> projection;
+    private final List<String> properties = new ArrayList<>();
+    private final boolean constructor;
+    private final ProjectionFactory projectionFactory;
+    private final Map<Method, Integer> getters = new HashMap<>();
+    private final @Nullable
+    Constructor<?> proxyConstructor;
+
+    SoftDeleteProjection(Metamodel metamodel, Class<T> domainClass, Class<P> projection,
+            ProjectionFactory projectionFactory) {
+        Assert.isTrue(!projection.isAssignableFrom(domainClass), "The projection must not be the entity type itself!");
+        this.domainClass = domainClass;
+        this.projection = projection;
+        this.constructor = !projection.isInterface();
+        this.projectionFactory = projectionFactory;
+        if (constructor) {
+            properties.addAll(getConstructorProperties(projection));
+            this.proxyConstructor = null;
+            return;
+        }
+        ProjectionInformation information = projectionFactory.getProjectionInformation(projection);
+        Assert.isTrue(information.isClosed() && !information.getInputProperties().isEmpty(),
+                "Projection reads require a DTO class or a closed interface projection!");
+        EntityType<T> entity = metamodel.entity(domainClass);
+        boolean plain = true;
+        for (PropertyDescriptor descriptor : information.getInputProperties()) {
+            Method getter = descriptor.getReadMethod();
+            Class<?> type = entity.getAttribute(descriptor.getName()).getJavaType();
+            plain &= getter != null && ClassUtils.isAssignable(getter.getReturnType(), type);
+            getters.put(getter, properties.size());
+            properties.add(descriptor.getName());
+        }
+        for (Method method : projection.getMethods()) {
+            plain &= !method.isDefault();
+        }
+        this.proxyConstructor = plain ? getProxyConstructor(projection) : null;
+    }
+
+    /**
+     * Returns the parameter names of the preferred constructor of the given DTO class, which must be compiled with
+     * parameter names or debug information.
+     */
+    private static List<String> getConstructorProperties(Class<?> projection) {
+        PreferredConstructor<?, ?> constructor = PreferredConstructorDiscoverer.discover(projection);
+        Assert.isTrue(constructor != null && constructor.hasParameters(),
+                "Projection classes require a constructor taking the selected properties!");
+        List<String> properties = new ArrayList<>();
+        for (PreferredConstructor.Parameter<?, ?> parameter : constructor.getParameters()) {
+            Assert.state(parameter.getName() != null, "The constructor parameter names of "
+                    + projection.getName() + " are not available, compile it with -parameters!");
+            properties.add(parameter.getName());
+        }
+        return properties;
+    }
+
+    private static Constructor<?> getProxyConstructor(Class<?> projection) {
+        try {
+            return Proxy.getProxyClass(projection.getClassLoader(), projection).getConstructor(InvocationHandler.class);
+        } catch (NoSuchMethodException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    /**
+     * Selects the projected properties of the rows matching the given specification.
+     *
+     * @param spec the complete restriction, including the live row predicate.
+     */
+    @SuppressWarnings("unchecked")
+    TypedQuery<?> createQuery(EntityManager em, Specification<T> spec, Sort sort) {
+        CriteriaBuilder builder = em.getCriteriaBuilder();
+        CriteriaQuery<?> query = constructor ? builder.createQuery(projection) : builder.createTupleQuery();
+        Root<T> root = query.from(domainClass);
+        List<Selection<?>> selections = new ArrayList<>(properties.size());
+        for (String property : properties) {
+            selections.add(root.get(property).alias(property));
+        }
+        if (constructor) {
+            ((CriteriaQuery<P>) query).select(builder.construct(projection, selections.toArray(new Selection<?>[0])));
+        } else {
+            ((CriteriaQuery<Tuple>) query).multiselect(selections);
+        }
+        Predicate predicate = spec.toPredicate(root, query, builder);
+        if (predicate != null) {
+            query.where(predicate);
+        }
+        if (sort.isSorted()) {
+            query.orderBy(QueryUtils.toOrders(sort, root, builder));
+        }
+        return em.createQuery(query);
+    }
+
+    /**
+     * Turns the rows read by a query of {@link #createQuery} into projections.
+     */
+    @SuppressWarnings("unchecked")
+    List<P> toProjections(List<?> rows) {
+        if (constructor) {
+            return (List<P>) rows;
+        }
+        List<P> projections = new ArrayList<>(rows.size());
+        for (Object row : rows) {
+            Object[] values = ((Tuple) row).toArray();
+            projections.add(proxyConstructor != null ? createProxy(values)
+                    : projectionFactory.createProjection(projection, toMap(values)));
+        }
+        return projections;
+    }
+
+    private P createProxy(Object[] values) {
+        try {
+            return projection.cast(proxyConstructor.newInstance(new ValuesHandler(values)));
+        } catch (ReflectiveOperationException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    private Map<String, Object> toMap(Object[] values) {
+        Map<String, Object> map = new HashMap<>(properties.size() * 2);
+        for (int i = 0; i < values.length; i++) {
+            map.put(properties.get(i), values[i]);
+        }
+        return map;
+    }
+
+    /**
+     * Answers the getters of a projection proxy from the selected values, identity decides equality.
+     */
+    private final class ValuesHandler implements InvocationHandler {
+        private final Object[] values;
+
+        ValuesHandler(Object[] values) {
+            this.values = values;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) {
+            Integer index = getters.get(method);
+            if (index != null) {
+                return values[index];
+            }
+            switch (method.getName()) {
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return projection.getSimpleName() + toMap(values);
+                default:
+                    throw new UnsupportedOperationException(method.toString());
+            }
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package org.yuequan.jpa.soft.delete.repository.support;
+
+import org.springframework.lang.Nullable;
+
+import java.util.Date;
+
+/**
+ * Snapshot of the purge progress of one entity type.
+ * @author yuequan
+ */
+public final class SoftDeletePurgeProgress {
+
+    private final String entityName;
+    private final boolean running;
+    private final long purgedRows;
+    private final long chunks;
+    private final @Nullable Date lastCutoff;
+    private final @Nullable Date lastFinishedAt;
+
+    SoftDeletePurgeProgress(String entityName, boolean running, long purgedRows, long chunks,
+                            @Nullable Date lastCutoff, @Nullable Date lastFinishedAt) {
+        this.entityName = entityName;
+        this.running = running;
+        this.purgedRows = purgedRows;
+        this.chunks = chunks;
+        this.lastCutoff = lastCutoff;
+        this.lastFinishedAt = lastFinishedAt;
+    }
+
+    public String getEntityName() {
+        return entityName;
+    }
+
+    /**
+     * Whether a purge of the entity type is in progress.
+     */
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * Rows physically deleted since startup.
+     */
+    public long getPurgedRows() {
+        return purgedRows;
+    }
+
+    /**
+     * Chunks deleted since startup, each in its own transaction.
+     */
+    public long getChunks() {
+        return chunks;
+    }
+
+    /**
+     * The removal date before which rows were purged by the last run, {@literal null} before the first run.
+     */
+    @Nullable
+    public Date getLastCutoff() {
+        return lastCutoff;
+    }
+
+    /**
+     * When the last complete run finished, {@literal null} before the first one.
+     */
+    @Nullable
+    public Date getLastFinishedAt() {
+        return lastFinishedAt;
+    }
+}
@@ -0,0 +1,190 @@
+package org.yuequan.jpa.soft.delete.repository.support;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.lang.Nullable;
+import org.springframework.util.Assert;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Periodically purges the rows of every {@link org.yuequan.jpa.soft.delete.repository.SoftDelete} repository that
+ * declares a {@link org.yuequan.jpa.soft.delete.repository.SoftDeleteOptions#retention() retention} and archives the removed
+ * rows of every repository that enables the {@link org.yuequan.jpa.soft.delete.repository.SoftDeleteOptions#archive() archive}.
+ * Runs on a single background thread, one entity type after the other, and limits the rate at which chunks are
+ * deleted or moved.
+ * @author yuequan
+ */
+public class SoftDeletePurgeScheduler implements SmartLifecycle {
+
+    private static final Log logger = LogFactory.getLog(SoftDeletePurgeScheduler.class);
+
+    private final List<SoftDeletePurger> purgers = new CopyOnWriteArrayList<>();
+    private final List<SoftDeleteArchiver> archivers = new CopyOnWriteArrayList<>();
+    private final Duration interval;
+    private final int chunkSize;
+    private final long chunkIntervalNanos;
+    private final boolean enabled;
+
+    private @Nullable
+    ScheduledExecutorService executor;
+    private boolean started;
+
+    /**
+     * Creates a new {@link SoftDeletePurgeScheduler}.
+     *
+     * @param interval the delay between two purge runs, must not be {@literal null}.
+     * @param chunkSize the maximum number of rows deleted or archived per transaction.
+     * @param chunksPerSecond the maximum number of chunks deleted or archived per second, {@literal 0} for no limit.
+     * @param enabled whether purges and archiving run in the background, {@link #purgeNow()} and
+     * {@link #archiveNow()} work either way.
+     */
+    public SoftDeletePurgeScheduler(Duration interval, int chunkSize, double chunksPerSecond, boolean enabled) {
+        Assert.notNull(interval, "The purge interval must not be null!");
+        Assert.isTrue(!interval.isNegative() && !interval.isZero(), "The purge interval must be positive!");
+        Assert.isTrue(chunkSize > 0, "The purge chunk size must be greater than zero!");
+        this.interval = interval;
+        this.chunkSize = chunkSize;
+        this.chunkIntervalNanos = chunksPerSecond > 0 ? (long) (TimeUnit.SECONDS.toNanos(1) / chunksPerSecond) : 0L;
+        this.enabled = enabled;
+    }
+
+    synchronized void register(SoftDeletePurger purger) {
+        purgers.add(purger);
+        schedule();
+    }
+
+    synchronized void register(SoftDeleteArchiver archiver) {
+        archivers.add(archiver);
+        schedule();
+    }
+
+    /**
+     * Purges every registered entity type on the calling thread.
+     *
+     * @return the number of purged rows.
+     */
+    public int purgeNow() throws InterruptedException {
+        int purged = 0;
+        for (SoftDeletePurger purger : purgers) {
+            purged += purger.purge(chunkSize, chunkIntervalNanos);
+        }
+        return purged;
+    }
+
+    /**
+     * Returns the progress of every registered entity type.
+     */
+    public List<SoftDeletePurgeProgress> getProgress() {
+        List<SoftDeletePurgeProgress> progress = new ArrayList<>(purgers.size());
+        for (SoftDeletePurger purger : purgers) {
+            progress.add(purger.getProgress());
+        }
+        return progress;
+    }
+
+    /**
+     * Archives the removed rows of every registered entity type on the calling thread.
+     *
+     * @return the number of archived rows.
+     */
+    public int archiveNow() throws InterruptedException {
+        int archived = 0;
+        for (SoftDeleteArchiver archiver : archivers) {
+            archived += archiver.archive(chunkSize, chunkIntervalNanos);
+        }
+        return archived;
+    }
+
+    /**
+     * Returns the archiving progress of every registered entity type.
+     */
+    public List<SoftDeleteArchiveProgress> getArchiveProgress() {
+        List<SoftDeleteArchiveProgress> progress = new ArrayList<>(archivers.size());
+        for (SoftDeleteArchiver archiver : archivers) {
+            progress.add(archiver.getProgress());
+        }
+        return progress;
+    }
+
+    private void purgeInBackground() {
+        for (SoftDeletePurger purger : purgers) {
+            try {
+                purger.purge(chunkSize, chunkIntervalNanos);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (RuntimeException ex) {
+                logger.warn("Purging soft deleted " + purger.getProgress().getEntityName() + " rows failed", ex);
+            }
+        }
+        for (SoftDeleteArchiver archiver : archivers) {
+            try {
+                archiver.archive(chunkSize, chunkIntervalNanos);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (RuntimeException ex) {
+                logger.warn("Archiving soft deleted " + archiver.getProgress().getEntityName() + " rows failed", ex);
+            }
+        }
+    }
+
+    @Override
+    public synchronized void start() {
+        started = true;
+        schedule();
+    }
+
+    /**
+     * Starts the background thread once the scheduler is started and something is registered to purge or archive.
+     */
+    private void schedule() {
+        if (!enabled || !started || executor != null || (purgers.isEmpty() && archivers.isEmpty())) {
+            return;
+        }
+        executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "soft-delete-purge");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.scheduleWithFixedDelay(this::purgeInBackground, interval.toMillis(), interval.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public synchronized void stop() {
+        started = false;
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+    }
+
+    @Override
+    public synchronized boolean isRunning() {
+        return started;
+    }
+
+    @Override
+    public boolean isAutoStartup() {
+        return true;
+    }
+
+    @Override
+    public void stop(Runnable callback) {
+        stop();
+        callback.run();
+    }
+
+    @Override
+    public int getPhase() {
+        return 0;
+    }
+}
@@ -0,0 +1,151 @@
+package org.yuequan.jpa.soft.delete.repository.support;
+
+import org.springframework.lang.Nullable;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.yuequan.jpa.soft.delete.repository.support.SoftDeleteMetrics.Operation;
+
+import javax.persistence.EntityManager;
+import javax.persistence.Query;
+import java.time.Duration;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiFunction;
+
+/**
+ * Physically deletes the rows of one entity type that were soft deleted longer ago than the retention period, from its
+ * table and, if it has one, from its {@link SoftDeleteArchive}. Walks the candidates by identifier (keyset pagination)
+ * and deletes every chunk in its own short transaction, so no run holds long locks or one huge transaction log entry.
+ * @author yuequan
+ */
+final class SoftDeletePurger {
+
+    private final String entityName;
+    private final EntityManager em;
+    private final SoftDeleteQueries queries;
+    private final TransactionTemplate transactionTemplate;
+    private final Duration retention;
+    private final SoftDeleteMetrics metrics;
+    private final @Nullable SoftDeleteArchive archive;
+
+    private final AtomicLong purgedRows = new AtomicLong();
+    private final AtomicLong chunks = new AtomicLong();
+    private volatile boolean running;
+    private volatile @Nullable Date lastCutoff;
+    private volatile @Nullable Date lastFinishedAt;
+
+    SoftDeletePurger(String entityName, EntityManager em, SoftDeleteQueries queries,
+                     TransactionTemplate transactionTemplate, Duration retention, SoftDeleteMetrics metrics,
+                     @Nullable SoftDeleteArchive archive) {
+        this.entityName = entityName;
+        this.em = em;
+        this.queries = queries;
+        this.transactionTemplate = transactionTemplate;
+        this.retention = retention;
+        this.metrics = metrics;
+        this.archive = archive;
+    }
+
+    /**
+     * Purges all rows removed before now minus the retention period.
+     *
+     * @param chunkSize the maximum number of rows deleted per transaction.
+     * @param chunkIntervalNanos the minimum time between the start of two chunks, {@literal 0} for no limit.
+     * @return the number of purged rows.
+     * @throws InterruptedException if the thread is interrupted while waiting for the next chunk.
+     */
+    synchronized int purge(int chunkSize, long chunkIntervalNanos) throws InterruptedException {
+        Date cutoff = new Date(System.currentTimeMillis() - retention.toMillis());
+        running = true;
+        lastCutoff = cutoff;
+        long purgedBefore = purgedRows.get();
+        try {
+            purgeChunks((after, chunk) -> purgeChunk(cutoff, after, chunk), chunkSize, chunkIntervalNanos);
+            if (archive != null) {
+                purgeChunks((after, chunk) -> purgeArchiveChunk(cutoff, after, chunk), chunkSize, chunkIntervalNanos);
+            }
+            lastFinishedAt = new Date();
+            return (int) (purgedRows.get() - purgedBefore);
+        } finally {
+            running = false;
+        }
+    }
+
+    /**
+     * Runs the given chunk action in its own transaction until it returns less than a full chunk of identifiers, each
+     * run continuing after the last identifier of the previous one.
+     */
+    private void purgeChunks(BiFunction<Object, Integer, List<?>> purgeChunk, int chunkSize, long chunkIntervalNanos)
+            throws InterruptedException {
+        Object lastId = null;
+        long chunkStart = 0;
+        while (true) {
+            if (chunkIntervalNanos > 0 && chunkStart != 0) {
+                long wait = chunkStart + chunkIntervalNanos - System.nanoTime();
+                if (wait > 0) {
+                    TimeUnit.NANOSECONDS.sleep(wait);
+                }
+            }
+            if (Thread.currentThread().isInterrupted()) {
+                throw new InterruptedException();
+            }
+            chunkStart = System.nanoTime();
+            Object after = lastId;
+            List<?> ids = transactionTemplate.execute(status -> purgeChunk.apply(after, chunkSize));
+            if (ids.isEmpty()) {
+                break;
+            }
+            lastId = ids.get(ids.size() - 1);
+            if (ids.size() < chunkSize) {
+                break;
+            }
+        }
+    }
+
+    private List<?> purgeChunk(Date cutoff, @Nullable Object lastId, int chunkSize) {
+        long start = metrics.start();
+        try {
+            Query select = queries.createPurgeableIdsQuery(em, lastId == null).setMaxResults(chunkSize);
+            queries.bindCutoff(select, cutoff);
+            if (lastId != null) {
+                select.setParameter(SoftDeleteQueries.LAST_ID_PARAMETER, lastId);
+            }
+            List<?> ids = select.getResultList();
+            if (ids.isEmpty()) {
+                return ids;
+            }
+            Query delete = queries.createHardDeleteByIdsQuery(em)
+                    .setParameter(SoftDeleteQueries.IDS_PARAMETER, ids);
+            queries.bindCutoff(delete, cutoff);
+            int deleted = delete.executeUpdate();
+            purgedRows.addAndGet(deleted);
+            chunks.incrementAndGet();
+            metrics.rows(Operation.PURGE, deleted);
+            return ids;
+        } finally {
+            metrics.stop(Operation.PURGE, start);
+        }
+    }
+
+    private List<?> purgeArchiveChunk(Date cutoff, @Nullable Object lastId, int chunkSize) {
+        long start = metrics.start();
+        try {
+            List<?> ids = archive.findPurgeableIds(em, cutoff, lastId, chunkSize);
+            if (ids.isEmpty()) {
+                return ids;
+            }
+            int deleted = archive.purge(em, ids);
+            purgedRows.addAndGet(deleted);
+            chunks.incrementAndGet();
+            metrics.rows(Operation.PURGE, deleted);
+            return ids;
+        } finally {
+            metrics.stop(Operation.PURGE, start);
+        }
+    }
+
+    SoftDeletePurgeProgress getProgress() {
+        return new SoftDeletePurgeProgress(entityName, running, purgedRows.get(), chunks.get(), lastCutoff, lastFinishedAt);
+    }
+}
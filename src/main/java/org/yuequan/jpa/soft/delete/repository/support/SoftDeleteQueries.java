@@ -0,0 +1,320 @@
+package org.yuequan.jpa.soft.delete.repository.support;
+
+import org.springframework.data.jpa.repository.support.JpaEntityInformation;
+import org.springframework.lang.Nullable;
+import org.springframework.util.Assert;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.PersistenceException;
+import javax.persistence.Query;
+import javax.persistence.TypedQuery;
+import javax.persistence.metamodel.IdentifiableType;
+import javax.persistence.metamodel.ManagedType;
+import javax.persistence.metamodel.SingularAttribute;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.springframework.data.jpa.repository.query.QueryUtils.getQueryString;
+
+/**
+ * The soft delete statements of one entity type, built once when the repository is created instead of on every call.
+ * Where the provider allows it the fixed statements are also registered as named queries so they are parsed a single
+ * time.
+ * @author yuequan
+ */
+final class SoftDeleteQueries {
+
+    static final String REMOVED_AT_PARAMETER = "removedAt";
+    static final String IDS_PARAMETER = "ids";
+    static final String CUTOFF_PARAMETER = "cutoff";
+    static final String LAST_ID_PARAMETER = "lastId";
+
+    /**
+     * The most bind parameters a statement by identifiers uses, below the 2100 of SQL Server and the limits of the
+     * other common databases.
+     */
+    static final int PARAMETER_BUDGET = 2000;
+
+    private static final String DELETE_ALL_QUERY = "softDeleteAll";
+    private static final String DELETE_BY_IDS_QUERY = "softDeleteByIds";
+    private static final String RESTORE_BY_IDS_QUERY = "restoreByIds";
+    private static final String COUNT_QUERY = "count";
+    private static final String FIND_BY_IDS_QUERY = "findByIds";
+    private static final String FIND_IDS_BY_IDS_QUERY = "findIdsByIds";
+
+    private final JpaEntityInformation<?, ?> entityInformation;
+    private final SoftDeleteIdLayout idLayout;
+    private final SoftDeleteColumn column;
+    private final @Nullable String versionProperty;
+    private final String deleteAllQueryString;
+    private final String restoreQueryString;
+    private final String deleteByIdsQueryString;
+    private final String restoreByIdsQueryString;
+    private final String countQueryString;
+    private final String findByIdsQueryString;
+    private final String findIdsByIdsQueryString;
+    private final Map<Integer, String> compositeDeleteByIdsQueryStrings = new ConcurrentHashMap<>();
+    private final Map<Integer, String> compositeRestoreByIdsQueryStrings = new ConcurrentHashMap<>();
+    private final String purgeableIdsQueryString;
+    private final String nextPurgeableIdsQueryString;
+    private final String hardDeleteByIdsQueryString;
+    private final String lockLiveIdsQueryString;
+    private final String lockRemovedIdsQueryString;
+
+    private volatile boolean named;
+
+    /**
+     * @param entityInformation must not be {@literal null}.
+     * @param idLayout the identifier attributes of the entity type, must not be {@literal null}.
+     * @param column must not be {@literal null}.
+     * @param versionProperty the numeric {@link javax.persistence.Version} property the statements increment, can be
+     *          {@literal null}.
+     */
+    SoftDeleteQueries(JpaEntityInformation<?, ?> entityInformation, SoftDeleteIdLayout idLayout,
+            SoftDeleteColumn column, @Nullable String versionProperty) {
+        this.entityInformation = entityInformation;
+        this.idLayout = idLayout;
+        this.column = column;
+        this.versionProperty = versionProperty;
+        String property = "x." + column.getProperty();
+        String version = versionProperty == null ? "" : ", x." + versionProperty + " = x." + versionProperty + " + 1";
+        this.deleteAllQueryString = getQueryString("UPDATE %s x SET " + property + " = :" + REMOVED_AT_PARAMETER
+                + version + " where " + column.getLiveCondition("x"), entityInformation.getEntityName());
+        this.restoreQueryString = getQueryString("UPDATE %s x SET " + property + " = " + column.getRestoredLiteral()
+                + version + " where " + column.getRemovedCondition("x"), entityInformation.getEntityName());
+        this.countQueryString = getQueryString("select count(x) from %s x where " + column.getLiveCondition("x"),
+                entityInformation.getEntityName());
+        if (idLayout.isComposite()) {
+            this.deleteByIdsQueryString = null;
+            this.restoreByIdsQueryString = null;
+            this.findByIdsQueryString = null;
+            this.findIdsByIdsQueryString = null;
+            this.purgeableIdsQueryString = null;
+            this.nextPurgeableIdsQueryString = null;
+            this.hardDeleteByIdsQueryString = null;
+            this.lockLiveIdsQueryString = null;
+            this.lockRemovedIdsQueryString = null;
+        } else {
+            String id = "x." + idLayout.getAttributeName();
+            this.deleteByIdsQueryString = deleteAllQueryString + " and " + getIdsCondition(0);
+            this.restoreByIdsQueryString = restoreQueryString + " and " + getIdsCondition(0);
+            String live = " from %s x where " + column.getLiveCondition("x") + " and " + getIdsCondition(0);
+            this.findByIdsQueryString = getQueryString("select x" + live, entityInformation.getEntityName());
+            this.findIdsByIdsQueryString = getQueryString("select " + id + live, entityInformation.getEntityName());
+            String purgeable = getQueryString("select " + id + " from %s x where " + column.getRemovedCondition("x")
+                    + " and " + property + " < :" + CUTOFF_PARAMETER, entityInformation.getEntityName());
+            this.purgeableIdsQueryString = purgeable + " order by " + id;
+            this.nextPurgeableIdsQueryString = purgeable + " and " + id + " > :" + LAST_ID_PARAMETER + " order by " + id;
+            this.hardDeleteByIdsQueryString = getQueryString("delete from %s x where " + column.getRemovedCondition("x")
+                    + " and " + property + " < :" + CUTOFF_PARAMETER + " and " + getIdsCondition(0),
+                    entityInformation.getEntityName());
+            this.lockLiveIdsQueryString = getQueryString("select " + id + " from %s x where "
+                    + column.getLiveCondition("x") + " and " + getIdsCondition(0) + " order by " + id,
+                    entityInformation.getEntityName());
+            this.lockRemovedIdsQueryString = getQueryString("select " + id + " from %s x where "
+                    + column.getRemovedCondition("x") + " and " + getIdsCondition(0) + " order by " + id,
+                    entityInformation.getEntityName());
+        }
+    }
+
+    /**
+     * Returns the name of the numeric {@link javax.persistence.Version} property of the given entity type, which soft
+     * deletes and restores increment like any other update. Timestamp versions are left alone, the database clock
+     * would not match the value held in memory.
+     *
+     * @return the property name or {@literal null} if the entity is not versioned by a number.
+     */
+    @Nullable
+    static String getVersionProperty(EntityManager em, Class<?> domainClass) {
+        ManagedType<?> type = em.getMetamodel().managedType(domainClass);
+        if (!(type instanceof IdentifiableType) || !((IdentifiableType<?>) type).hasVersionAttribute()) {
+            return null;
+        }
+        for (SingularAttribute<?, ?> attribute : type.getSingularAttributes()) {
+            if (attribute.isVersion()) {
+                Class<?> javaType = attribute.getJavaType();
+                boolean numeric = Number.class.isAssignableFrom(javaType) || javaType == int.class
+                        || javaType == long.class || javaType == short.class;
+                return numeric ? attribute.getName() : null;
+            }
+        }
+        return null;
+    }
+
+    SoftDeleteColumn getColumn() {
+        return column;
+    }
+
+    @Nullable
+    String getVersionProperty() {
+        return versionProperty;
+    }
+
+    /**
+     * Registers the fixed statements as named queries of the given {@link EntityManagerFactory}. Providers that do
+     * not support {@link EntityManagerFactory#addNamedQuery(String, Query)} keep using the cached query strings.
+     */
+    void register(EntityManagerFactory entityManagerFactory) {
+        EntityManager entityManager = entityManagerFactory.createEntityManager();
+        try {
+            entityManagerFactory.addNamedQuery(getName(DELETE_ALL_QUERY), entityManager.createQuery(deleteAllQueryString));
+            entityManagerFactory.addNamedQuery(getName(COUNT_QUERY), entityManager.createQuery(countQueryString, Long.class));
+            if (deleteByIdsQueryString != null) {
+                entityManagerFactory.addNamedQuery(getName(DELETE_BY_IDS_QUERY), entityManager.createQuery(deleteByIdsQueryString));
+                entityManagerFactory.addNamedQuery(getName(RESTORE_BY_IDS_QUERY), entityManager.createQuery(restoreByIdsQueryString));
+                entityManagerFactory.addNamedQuery(getName(FIND_BY_IDS_QUERY), entityManager.createQuery(findByIdsQueryString));
+                entityManagerFactory.addNamedQuery(getName(FIND_IDS_BY_IDS_QUERY), entityManager.createQuery(findIdsByIdsQueryString));
+            }
+            named = true;
+        } catch (PersistenceException | UnsupportedOperationException ex) {
+            named = false;
+        } finally {
+            entityManager.close();
+        }
+    }
+
+    /**
+     * Creates the statement flagging every live row as removed, the value to write is bound to
+     * {@link #REMOVED_AT_PARAMETER}.
+     */
+    Query createDeleteAllQuery(EntityManager em) {
+        return named ? em.createNamedQuery(getName(DELETE_ALL_QUERY)) : em.createQuery(deleteAllQueryString);
+    }
+
+    /**
+     * Creates the statement flagging the live rows with the given number of identifiers as removed. The value to
+     * write is bound to {@link #REMOVED_AT_PARAMETER}, the identifiers with {@link #bindIds(Query, Iterable)}.
+     */
+    Query createDeleteByIdsQuery(EntityManager em, int size) {
+        if (deleteByIdsQueryString == null) {
+            return em.createQuery(compositeDeleteByIdsQueryStrings.computeIfAbsent(size,
+                    it -> deleteAllQueryString + " and " + getIdsCondition(it)));
+        }
+        return named ? em.createNamedQuery(getName(DELETE_BY_IDS_QUERY)) : em.createQuery(deleteByIdsQueryString);
+    }
+
+    /**
+     * Creates the statement clearing the removal flag of the removed rows with the given number of identifiers. Bind
+     * the identifiers with {@link #bindIds(Query, Iterable)}.
+     */
+    Query createRestoreByIdsQuery(EntityManager em, int size) {
+        if (restoreByIdsQueryString == null) {
+            return em.createQuery(compositeRestoreByIdsQueryStrings.computeIfAbsent(size,
+                    it -> restoreQueryString + " and " + getIdsCondition(it)));
+        }
+        return named ? em.createNamedQuery(getName(RESTORE_BY_IDS_QUERY)) : em.createQuery(restoreByIdsQueryString);
+    }
+
+    /**
+     * Creates the query counting the live rows.
+     */
+    TypedQuery<Long> createCountQuery(EntityManager em) {
+        return named ? em.createNamedQuery(getName(COUNT_QUERY), Long.class) : em.createQuery(countQueryString, Long.class);
+    }
+
+    /**
+     * Creates the query selecting the live entities with the identifiers bound to {@link #IDS_PARAMETER}.
+     */
+    <T> TypedQuery<T> createFindByIdsQuery(EntityManager em, Class<T> domainClass) {
+        Assert.state(findByIdsQueryString != null, "Finding by a list of identifiers requires a simple identifier!");
+        return named ? em.createNamedQuery(getName(FIND_BY_IDS_QUERY), domainClass)
+                : em.createQuery(findByIdsQueryString, domainClass);
+    }
+
+    /**
+     * Creates the query selecting the identifiers of the live rows among the identifiers bound to
+     * {@link #IDS_PARAMETER}.
+     */
+    Query createFindIdsByIdsQuery(EntityManager em) {
+        Assert.state(findIdsByIdsQueryString != null, "Finding by a list of identifiers requires a simple identifier!");
+        return named ? em.createNamedQuery(getName(FIND_IDS_BY_IDS_QUERY)) : em.createQuery(findIdsByIdsQueryString);
+    }
+
+    /**
+     * Creates the keyset query selecting the identifiers of rows removed before the cutoff bound with
+     * {@link #bindCutoff(Query, Date)}, ordered by identifier and, unless it is the first page, following
+     * {@link #LAST_ID_PARAMETER}.
+     */
+    Query createPurgeableIdsQuery(EntityManager em, boolean first) {
+        Assert.state(purgeableIdsQueryString != null, "Purging requires a simple identifier!");
+        return em.createQuery(first ? purgeableIdsQueryString : nextPurgeableIdsQueryString);
+    }
+
+    /**
+     * Creates the statement physically deleting the rows with the identifiers bound to {@link #IDS_PARAMETER} that
+     * are still removed before the cutoff bound with {@link #bindCutoff(Query, Date)}, so rows restored since they were
+     * selected survive.
+     */
+    Query createHardDeleteByIdsQuery(EntityManager em) {
+        Assert.state(hardDeleteByIdsQueryString != null, "Purging requires a simple identifier!");
+        return em.createQuery(hardDeleteByIdsQueryString);
+    }
+
+    /**
+     * Creates the query selecting the identifiers of the live, or removed, rows among the identifiers bound to
+     * {@link #IDS_PARAMETER} ordered by identifier. Run with a pessimistic lock it locks the rows in that order.
+     */
+    Query createLockIdsQuery(EntityManager em, boolean live) {
+        Assert.state(lockLiveIdsQueryString != null, "Locking rows in order requires a simple identifier!");
+        return em.createQuery(live ? lockLiveIdsQueryString : lockRemovedIdsQueryString);
+    }
+
+    /**
+     * Binds the cutoff of a purgeable identifiers query.
+     */
+    void bindCutoff(Query query, Date cutoff) {
+        query.setParameter(CUTOFF_PARAMETER, column.getCutoffValue(cutoff));
+    }
+
+    /**
+     * Returns the most identifiers a statement by identifiers can take within the {@link #PARAMETER_BUDGET}, a composite
+     * identifier binding one parameter per attribute.
+     */
+    int getMaxIdsPerStatement() {
+        return PARAMETER_BUDGET / idLayout.getAttributeNames().size();
+    }
+
+    /**
+     * Binds the given identifiers to a statement created for them. Simple identifiers are bound as a list to
+     * {@link #IDS_PARAMETER}, the attributes of composite identifiers to {@code <attribute><index>}.
+     */
+    void bindIds(Query query, Iterable<?> ids) {
+        if (!idLayout.isComposite()) {
+            query.setParameter(IDS_PARAMETER, ids);
+            return;
+        }
+        List<String> idNames = idLayout.getAttributeNames();
+        int i = 0;
+        for (Object id : ids) {
+            for (int j = 0; j < idNames.size(); j++) {
+                query.setParameter(idNames.get(j) + i, idLayout.getAttributeValue(id, j));
+            }
+            i++;
+        }
+    }
+
+    private String getIdsCondition(int size) {
+        if (!idLayout.isComposite()) {
+            return "x." + idLayout.getAttributeName() + " in (:" + IDS_PARAMETER + ")";
+        }
+        StringBuilder conditionBuilder = new StringBuilder("(");
+        for (int i = 0; i < size; i++) {
+            conditionBuilder.append(i == 0 ? "(" : " or (");
+            Iterator<String> idNames = idLayout.getAttributeNames().iterator();
+            while (idNames.hasNext()) {
+                String idName = idNames.next();
+                conditionBuilder.append("x.").append(idName).append(" = :").append(idName).append(i);
+                conditionBuilder.append(idNames.hasNext() ? " and " : ")");
+            }
+        }
+        return conditionBuilder.append(")").toString();
+    }
+
+    private String getName(String query) {
+        return entityInformation.getEntityName() + "#" + column.getProperty() + "#" + query;
+    }
+}
@@ -0,0 +1,57 @@
+package org.yuequan.jpa.soft.delete.repository.support;
+
+import org.springframework.core.annotation.AnnotatedElementUtils;
+import org.springframework.data.projection.ProjectionFactory;
+import org.springframework.data.repository.core.NamedQueries;
+import org.springframework.data.repository.core.RepositoryMetadata;
+import org.springframework.data.repository.query.QueryLookupStrategy;
+import org.springframework.data.repository.query.RepositoryQuery;
+import org.yuequan.jpa.soft.delete.repository.IncludeDeleted;
+import org.yuequan.jpa.soft.delete.repository.SoftDelete;
+
+import java.lang.reflect.Method;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * {@link QueryLookupStrategy} resolving the query methods of {@link SoftDelete} repositories against an
+ * {@link javax.persistence.EntityManager} filtered by a {@link SoftDeleteFilter}, so derived and {@code @Query}
+ * methods only see live rows, failing for methods whose query the filter can not restrict. Methods annotated with
+ * {@link IncludeDeleted} and methods of other repositories are resolved by the plain strategy.
+ * @author yuequan
+ */
+final class SoftDeleteQueryLookupStrategy implements QueryLookupStrategy {
+
+    private final QueryLookupStrategy delegate;
+    private final Function<RepositoryMetadata, SoftDeleteFilter> filters;
+    private final Function<SoftDeleteFilter, QueryLookupStrategy> filteredStrategies;
+    private final Map<Class<?>, SoftDeleteFilter> repositoryFilters = new ConcurrentHashMap<>();
+    private final Map<Class<?>, QueryLookupStrategy> strategies = new ConcurrentHashMap<>();
+
+    /**
+     * @param delegate resolves unfiltered query methods.
+     * @param filters creates the filter of a repository.
+     * @param filteredStrategies creates the strategy resolving the query methods filtered by a filter.
+     */
+    SoftDeleteQueryLookupStrategy(QueryLookupStrategy delegate, Function<RepositoryMetadata, SoftDeleteFilter> filters,
+            Function<SoftDeleteFilter, QueryLookupStrategy> filteredStrategies) {
+        this.delegate = delegate;
+        this.filters = filters;
+        this.filteredStrategies = filteredStrategies;
+    }
+
+    @Override
+    public RepositoryQuery resolveQuery(Method method, RepositoryMetadata metadata, ProjectionFactory factory,
+            NamedQueries namedQueries) {
+        if (!metadata.getRepositoryInterface().isAnnotationPresent(SoftDelete.class)
+                || AnnotatedElementUtils.hasAnnotation(method, IncludeDeleted.class)) {
+            return delegate.resolveQuery(method, metadata, factory, namedQueries);
+        }
+        SoftDeleteFilter filter = repositoryFilters.computeIfAbsent(metadata.getRepositoryInterface(),
+                key -> filters.apply(metadata));
+        filter.check(method, namedQueries);
+        return strategies.computeIfAbsent(metadata.getRepositoryInterface(), key -> filteredStrategies.apply(filter))
+                .resolveQuery(method, metadata, factory, namedQueries);
+    }
+}
@@ -0,0 +1,108 @@
+package org.yuequan.jpa.soft.delete.repository.support;
+
+import org.hibernate.Session;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.persister.entity.EntityPersister;
+import org.hibernate.persister.entity.SingleTableEntityPersister;
+import org.springframework.lang.Nullable;
+
+import javax.persistence.EntityManager;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Estimates the number of live rows of one entity type from the plan the database would run to select them, which
+ * reads table statistics instead of the table. PostgreSQL reports the estimated rows of the top plan node, MySQL and
+ * MariaDB the examined rows and the percentage the condition keeps. Hibernate only, the statement is native SQL
+ * built from the entity persister.
+ * @author yuequan
+ */
+final class SoftDeleteRowEstimator {
+
+    private static final Pattern POSTGRESQL_ROWS = Pattern.compile("rows=(\\d+)");
+
+    private final String explainQueryString;
+    private volatile @Nullable Dialect dialect;
+
+    private SoftDeleteRowEstimator(String explainQueryString) {
+        this.explainQueryString = explainQueryString;
+    }
+
+    /**
+     * Creates the estimator of the given entity type, {@literal null} if it is not mapped to a single table or lacks
+     * the soft delete property.
+     */
+    @Nullable
+    static SoftDeleteRowEstimator create(EntityManager em, Class<?> domainClass, SoftDeleteColumn column) {
+        EntityPersister persister = em.getEntityManagerFactory().unwrap(SessionFactoryImplementor.class)
+                .getMetamodel().entityPersister(domainClass);
+        if (!(persister instanceof SingleTableEntityPersister)
+                || persister.getEntityMetamodel().getPropertyIndexOrNull(column.getProperty()) == null) {
+            return null;
+        }
+        String columnName = ((SingleTableEntityPersister) persister).getPropertyColumnNames(column.getProperty())[0];
+        String live = column.hasRestoredParameter() ? columnName + " = " + column.getRestoredLiteral()
+                : columnName + " is null";
+        return new SoftDeleteRowEstimator("explain select 1 from "
+                + ((SingleTableEntityPersister) persister).getTableName() + " where " + live);
+    }
+
+    /**
+     * Returns the estimated number of live rows, {@literal null} if the database offers no estimate.
+     */
+    @Nullable
+    Long estimate(EntityManager em) {
+        return em.unwrap(Session.class).doReturningWork(this::estimate);
+    }
+
+    @Nullable
+    private Long estimate(Connection connection) throws SQLException {
+        Dialect current = dialect;
+        if (current == null) {
+            current = Dialect.of(connection.getMetaData().getDatabaseProductName());
+            dialect = current;
+        }
+        if (current == Dialect.UNSUPPORTED) {
+            return null;
+        }
+        try (Statement statement = connection.createStatement();
+             ResultSet plan = statement.executeQuery(explainQueryString)) {
+            if (!plan.next()) {
+                return null;
+            }
+            if (current == Dialect.POSTGRESQL) {
+                Matcher rows = POSTGRESQL_ROWS.matcher(plan.getString(1));
+                return rows.find() ? Long.valueOf(rows.group(1)) : null;
+            }
+            double filtered = hasColumn(plan, "filtered") ? plan.getDouble("filtered") : 100d;
+            return Math.round(plan.getLong("rows") * filtered / 100d);
+        }
+    }
+
+    private static boolean hasColumn(ResultSet resultSet, String label) throws SQLException {
+        for (int i = 1; i <= resultSet.getMetaData().getColumnCount(); i++) {
+            if (label.equalsIgnoreCase(resultSet.getMetaData().getColumnLabel(i))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private enum Dialect {
+        POSTGRESQL, MYSQL, UNSUPPORTED;
+
+        static Dialect of(String databaseProductName) {
+            if (databaseProductName.startsWith("PostgreSQL")) {
+                return POSTGRESQL;
+            }
+            if (databaseProductName.startsWith("MySQL") || databaseProductName.startsWith("MariaDB")) {
+                return MYSQL;
+            }
+            return UNSUPPORTED;
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package org.yuequan.jpa.soft.delete;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.dao.InvalidDataAccessApiUsageException;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.yuequan.jpa.soft.delete.mock.entity.Country;
+import org.yuequan.jpa.soft.delete.mock.repository.CountryRepository;
+import org.yuequan.jpa.soft.delete.repository.support.SoftDeleteArchiveProgress;
+import org.yuequan.jpa.soft.delete.repository.support.SoftDeletePurgeScheduler;
+
+import javax.persistence.EntityManagerFactory;
+import java.util.Arrays;
+import java.util.List;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest
+public class SoftDeleteArchiveTest {
+
+    @Autowired
+    private CountryRepository countryRepository;
+
+    @Autowired
+    private SoftDeletePurgeScheduler purgeScheduler;
+
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @After
+    public void cleanUp(){
+        jdbcTemplate.update("delete from countries");
+        jdbcTemplate.update("delete from countries_archive");
+        entityManagerFactory.getCache().evictAll();
+    }
+
+    @Test
+    public void testArchiveMovesDeletedRows() throws InterruptedException {
+        List<Country> countries = countryRepository.saveAll(Arrays.asList(
+                getCountry("China"), getCountry("Japan"), getCountry("France")));
+        transactionTemplate.execute(status -> countryRepository.softDeleteInBatch(countries.subList(0, 2)));
+
+        Assert.assertEquals(2, purgeScheduler.archiveNow());
+        Assert.assertEquals(0, purgeScheduler.archiveNow());
+        Assert.assertEquals(Integer.valueOf(1), count("countries"));
+        Assert.assertEquals(Integer.valueOf(2), count("countries_archive"));
+        Assert.assertEquals(1, countryRepository.findAll().size());
+        Assert.assertEquals(2, countryRepository.countDeleted());
+        Page<Country> deleted = countryRepository.findAllDeleted(PageRequest.of(0, 1, Sort.by("name")));
+        Assert.assertEquals(2, deleted.getTotalElements());
+        Assert.assertEquals("China", deleted.getContent().get(0).getName());
+
+        Integer restored = countries.get(1).getId();
+        Assert.assertTrue(transactionTemplate.execute(status -> countryRepository.restoreById(restored)));
+        Assert.assertEquals(Integer.valueOf(2), count("countries"));
+        Assert.assertEquals(Integer.valueOf(1), count("countries_archive"));
+        Assert.assertEquals("Japan", countryRepository.findById(restored).get().getName());
+
+        List<SoftDeleteArchiveProgress> progress = purgeScheduler.getArchiveProgress();
+        Assert.assertEquals(1, progress.size());
+        Assert.assertEquals("countries_archive", progress.get(0).getArchiveTable());
+        Assert.assertNotNull(progress.get(0).getLastFinishedAt());
+    }
+
+    @Test
+    public void testRestoreWhereIsRejected() throws InterruptedException {
+        Country country = countryRepository.save(getCountry("Spain"));
+        transactionTemplate.execute(status -> countryRepository.softDeleteInBatch(Arrays.asList(country)));
+        Assert.assertEquals(1, purgeScheduler.archiveNow());
+        try {
+            transactionTemplate.execute(status -> countryRepository.restoreWhere(
+                    (root, query, builder) -> builder.equal(root.get("name"), "Spain")));
+            Assert.fail("Restoring by specification must be rejected once rows are archived");
+        } catch (InvalidDataAccessApiUsageException ex) {
+            Assert.assertTrue(ex.getCause() instanceof IllegalStateException);
+        }
+        Assert.assertEquals(Integer.valueOf(1), count("countries_archive"));
+    }
+
+    private Integer count(String table){
+        return jdbcTemplate.queryForObject("select count(*) from " + table, Integer.class);
+    }
+
+    private Country getCountry(String name){
+        Country country = new Country();
+        country.setName(name);
+        return country;
+    }
+}
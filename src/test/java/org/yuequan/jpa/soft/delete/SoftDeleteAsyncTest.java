@@ -0,0 +1,75 @@
+package org.yuequan.jpa.soft.delete;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.yuequan.jpa.soft.delete.mock.repository.LockOrderedUserRepository;
+import org.yuequan.jpa.soft.delete.mock.repository.UserRepository;
+import org.yuequan.jpa.soft.delete.repository.support.SoftDeleteJob;
+
+import java.util.List;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest
+public class SoftDeleteAsyncTest {
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private LockOrderedUserRepository lockOrderedUserRepository;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @After
+    public void cleanUp(){
+        jdbcTemplate.update("delete from users where username like 'async%'");
+    }
+
+    @Test
+    public void testDeleteAndRestoreInBackground() throws Exception {
+        for (int i = 0; i < 300; i++) {
+            jdbcTemplate.update("insert into users (username, password) values (?, 'test')", (i % 2 == 0 ? "async-a" : "async-b") + i);
+        }
+        List<Integer> ids = jdbcTemplate.queryForList("select id from users where username like 'async-a%'", Integer.class);
+
+        SoftDeleteJob job = userRepository.deleteAllByIdAsync(ids.stream());
+        Assert.assertEquals(Long.valueOf(150), job.get());
+        Assert.assertEquals(150, job.getAffectedRows());
+        Assert.assertEquals(3, job.getCompletedChunks());
+        Assert.assertEquals(Integer.valueOf(150), countRemoved());
+
+        job = userRepository.deleteWhereAsync((root, query, builder) -> builder.like(root.get("username"), "async-b%"));
+        Assert.assertEquals(Long.valueOf(150), job.get());
+        Assert.assertEquals(Integer.valueOf(300), countRemoved());
+
+        Assert.assertEquals(Long.valueOf(150), userRepository.restoreAllByIdAsync(ids).get());
+        Assert.assertEquals(Integer.valueOf(150), countRemoved());
+    }
+
+    @Test
+    public void testBatchCommittingRepositoryInBackground() throws Exception {
+        for (int i = 0; i < 120; i++) {
+            jdbcTemplate.update("insert into users (username, password) values (?, 'test')", "async-c" + i);
+        }
+        List<Integer> ids = jdbcTemplate.queryForList("select id from users where username like 'async-c%'", Integer.class);
+
+        SoftDeleteJob job = lockOrderedUserRepository.deleteAllByIdAsync(ids);
+        Assert.assertEquals(Long.valueOf(120), job.get());
+        Assert.assertEquals(3, job.getCompletedChunks());
+        Assert.assertEquals(Integer.valueOf(120), countRemoved());
+
+        Assert.assertEquals(Long.valueOf(120), lockOrderedUserRepository.restoreAllByIdAsync(ids).get());
+        Assert.assertEquals(Integer.valueOf(0), countRemoved());
+    }
+
+    private Integer countRemoved(){
+        return jdbcTemplate.queryForObject("select count(*) from users where username like 'async%' and removed_at is not null", Integer.class);
+    }
+}
@@ -0,0 +1,115 @@
+package org.yuequan.jpa.soft.delete;
+
+import org.hibernate.SessionFactory;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.yuequan.jpa.soft.delete.mock.entity.Country;
+import org.yuequan.jpa.soft.delete.mock.entity.Folder;
+import org.yuequan.jpa.soft.delete.mock.repository.CountryRepository;
+import org.yuequan.jpa.soft.delete.mock.repository.FolderRepository;
+import org.yuequan.jpa.soft.delete.repository.SoftDeleteCountStrategy;
+
+import javax.persistence.Cache;
+import javax.persistence.EntityManagerFactory;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest
+public class SoftDeleteCacheTest {
+
+    @Autowired
+    private CountryRepository countryRepository;
+
+    @Autowired
+    private FolderRepository folderRepository;
+
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @After
+    public void cleanUp(){
+        jdbcTemplate.update("delete from countries");
+        jdbcTemplate.update("delete from countries_archive");
+        jdbcTemplate.update("delete from folders");
+        entityManagerFactory.getCache().evictAll();
+    }
+
+    @Test
+    public void testDeleteByIdEvictsOnlyDeletedEntries(){
+        List<Country> countries = countryRepository.saveAll(Arrays.asList(
+                getCountry("China"), getCountry("Japan"), getCountry("France")));
+        Cache cache = entityManagerFactory.getCache();
+        for (Country country : countries) {
+            countryRepository.findById(country.getId());
+            Assert.assertTrue(cache.contains(Country.class, country.getId()));
+        }
+
+        Integer deleted = countries.get(0).getId();
+        transactionTemplate.execute(status -> countryRepository.softDeleteInBatch(Collections.singletonList(countries.get(0))));
+        Assert.assertFalse(cache.contains(Country.class, deleted));
+        Assert.assertTrue(cache.contains(Country.class, countries.get(1).getId()));
+        Assert.assertTrue(cache.contains(Country.class, countries.get(2).getId()));
+        Assert.assertEquals(Optional.empty(), countryRepository.findById(deleted));
+        Assert.assertEquals(2, countryRepository.findAll().size());
+
+        transactionTemplate.execute(status -> countryRepository.restoreById(deleted));
+        Assert.assertTrue(countryRepository.findById(deleted).isPresent());
+        Assert.assertTrue(cache.contains(Country.class, countries.get(1).getId()));
+    }
+
+    @Test
+    public void testDeleteByIdEvictsOnlyTheCollectionsHoldingTheRows(){
+        jdbcTemplate.update("insert into folders (id, name) values (1, 'folder1'), (3, 'folder3')");
+        jdbcTemplate.update("insert into folders (id, name, parent_id) values (2, 'folder2', 1), (4, 'folder4', 3)");
+        transactionTemplate.execute(status -> {
+            folderRepository.findById(1).get().getChildren().size();
+            return folderRepository.findById(3).get().getChildren().size();
+        });
+        org.hibernate.Cache cache = entityManagerFactory.unwrap(SessionFactory.class).getCache();
+        String children = Folder.class.getName() + ".children";
+        Assert.assertTrue(cache.containsCollection(children, 1));
+        Assert.assertTrue(cache.containsCollection(children, 3));
+
+        transactionTemplate.execute(status -> folderRepository.softDeleteInBatch(
+                Collections.singletonList(folderRepository.findById(2).get())));
+        Assert.assertFalse(cache.containsCollection(children, 1));
+        Assert.assertTrue(cache.containsCollection(children, 3));
+    }
+
+    @Test
+    public void testCachedCountDroppedByWrites(){
+        List<Country> countries = countryRepository.saveAll(Arrays.asList(getCountry("China"), getCountry("Japan")));
+        Assert.assertEquals(2, countryRepository.count(SoftDeleteCountStrategy.CACHED));
+
+        jdbcTemplate.update("insert into countries (name) values ('France')");
+        Assert.assertEquals(2, countryRepository.count(SoftDeleteCountStrategy.CACHED));
+        Assert.assertEquals(3, countryRepository.count(SoftDeleteCountStrategy.EXACT));
+
+        countryRepository.deleteById(countries.get(0).getId());
+        Assert.assertEquals(2, countryRepository.count(SoftDeleteCountStrategy.CACHED));
+        countryRepository.save(getCountry("Germany"));
+        Assert.assertEquals(3, countryRepository.count(SoftDeleteCountStrategy.CACHED));
+    }
+
+    private Country getCountry(String name){
+        Country country = new Country();
+        country.setName(name);
+        return country;
+    }
+}
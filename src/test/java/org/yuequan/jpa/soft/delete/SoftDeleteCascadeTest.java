@@ -0,0 +1,132 @@
+package org.yuequan.jpa.soft.delete;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.transaction.annotation.Transactional;
+import org.yuequan.jpa.soft.delete.mock.entity.Folder;
+import org.yuequan.jpa.soft.delete.mock.repository.FolderRepository;
+
+import java.util.ArrayList;
+import java.util.List;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest
+public class SoftDeleteCascadeTest {
+
+    private static final int DOCUMENTS_PER_FOLDER = 50000;
+
+    @Autowired
+    private FolderRepository folderRepository;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @After
+    public void cleanUp(){
+        jdbcTemplate.update("delete from folder_documents");
+        jdbcTemplate.update("delete from documents");
+        jdbcTemplate.update("delete from folders");
+    }
+
+    @Test
+    public void testCascadeFollowsAssociationsUpToDepth(){
+        // 1 > 2 > 3 > 4, 5 unrelated
+        insertFolder(1, null);
+        insertFolder(2, 1);
+        insertFolder(3, 2);
+        insertFolder(4, 3);
+        insertFolder(5, null);
+        insertDocuments(1, 1, 1);
+        insertDocuments(2, 2, DOCUMENTS_PER_FOLDER);
+        insertDocuments(3, 2 + DOCUMENTS_PER_FOLDER, DOCUMENTS_PER_FOLDER);
+        insertDocuments(4, 2 + 2 * DOCUMENTS_PER_FOLDER, 1);
+        insertDocuments(5, 3 + 2 * DOCUMENTS_PER_FOLDER, 1);
+
+        folderRepository.deleteById(1);
+
+        Assert.assertEquals(Integer.valueOf(4), countRemoved("folders"));
+        Assert.assertNull(removedAt("folders", 5));
+        // documents of folder 4 are four levels down, past the depth of 3
+        Assert.assertEquals(Integer.valueOf(1 + 2 * DOCUMENTS_PER_FOLDER), countRemoved("documents"));
+        Assert.assertNull(removedAt("documents", 2 + 2 * DOCUMENTS_PER_FOLDER));
+        Assert.assertNull(removedAt("documents", 3 + 2 * DOCUMENTS_PER_FOLDER));
+        Assert.assertEquals(1, folderRepository.count());
+    }
+
+    @Test
+    public void testCascadeOnDeleteAll(){
+        insertFolder(1, null);
+        insertFolder(2, 1);
+        insertDocuments(2, 1, 10);
+
+        folderRepository.deleteAllInBatch();
+
+        Assert.assertEquals(Integer.valueOf(2), countRemoved("folders"));
+        Assert.assertEquals(Integer.valueOf(10), countRemoved("documents"));
+    }
+
+    @Test
+    public void testCascadeOnlyFollowsTheRowsItFlags(){
+        insertFolder(1, null);
+        insertFolder(2, null);
+        insertDocuments(1, 1, 1);
+        insertDocuments(2, 2, 1);
+        folderRepository.deleteById(1);
+        jdbcTemplate.update("update documents set removed_at = null where id = 1");
+
+        folderRepository.deleteAllInBatch();
+
+        Assert.assertNull(removedAt("documents", 1));
+        Assert.assertNotNull(removedAt("documents", 2));
+    }
+
+    @Test
+    @Transactional
+    public void testCascadeStampsManagedChildren(){
+        insertFolder(1, null);
+        insertFolder(2, 1);
+        Folder child = folderRepository.findById(2).get();
+
+        folderRepository.deleteById(1);
+
+        Assert.assertNotNull(child.getRemovedAt());
+    }
+
+    @Test
+    public void testDerivedQueriesSkipRemovedJoinedRows(){
+        insertFolder(1, null);
+        insertFolder(2, 1);
+        jdbcTemplate.update("update folders set removed_at = current_timestamp where id = 1");
+
+        Assert.assertTrue(folderRepository.findByParentName("folder1").isEmpty());
+    }
+
+    private void insertFolder(int id, Integer parentId){
+        jdbcTemplate.update("insert into folders (id, name, parent_id) values (?, ?, ?)", id, "folder" + id, parentId);
+    }
+
+    private void insertDocuments(int folderId, int firstId, int count){
+        List<Object[]> documents = new ArrayList<>(count);
+        List<Object[]> links = new ArrayList<>(count);
+        for (int id = firstId; id < firstId + count; id++) {
+            documents.add(new Object[]{id, "document" + id});
+            links.add(new Object[]{folderId, id});
+        }
+        jdbcTemplate.batchUpdate("insert into documents (id, name) values (?, ?)", documents);
+        jdbcTemplate.batchUpdate("insert into folder_documents (folder_id, document_id) values (?, ?)", links);
+    }
+
+    private Integer countRemoved(String table){
+        return jdbcTemplate.queryForObject("select count(*) from " + table + " where removed_at is not null", Integer.class);
+    }
+
+    private Object removedAt(String table, int id){
+        return jdbcTemplate.queryForObject("select removed_at from " + table + " where id = ?", Object.class, id);
+    }
+}
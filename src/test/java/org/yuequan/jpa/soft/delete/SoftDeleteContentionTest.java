@@ -0,0 +1,110 @@
+package org.yuequan.jpa.soft.delete;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.yuequan.jpa.soft.delete.mock.entity.User;
+import org.yuequan.jpa.soft.delete.mock.repository.LockOrderedUserRepository;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest
+public class SoftDeleteContentionTest {
+
+    private static final int ROWS = 2000;
+    private static final int WRITERS = 8;
+
+    @Autowired
+    private LockOrderedUserRepository lockOrderedUserRepository;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    private List<Integer> ids;
+
+    @Before
+    public void setUp(){
+        List<Object[]> users = new ArrayList<>(ROWS);
+        for (int i = 0; i < ROWS; i++) {
+            users.add(new Object[]{"contention" + i});
+        }
+        jdbcTemplate.batchUpdate("insert into users (username, password) values (?, 'test')", users);
+        ids = jdbcTemplate.queryForList("select id from users where username like 'contention%'", Integer.class);
+    }
+
+    @After
+    public void cleanUp(){
+        jdbcTemplate.update("delete from users where username like 'contention%'");
+    }
+
+    @Test
+    public void testOverlappingBulkDeletesFlagEveryRowOnce() throws Exception {
+        // every writer deletes all rows, in its own shuffled order
+        Assert.assertEquals(ROWS, runConcurrently(() -> lockOrderedUserRepository.softDeleteInBatch(shuffledUsers())));
+        Assert.assertEquals(Integer.valueOf(ROWS), countRemoved());
+
+        List<Map<String, Object>> removedAt = jdbcTemplate.queryForList(
+                "select id, removed_at from users where username like 'contention%' order by id");
+        Assert.assertEquals(0, runConcurrently(() -> lockOrderedUserRepository.softDeleteInBatch(shuffledUsers())));
+        Assert.assertEquals(removedAt, jdbcTemplate.queryForList(
+                "select id, removed_at from users where username like 'contention%' order by id"));
+
+        Assert.assertEquals(ROWS, runConcurrently(() -> lockOrderedUserRepository.restoreAllById(shuffledIds())));
+        Assert.assertEquals(Integer.valueOf(0), countRemoved());
+    }
+
+    /**
+     * Runs the given writer on {@link #WRITERS} threads at once and sums up the rows they report.
+     */
+    private int runConcurrently(Callable<Integer> writer) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(WRITERS);
+        try {
+            List<Future<Integer>> futures = new ArrayList<>();
+            for (int i = 0; i < WRITERS; i++) {
+                futures.add(executor.submit(writer));
+            }
+            int rows = 0;
+            for (Future<Integer> future : futures) {
+                rows += future.get(60, TimeUnit.SECONDS);
+            }
+            return rows;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private List<Integer> shuffledIds(){
+        List<Integer> shuffled = new ArrayList<>(ids);
+        Collections.shuffle(shuffled);
+        return shuffled;
+    }
+
+    private List<User> shuffledUsers(){
+        List<User> users = new ArrayList<>();
+        for (Integer id : shuffledIds()) {
+            User user = new User();
+            user.setId(id);
+            users.add(user);
+        }
+        return users;
+    }
+
+    private Integer countRemoved(){
+        return jdbcTemplate.queryForObject("select count(*) from users where username like 'contention%' and removed_at is not null", Integer.class);
+    }
+}
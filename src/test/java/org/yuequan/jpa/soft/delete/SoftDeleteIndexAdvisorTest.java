@@ -0,0 +1,79 @@
+package org.yuequan.jpa.soft.delete;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.yuequan.jpa.soft.delete.mock.entity.User;
+import org.yuequan.jpa.soft.delete.repository.SoftDelete;
+import org.yuequan.jpa.soft.delete.repository.SoftDeleteRepository;
+import org.yuequan.jpa.soft.delete.repository.SoftDeleteStrategy;
+import org.yuequan.jpa.soft.delete.repository.support.JpaSoftDeleteRepositoryFactory;
+import org.yuequan.jpa.soft.delete.repository.support.SoftDeleteIndexAdvisor;
+
+import javax.persistence.EntityManager;
+import java.util.List;
+import java.util.Optional;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest
+public class SoftDeleteIndexAdvisorTest {
+
+    @Autowired
+    private SoftDeleteIndexAdvisor softDeleteIndexAdvisor;
+
+    @Autowired
+    private EntityManager entityManager;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Test
+    public void testMissingIndexesAreReported(){
+        List<SoftDeleteIndexAdvisor.Advice> advice = softDeleteIndexAdvisor.inspect();
+        Optional<SoftDeleteIndexAdvisor.Advice> users = find(advice, "users");
+        Assert.assertTrue(users.isPresent());
+        Assert.assertEquals("removed_at", users.get().getColumn());
+        Assert.assertEquals("create index idx_users_removed_at on users (removed_at, id)", users.get().getDdl());
+        Assert.assertFalse(find(advice, "tags").isPresent());
+
+        jdbcTemplate.execute(users.get().getDdl());
+        try {
+            Assert.assertFalse(find(softDeleteIndexAdvisor.inspect(), "users").isPresent());
+        } finally {
+            jdbcTemplate.execute("drop index idx_users_removed_at");
+        }
+    }
+
+    @Test
+    public void testMissingPropertyFailsAtBootstrap(){
+        JpaSoftDeleteRepositoryFactory factory = new JpaSoftDeleteRepositoryFactory(entityManager);
+        try {
+            factory.getRepository(MissingPropertyRepository.class);
+            Assert.fail("A missing soft delete property must fail when the repository is created");
+        } catch (IllegalStateException ex) {
+            Assert.assertTrue(ex.getMessage().contains("'deletedAt'"));
+        }
+        try {
+            factory.getRepository(MismatchedPropertyRepository.class);
+            Assert.fail("A property the strategy can not write must fail when the repository is created");
+        } catch (IllegalStateException ex) {
+            Assert.assertTrue(ex.getMessage().contains("BOOLEAN"));
+        }
+    }
+
+    private static Optional<SoftDeleteIndexAdvisor.Advice> find(List<SoftDeleteIndexAdvisor.Advice> advice, String table) {
+        return advice.stream().filter(missing -> missing.getTable().equals(table)).findFirst();
+    }
+
+    @SoftDelete(property = "deletedAt")
+    interface MissingPropertyRepository extends SoftDeleteRepository<User, Integer> {
+    }
+
+    @SoftDelete(property = "removedAt", strategy = SoftDeleteStrategy.BOOLEAN)
+    interface MismatchedPropertyRepository extends SoftDeleteRepository<User, Integer> {
+    }
+}
@@ -0,0 +1,49 @@
+package org.yuequan.jpa.soft.delete;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.transaction.annotation.Transactional;
+import org.yuequan.jpa.soft.delete.mock.entity.User;
+import org.yuequan.jpa.soft.delete.mock.repository.UserRepository;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest(properties = "jpa.soft-delete.metrics.enabled=true")
+public class SoftDeleteMetricsTest {
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Test
+    @Transactional
+    public void testSoftDeleteMetrics(){
+        User user = new User();
+        user.setUsername("metrics");
+        user.setPassword("test");
+        userRepository.save(user);
+        userRepository.delete(user);
+        userRepository.findById(user.getId());
+
+        Assert.assertEquals(1, meterRegistry.get("jpa.soft.delete").tags("entity", "User", "operation", "delete").timer().count());
+        Assert.assertEquals(1, meterRegistry.get("jpa.soft.delete").tags("entity", "User", "operation", "findById").timer().count());
+        Assert.assertEquals(1.0, meterRegistry.get("jpa.soft.delete.rows").tags("entity", "User", "operation", "delete").summary().totalAmount(), 0.0);
+    }
+
+    @TestConfiguration
+    static class MeterRegistryConfiguration {
+        @Bean
+        public MeterRegistry meterRegistry() {
+            return new SimpleMeterRegistry();
+        }
+    }
+}
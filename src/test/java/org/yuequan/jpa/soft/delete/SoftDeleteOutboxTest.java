@@ -0,0 +1,95 @@
+package org.yuequan.jpa.soft.delete;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.transaction.annotation.Transactional;
+import org.yuequan.jpa.soft.delete.mock.entity.User;
+import org.yuequan.jpa.soft.delete.mock.repository.OutboxUserRepository;
+import org.yuequan.jpa.soft.delete.repository.support.SoftDeleteEvent;
+import org.yuequan.jpa.soft.delete.repository.support.SoftDeleteOutboxRelayer;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest
+public class SoftDeleteOutboxTest {
+
+    @Autowired
+    private OutboxUserRepository outboxUserRepository;
+
+    @Autowired
+    private SoftDeleteOutboxRelayer softDeleteOutboxRelayer;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @After
+    public void cleanUp(){
+        jdbcTemplate.update("delete from users where username like 'outbox%'");
+        jdbcTemplate.update("delete from soft_delete_outbox");
+    }
+
+    @Test
+    public void testDeletesAndRestoresAreRelayed(){
+        for (int i = 0; i < 300; i++) {
+            jdbcTemplate.update("insert into users (username, password) values (?, 'test')", "outbox" + i);
+        }
+        List<Integer> ids = jdbcTemplate.queryForList("select id from users where username like 'outbox%' order by id", Integer.class);
+        List<User> users = new ArrayList<>();
+        for (Integer id : ids) {
+            User user = new User();
+            user.setId(id);
+            users.add(user);
+        }
+
+        Assert.assertEquals(300, outboxUserRepository.softDeleteInBatch(users));
+        Assert.assertEquals(0, outboxUserRepository.softDeleteInBatch(users.subList(0, 10)));
+        Assert.assertEquals(100, outboxUserRepository.restoreWhere((root, query, builder) ->
+                builder.in(root.get("id")).value(ids.subList(0, 100))));
+        Assert.assertEquals(Integer.valueOf(400), jdbcTemplate.queryForObject("select count(*) from soft_delete_outbox", Integer.class));
+
+        try {
+            softDeleteOutboxRelayer.relayNow(events -> {
+                throw new IllegalStateException("Broker unavailable");
+            });
+            Assert.fail();
+        } catch (IllegalStateException ex) {
+            Assert.assertEquals(Integer.valueOf(400), jdbcTemplate.queryForObject("select count(*) from soft_delete_outbox", Integer.class));
+        }
+
+        List<SoftDeleteEvent> relayed = new ArrayList<>();
+        Assert.assertEquals(400, softDeleteOutboxRelayer.relayNow(relayed::addAll));
+        Assert.assertEquals(Integer.valueOf(0), jdbcTemplate.queryForObject("select count(*) from soft_delete_outbox", Integer.class));
+        Assert.assertEquals(SoftDeleteEvent.Type.DELETED, relayed.get(0).getType());
+        Assert.assertEquals(SoftDeleteEvent.Type.RESTORED, relayed.get(399).getType());
+        Assert.assertEquals("User", relayed.get(0).getEntityName());
+        HashSet<String> deleted = new HashSet<>();
+        relayed.subList(0, 300).forEach(event -> deleted.add(event.getEntityId()));
+        Assert.assertEquals(300, deleted.size());
+        Assert.assertTrue(deleted.contains(String.valueOf(ids.get(299))));
+    }
+
+    @Test
+    @Transactional
+    public void testDeleteAllRecordsOnlyTheRowsItFlags(){
+        for (int i = 0; i < 50; i++) {
+            jdbcTemplate.update("insert into users (username, password) values (?, 'test')", "outbox" + i);
+        }
+        for (int i = 0; i < 5; i++) {
+            jdbcTemplate.update("insert into users (username, password, removed_at) values (?, 'test', current_timestamp)", "outbox-removed" + i);
+        }
+        Integer live = jdbcTemplate.queryForObject("select count(*) from users where removed_at is null", Integer.class);
+        outboxUserRepository.deleteAllInBatch();
+        Assert.assertEquals(live, jdbcTemplate.queryForObject(
+                "select count(*) from soft_delete_outbox where entity = 'User' and event = 'DELETED'", Integer.class));
+        Assert.assertEquals(Integer.valueOf(0), jdbcTemplate.queryForObject("select count(*) from users where removed_at is null", Integer.class));
+    }
+}
@@ -0,0 +1,63 @@
+package org.yuequan.jpa.soft.delete;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.yuequan.jpa.soft.delete.repository.support.SoftDeletePurgeProgress;
+import org.yuequan.jpa.soft.delete.repository.support.SoftDeletePurgeScheduler;
+
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest
+public class SoftDeletePurgeTest {
+
+    @Autowired
+    private SoftDeletePurgeScheduler purgeScheduler;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @After
+    public void cleanUp(){
+        jdbcTemplate.update("delete from users where username like 'purge%'");
+    }
+
+    @Test
+    public void testPurgeRowsPastRetention() throws InterruptedException {
+        Timestamp expired = Timestamp.from(Instant.now().minus(Duration.ofDays(60)));
+        Timestamp recent = Timestamp.from(Instant.now().minus(Duration.ofDays(1)));
+        for (int i = 0; i < 2500; i++) {
+            insertUser("purge-expired", expired);
+        }
+        insertUser("purge-recent", recent);
+        insertUser("purge-live", null);
+
+        Assert.assertEquals(2500, purgeScheduler.purgeNow());
+        Assert.assertEquals(Integer.valueOf(0), countUsers("purge-expired"));
+        Assert.assertEquals(Integer.valueOf(1), countUsers("purge-recent"));
+        Assert.assertEquals(Integer.valueOf(1), countUsers("purge-live"));
+
+        List<SoftDeletePurgeProgress> progress = purgeScheduler.getProgress();
+        Assert.assertEquals(1, progress.size());
+        Assert.assertEquals("User", progress.get(0).getEntityName());
+        Assert.assertEquals(3, progress.get(0).getChunks());
+        Assert.assertNotNull(progress.get(0).getLastFinishedAt());
+    }
+
+    private void insertUser(String username, Timestamp removedAt){
+        jdbcTemplate.update("insert into users (username, password, removed_at) values (?, 'test', ?)", username, removedAt);
+    }
+
+    private Integer countUsers(String username){
+        return jdbcTemplate.queryForObject("select count(*) from users where username = ?", Integer.class, username);
+    }
+}
@@ -0,0 +1,97 @@
+package org.yuequan.jpa.soft.delete;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.transaction.annotation.Transactional;
+import org.yuequan.jpa.soft.delete.mock.entity.Account;
+import org.yuequan.jpa.soft.delete.mock.entity.Tag;
+import org.yuequan.jpa.soft.delete.mock.repository.AccountRepository;
+import org.yuequan.jpa.soft.delete.mock.repository.TagRepository;
+
+import java.util.Optional;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest
+public class SoftDeleteStrategyTest {
+
+    @Autowired
+    private AccountRepository accountRepository;
+
+    @Autowired
+    private TagRepository tagRepository;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Test
+    @Transactional
+    public void testDeletedTokenKeepsLiveRowsUnique(){
+        Account first = accountRepository.saveAndFlush(getAccount("tester"));
+        accountRepository.delete(first);
+        Assert.assertTrue(first.getDeletedToken() > 0);
+
+        Account second = accountRepository.saveAndFlush(getAccount("tester"));
+        accountRepository.deleteById(second.getId());
+        Assert.assertNotEquals(first.getDeletedToken(), second.getDeletedToken());
+
+        Account third = accountRepository.saveAndFlush(getAccount("tester"));
+        Assert.assertEquals(1, accountRepository.findAll().size());
+        Assert.assertEquals(2, accountRepository.countDeleted());
+        Assert.assertEquals(Optional.of(third), accountRepository.findById(third.getId()));
+        Assert.assertEquals(Optional.empty(), accountRepository.findById(first.getId()));
+    }
+
+    @Test
+    @Transactional
+    public void testBooleanFlag(){
+        Tag tag = tagRepository.saveAndFlush(getTag("java"));
+        tagRepository.saveAndFlush(getTag("spring"));
+        tagRepository.delete(tag);
+        Assert.assertTrue(tag.isDeleted());
+        Assert.assertEquals(1, tagRepository.findAll().size());
+        Assert.assertEquals(1, tagRepository.findAllDeleted(PageRequest.of(0, 10)).getTotalElements());
+
+        Assert.assertTrue(tagRepository.restoreById(tag.getId()));
+        Assert.assertFalse(tag.isDeleted());
+        tagRepository.deleteAllInBatch();
+        Assert.assertEquals(0, tagRepository.findAll().size());
+        Assert.assertEquals(2, tagRepository.countDeleted());
+    }
+
+    @Test
+    @Transactional
+    public void testVersionFollowsSoftDelete(){
+        Tag tag = tagRepository.saveAndFlush(getTag("jpa"));
+        tagRepository.delete(tag);
+        Assert.assertTrue(tag.isDeleted());
+        Assert.assertEquals(1, tag.getVersion());
+        Assert.assertEquals(Integer.valueOf(1), jdbcTemplate.queryForObject(
+                "select version from tags where id = ?", Integer.class, tag.getId()));
+
+        Assert.assertTrue(tagRepository.restoreById(tag.getId()));
+        Assert.assertEquals(2, tag.getVersion());
+        tag.setName("hibernate");
+        tagRepository.flush();
+        Assert.assertEquals(3, tag.getVersion());
+        Assert.assertEquals("hibernate", jdbcTemplate.queryForObject(
+                "select name from tags where id = ?", String.class, tag.getId()));
+    }
+
+    private Account getAccount(String username){
+        Account account = new Account();
+        account.setUsername(username);
+        return account;
+    }
+
+    private Tag getTag(String name){
+        Tag tag = new Tag();
+        tag.setName(name);
+        return tag;
+    }
+}
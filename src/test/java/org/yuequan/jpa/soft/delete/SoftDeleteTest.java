@@ -1,22 +1,41 @@
 package org.yuequan.jpa.soft.delete;
 
+import org.hibernate.Session;
 import org.junit.Assert;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.dao.EmptyResultDataAccessException;
 import org.springframework.context.annotation.Profile;
+import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.test.context.junit4.SpringRunner;
 import org.springframework.transaction.annotation.Transactional;
 import org.yuequan.jpa.soft.delete.mock.entity.User;
+import org.yuequan.jpa.soft.delete.mock.projection.UserSummary;
+import org.yuequan.jpa.soft.delete.mock.projection.UserView;
 import org.yuequan.jpa.soft.delete.mock.repository.UserRepository;
+import org.yuequan.jpa.soft.delete.mock.repository.WriteBehindUserRepository;
 import org.yuequan.jpa.soft.delete.repository.SoftDelete;
+import org.yuequan.jpa.soft.delete.repository.SoftDeleteCountStrategy;
+import org.yuequan.jpa.soft.delete.repository.SoftDeleteRepository;
+import org.yuequan.jpa.soft.delete.repository.support.JpaSoftDeleteRepositoryFactory;
 
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Optional;
 import java.util.Random;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 @RunWith(SpringRunner.class)
 @Profile("test")
@@ -26,6 +45,15 @@ public class SoftDeleteTest {
     @Autowired
     private UserRepository userRepository;
 
+    @Autowired
+    private WriteBehindUserRepository writeBehindUserRepository;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
     @Test
     @Transactional
     public void testSoftDelete(){
@@ -49,7 +77,262 @@ public class SoftDeleteTest {
         Assert.assertEquals(0, userRepository.findAll().size());
     }
 
+    @Test
+    @Transactional
+    public void testSoftDeleteInBatches(){
+        int createUserCount = 150;
+        List<User> users = userRepository.saveAll(getUsers(createUserCount));
+        Assert.assertEquals(createUserCount, userRepository.softDeleteInBatch(users));
+        Assert.assertEquals(0, userRepository.findAll().size());
+        Assert.assertEquals(0, userRepository.softDeleteInBatch(new ArrayList<>()));
+    }
+
+
+    @Test
+    @Transactional
+    public void testSetBasedDeletes(){
+        User user = userRepository.save(getUser());
+        userRepository.deleteById(user.getId());
+        Assert.assertEquals(Optional.empty(), userRepository.findById(user.getId()));
+
+        List<User> users = userRepository.saveAll(getUsers(100));
+        userRepository.deleteAll(users.subList(0, 50));
+        Assert.assertEquals(50, userRepository.findAll().size());
+        userRepository.deleteAll();
+        Assert.assertEquals(0, userRepository.findAll().size());
+    }
+
+    @Test(expected = EmptyResultDataAccessException.class)
+    @Transactional
+    public void testDeleteByUnknownId(){
+        userRepository.deleteById(Integer.MAX_VALUE);
+    }
+
+    @Test
+    @Transactional
+    public void testFindByIdFromPersistenceContext(){
+        User user = userRepository.saveAndFlush(getUser());
+        Assert.assertSame(user, userRepository.findById(user.getId()).orElse(null));
+
+        userRepository.deleteAllInBatch();
+        Assert.assertNotNull(user.getRemovedAt());
+        Assert.assertEquals(Optional.empty(), userRepository.findById(user.getId()));
+    }
+
+    @Test
+    @Transactional
+    public void testRestore(){
+        User user = userRepository.saveAndFlush(getUser());
+        userRepository.delete(user);
+        Assert.assertTrue(userRepository.restore(user));
+        Assert.assertNull(user.getRemovedAt());
+        Assert.assertFalse(userRepository.restoreById(user.getId()));
+        Assert.assertEquals(user, userRepository.findById(user.getId()).orElse(null));
+
+        List<User> users = userRepository.saveAll(getUsers(150));
+        userRepository.deleteAllInBatch();
+        Assert.assertEquals(151, userRepository.countDeleted());
+        Assert.assertEquals(151, userRepository.findAllDeleted(PageRequest.of(0, 100)).getTotalElements());
+
+        List<Integer> ids = new ArrayList<>();
+        users.subList(0, 100).forEach(it -> ids.add(it.getId()));
+        Assert.assertEquals(100, userRepository.restoreAllById(ids));
+        Assert.assertEquals(100, userRepository.findAll().size());
+
+        Assert.assertEquals(51, userRepository.restoreWhere((root, query, builder) -> {
+            query.distinct(true);
+            return builder.equal(root.get("name"), "Tester");
+        }));
+        Assert.assertEquals(0, userRepository.countDeleted());
+        Assert.assertEquals(151, userRepository.count());
+    }
+
+    @Test
+    @Transactional
+    public void testRestoreWhereKeepsPendingChangesOfOtherRemovedInstances(){
+        List<User> users = userRepository.saveAll(getUsers(2));
+        userRepository.deleteAll(users);
+        users.get(0).setName("Restored");
+        users.get(1).setName("Renamed");
+        userRepository.flush();
+        users.get(1).setPassword("changed");
+
+        Assert.assertEquals(1, userRepository.restoreWhere((root, query, builder) -> builder.equal(root.get("name"), "Restored")));
+        Assert.assertNull(users.get(0).getRemovedAt());
+        Assert.assertNotNull(users.get(1).getRemovedAt());
+        userRepository.flush();
+        Assert.assertEquals("changed", jdbcTemplate.queryForObject("select password from users where id = ?",
+                String.class, users.get(1).getId()));
+    }
+
+    @Test
+    @Transactional
+    public void testStreamAll(){
+        List<User> users = userRepository.saveAll(getUsers(100));
+        userRepository.deleteAll(users.subList(0, 30));
+        userRepository.flush();
+
+        try (Stream<User> stream = userRepository.streamAll(null)) {
+            Assert.assertEquals(70, stream.filter(it -> it.getRemovedAt() == null).count());
+        }
+        Assert.assertFalse(entityManager.contains(users.get(30)));
+
+        List<Integer> ids = userRepository.streamAllByKeyset((root, query, builder) -> builder.equal(root.get("name"), "Tester"))
+                .map(User::getId)
+                .collect(Collectors.toList());
+        Assert.assertEquals(70, ids.size());
+        Assert.assertEquals(users.get(30).getId(), ids.get(0));
+        Assert.assertEquals(users.get(99).getId(), ids.get(69));
+    }
+
+    @Test
+    @Transactional
+    public void testQueryMethodsFilterDeleted(){
+        List<User> users = getUsers(10);
+        users.forEach(it -> it.setName("Query"));
+        users = userRepository.saveAll(users);
+        userRepository.deleteAll(users.subList(0, 4));
+
+        Assert.assertEquals(6, userRepository.findByName("Query").size());
+        Assert.assertEquals(6, userRepository.countByName("Query"));
+        Assert.assertEquals(6, userRepository.findByNameOrUsername("Query").size());
+        Assert.assertTrue(userRepository.findByUsername(users.get(0).getUsername()).stream()
+                .allMatch(it -> it.getRemovedAt() == null));
+        Assert.assertTrue(userRepository.findByUsername(users.get(9).getUsername()).contains(users.get(9)));
+        Assert.assertEquals(6, userRepository.findByUsernameStartingWith("Tester", PageRequest.of(0, 2)).getTotalElements());
+        Assert.assertEquals(10, userRepository.findByNameIncludingDeleted("Query").size());
+    }
+
+    @Test
+    @Transactional
+    public void testExistsFindAllByIdAndCount(){
+        List<User> users = userRepository.saveAll(getUsers(100));
+        userRepository.deleteAll(users.subList(0, 40));
+        List<Integer> ids = new ArrayList<>();
+        users.forEach(it -> ids.add(it.getId()));
+
+        Assert.assertFalse(userRepository.existsById(ids.get(0)));
+        Assert.assertTrue(userRepository.existsById(ids.get(40)));
+        Assert.assertEquals(60, userRepository.count());
+        Assert.assertEquals(60, userRepository.findAllById(ids).size());
+        Assert.assertEquals(new HashSet<>(ids.subList(40, 100)), userRepository.existsAllById(ids));
+
+        entityManager.clear();
+        Assert.assertFalse(userRepository.existsById(ids.get(0)));
+        Assert.assertTrue(userRepository.existsById(ids.get(99)));
+        Assert.assertEquals(60, userRepository.findAllById(ids).size());
+        Assert.assertEquals(new HashSet<>(ids.subList(40, 100)), userRepository.existsAllById(ids));
+    }
+
+    @Test
+    @Transactional
+    public void testWriteBehindDeletes(){
+        List<User> users = userRepository.saveAll(getUsers(100));
+        users.forEach(writeBehindUserRepository::delete);
+        Assert.assertEquals(Integer.valueOf(0), jdbcTemplate.queryForObject(
+                "select count(*) from users where name = 'Tester' and removed_at is not null", Integer.class));
+        Assert.assertNull(users.get(0).getRemovedAt());
+
+        Assert.assertEquals(Long.valueOf(100), entityManager.createQuery(
+                "select count(u) from User u where u.name = 'Tester' and u.removedAt is not null", Long.class)
+                .getSingleResult());
+        Assert.assertEquals(0, userRepository.findByName("Tester").size());
+        Assert.assertEquals(Integer.valueOf(100), jdbcTemplate.queryForObject(
+                "select count(*) from users where name = 'Tester' and removed_at is not null", Integer.class));
+        Assert.assertNotNull(users.get(0).getRemovedAt());
+
+        User flushed = userRepository.save(getUser());
+        writeBehindUserRepository.delete(flushed);
+        entityManager.flush();
+        Assert.assertNotNull(jdbcTemplate.queryForObject("select removed_at from users where id = ?", Object.class,
+                flushed.getId()));
+
+        User user = userRepository.save(getUser());
+        writeBehindUserRepository.delete(user);
+        Assert.assertEquals(Optional.empty(), userRepository.findById(user.getId()));
+        Assert.assertTrue(userRepository.restore(user));
+        Assert.assertNull(user.getRemovedAt());
+    }
+
+    @Test
+    @Transactional
+    public void testSlicesAndCountStrategies(){
+        long live = userRepository.count();
+        List<User> users = userRepository.saveAll(getUsers(5));
+        userRepository.delete(users.get(4));
+
+        Slice<User> first = userRepository.findSlice((root, query, builder) -> builder.equal(root.get("name"), "Tester"),
+                PageRequest.of(0, 3));
+        Assert.assertEquals(3, first.getNumberOfElements());
+        Assert.assertTrue(first.hasNext());
+        Slice<User> second = userRepository.findSlice((root, query, builder) -> builder.equal(root.get("name"), "Tester"),
+                first.nextPageable());
+        Assert.assertEquals(1, second.getNumberOfElements());
+        Assert.assertFalse(second.hasNext());
+
+        // H2 keeps no planner estimate, so the estimate falls back to an exact count
+        Assert.assertEquals(live + 4, userRepository.count(SoftDeleteCountStrategy.ESTIMATED));
+        Assert.assertEquals(live + 4, userRepository.findAll(PageRequest.of(0, 1), SoftDeleteCountStrategy.CACHED)
+                .getTotalElements());
+    }
+
+    @Test
+    @Transactional
+    public void testProjections(){
+        List<User> users = getUsers(5);
+        users.forEach(it -> it.setName("Projected"));
+        users = userRepository.saveAll(users);
+        userRepository.deleteAll(users.subList(0, 2));
+        entityManager.flush();
+        entityManager.clear();
+
+        List<UserView> views = userRepository.findAll((root, query, builder) -> builder.equal(root.get("name"), "Projected"),
+                UserView.class, Sort.by("id"));
+        Assert.assertEquals(3, views.size());
+        Assert.assertEquals(users.get(2).getUsername(), views.get(0).getUsername());
+        Page<UserSummary> summaries = userRepository.findAll((root, query, builder) -> builder.equal(root.get("name"), "Projected"),
+                UserSummary.class, PageRequest.of(0, 2, Sort.by("id")));
+        Assert.assertEquals(3, summaries.getTotalElements());
+        Assert.assertEquals(users.get(3).getId(), summaries.getContent().get(1).getId());
+        Assert.assertEquals(0, entityManager.unwrap(Session.class).getStatistics().getEntityCount());
+
+        Assert.assertEquals(3, userRepository.findLiveProjectedByName("Projected").size());
+    }
+
+    @Test
+    public void testQueriesTheFilterCanNotRestrictFailAtBootstrap(){
+        JpaSoftDeleteRepositoryFactory factory = new JpaSoftDeleteRepositoryFactory(entityManager);
+        for (Class<?> repository : Arrays.asList(JoiningUserRepository.class, SubqueryUserRepository.class,
+                NativeUserRepository.class)) {
+            try {
+                factory.getRepository(repository);
+                Assert.fail(repository.getSimpleName() + " must fail when the repository is created");
+            } catch (IllegalStateException ex) {
+                Assert.assertTrue(ex.getMessage().contains("@IncludeDeleted"));
+            }
+        }
+    }
+
+    @SoftDelete
+    interface JoiningUserRepository extends SoftDeleteRepository<User, Integer> {
+
+        @Query("select c from Country c, User u where c.name = u.name")
+        List<Object> findCountriesNamedLikeUsers();
+    }
 
+    @SoftDelete
+    interface SubqueryUserRepository extends SoftDeleteRepository<User, Integer> {
+
+        @Query("select u from User u where u.id in (select max(v.id) from User v group by v.name)")
+        List<User> findLatestPerName();
+    }
+
+    @SoftDelete
+    interface NativeUserRepository extends SoftDeleteRepository<User, Integer> {
+
+        @Query(value = "select * from users where name = ?1", nativeQuery = true)
+        List<User> findByNameNatively(String name);
+    }
 
     private User getUser(){
         User user = new User();
@@ -0,0 +1,39 @@
+package org.yuequan.jpa.soft.delete.mock.entity;
+
+import javax.persistence.*;
+
+@Entity
+@Table(name = "accounts")
+public class Account {
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Integer id;
+    private String username;
+
+    @Column(name = "deleted_token")
+    private long deletedToken;
+
+    public Integer getId() {
+        return id;
+    }
+
+    public void setId(Integer id) {
+        this.id = id;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    public void setUsername(String username) {
+        this.username = username;
+    }
+
+    public long getDeletedToken() {
+        return deletedToken;
+    }
+
+    public void setDeletedToken(long deletedToken) {
+        this.deletedToken = deletedToken;
+    }
+}
@@ -0,0 +1,19 @@
+package org.yuequan.jpa.soft.delete.mock.projection;
+
+public class UserSummary {
+    private final Integer id;
+    private final String name;
+
+    public UserSummary(Integer id, String name) {
+        this.id = id;
+        this.name = name;
+    }
+
+    public Integer getId() {
+        return id;
+    }
+
+    public String getName() {
+        return name;
+    }
+}
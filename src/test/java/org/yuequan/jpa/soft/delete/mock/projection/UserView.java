@@ -0,0 +1,8 @@
+package org.yuequan.jpa.soft.delete.mock.projection;
+
+public interface UserView {
+
+    Integer getId();
+
+    String getUsername();
+}
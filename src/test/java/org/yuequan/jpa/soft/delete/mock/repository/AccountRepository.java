@@ -0,0 +1,11 @@
+package org.yuequan.jpa.soft.delete.mock.repository;
+
+import org.yuequan.jpa.soft.delete.mock.entity.Account;
+import org.yuequan.jpa.soft.delete.repository.SoftDelete;
+import org.yuequan.jpa.soft.delete.repository.SoftDeleteRepository;
+import org.yuequan.jpa.soft.delete.repository.SoftDeleteStrategy;
+
+@SoftDelete(property = "deletedToken", strategy = SoftDeleteStrategy.DELETED_TOKEN)
+public interface AccountRepository extends SoftDeleteRepository<Account, Integer> {
+
+}
@@ -0,0 +1,15 @@
+package org.yuequan.jpa.soft.delete.mock.repository;
+
+import org.yuequan.jpa.soft.delete.mock.entity.Folder;
+import org.yuequan.jpa.soft.delete.repository.SoftDelete;
+import org.yuequan.jpa.soft.delete.repository.SoftDeleteOptions;
+import org.yuequan.jpa.soft.delete.repository.SoftDeleteRepository;
+
+import java.util.List;
+
+@SoftDelete
+@SoftDeleteOptions(cascade = true, cascadeDepth = 3)
+public interface FolderRepository extends SoftDeleteRepository<Folder, Integer> {
+
+    List<Folder> findByParentName(String name);
+}
@@ -0,0 +1,12 @@
+package org.yuequan.jpa.soft.delete.mock.repository;
+
+import org.yuequan.jpa.soft.delete.mock.entity.User;
+import org.yuequan.jpa.soft.delete.repository.SoftDelete;
+import org.yuequan.jpa.soft.delete.repository.SoftDeleteOptions;
+import org.yuequan.jpa.soft.delete.repository.SoftDeleteRepository;
+
+@SoftDelete
+@SoftDeleteOptions(batchSize = 128, outbox = true)
+public interface OutboxUserRepository extends SoftDeleteRepository<User, Integer> {
+
+}
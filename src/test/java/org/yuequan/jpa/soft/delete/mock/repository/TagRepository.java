@@ -0,0 +1,11 @@
+package org.yuequan.jpa.soft.delete.mock.repository;
+
+import org.yuequan.jpa.soft.delete.mock.entity.Tag;
+import org.yuequan.jpa.soft.delete.repository.SoftDelete;
+import org.yuequan.jpa.soft.delete.repository.SoftDeleteRepository;
+import org.yuequan.jpa.soft.delete.repository.SoftDeleteStrategy;
+
+@SoftDelete(property = "deleted", strategy = SoftDeleteStrategy.BOOLEAN)
+public interface TagRepository extends SoftDeleteRepository<Tag, Integer> {
+
+}
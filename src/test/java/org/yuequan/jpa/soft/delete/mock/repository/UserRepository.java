@@ -1,10 +1,36 @@
 package org.yuequan.jpa.soft.delete.mock.repository;
 
-import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.Query;
 import org.yuequan.jpa.soft.delete.mock.entity.User;
+import org.yuequan.jpa.soft.delete.mock.projection.UserView;
+import org.yuequan.jpa.soft.delete.repository.IncludeDeleted;
 import org.yuequan.jpa.soft.delete.repository.SoftDelete;
+import org.yuequan.jpa.soft.delete.repository.SoftDeleteOptions;
+import org.yuequan.jpa.soft.delete.repository.SoftDeleteRepository;
+
+import java.util.List;
 
 @SoftDelete
-public interface UserRepository extends JpaRepository<User, Integer> {
+@SoftDeleteOptions(batchSize = 64, fetchSize = 16, retention = "P30D")
+public interface UserRepository extends SoftDeleteRepository<User, Integer> {
+
+    List<User> findByName(String name);
+
+    long countByName(String name);
+
+    List<UserView> findLiveProjectedByName(String name);
+
+    Page<User> findByUsernameStartingWith(String prefix, Pageable pageable);
+
+    @Query("select u from User u where u.name = ?1 or u.username = ?1 order by u.id")
+    List<User> findByNameOrUsername(String nameOrUsername);
+
+    @Query("from User where username = ?1")
+    List<User> findByUsername(String username);
 
+    @IncludeDeleted
+    @Query("select u from User u where u.name = ?1")
+    List<User> findByNameIncludingDeleted(String name);
 }
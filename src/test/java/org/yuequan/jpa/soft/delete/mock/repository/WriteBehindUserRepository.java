@@ -0,0 +1,12 @@
+package org.yuequan.jpa.soft.delete.mock.repository;
+
+import org.yuequan.jpa.soft.delete.mock.entity.User;
+import org.yuequan.jpa.soft.delete.repository.SoftDelete;
+import org.yuequan.jpa.soft.delete.repository.SoftDeleteOptions;
+import org.yuequan.jpa.soft.delete.repository.SoftDeleteRepository;
+
+@SoftDelete
+@SoftDeleteOptions(writeBehind = true)
+public interface WriteBehindUserRepository extends SoftDeleteRepository<User, Integer> {
+
+}
@@ -0,0 +1,72 @@
+package org.yuequan.jpa.soft.delete.repository.support;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.yuequan.jpa.soft.delete.mock.entity.Country;
+import org.yuequan.jpa.soft.delete.repository.SoftDeleteStrategy;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest
+public class SoftDeleteArchiverTest {
+
+    @Autowired
+    private EntityManager entityManager;
+
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @After
+    public void cleanUp(){
+        jdbcTemplate.update("delete from countries");
+        jdbcTemplate.update("delete from countries_archive");
+        entityManagerFactory.getCache().evictAll();
+    }
+
+    @Test
+    public void testRowRestoredWhileArchivingIsNotLeftInBothTables() throws InterruptedException {
+        jdbcTemplate.update("insert into countries (name, removed_at) values ('Italy', current_timestamp)");
+
+        SoftDeleteArchive archive = SoftDeleteArchive.create(entityManager, Country.class,
+                SoftDeleteColumn.of(entityManager, Country.class, "removedAt", SoftDeleteStrategy.TIMESTAMP), "");
+        EntityManager restoringBeforeDelete = (EntityManager) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[]{EntityManager.class}, (proxy, method, args) -> {
+                    if (method.getName().equals("createNativeQuery") && ((String) args[0]).startsWith("delete from countries ")) {
+                        Thread restore = new Thread(() ->
+                                jdbcTemplate.update("update countries set removed_at = null where name = 'Italy'"));
+                        restore.start();
+                        restore.join(500);
+                    }
+                    try {
+                        return method.invoke(entityManager, args);
+                    } catch (InvocationTargetException ex) {
+                        throw ex.getTargetException();
+                    }
+                });
+        SoftDeleteArchiver archiver = new SoftDeleteArchiver("Country", restoringBeforeDelete, archive,
+                new TransactionTemplate(transactionManager), SoftDeleteMetrics.NONE);
+
+        archiver.archive(100, 0);
+        Integer live = jdbcTemplate.queryForObject("select count(*) from countries where name = 'Italy'", Integer.class);
+        Integer archived = jdbcTemplate.queryForObject("select count(*) from countries_archive where name = 'Italy'", Integer.class);
+        Assert.assertEquals(1, live + archived);
+    }
+}
@@ -0,0 +1,73 @@
+package org.yuequan.jpa.soft.delete.repository.support;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.jpa.repository.support.JpaEntityInformation;
+import org.springframework.data.jpa.repository.support.JpaEntityInformationSupport;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.yuequan.jpa.soft.delete.mock.entity.User;
+import org.yuequan.jpa.soft.delete.repository.SoftDeleteStrategy;
+
+import javax.persistence.EntityManager;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.Instant;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest
+public class SoftDeletePurgerTest {
+
+    @Autowired
+    private EntityManager entityManager;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @After
+    public void cleanUp(){
+        jdbcTemplate.update("delete from users where username like 'purger%'");
+    }
+
+    @Test
+    public void testRowRestoredAfterSelectSurvives() throws InterruptedException {
+        Timestamp expired = Timestamp.from(Instant.now().minus(Duration.ofDays(60)));
+        jdbcTemplate.update("insert into users (username, password, removed_at) values ('purger-restored', 'test', ?)", expired);
+        jdbcTemplate.update("insert into users (username, password, removed_at) values ('purger-expired', 'test', ?)", expired);
+
+        JpaEntityInformation<User, ?> information = JpaEntityInformationSupport.getEntityInformation(User.class, entityManager);
+        SoftDeleteQueries queries = new SoftDeleteQueries(information, SoftDeleteIdLayout.of(information),
+                SoftDeleteColumn.of(entityManager, User.class, "removedAt", SoftDeleteStrategy.TIMESTAMP), null);
+        EntityManager restoringBeforeDelete = (EntityManager) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[]{EntityManager.class}, (proxy, method, args) -> {
+                    if (method.getName().equals("createQuery") && args[0] instanceof String
+                            && ((String) args[0]).startsWith("delete")) {
+                        jdbcTemplate.update("update users set removed_at = null where username = 'purger-restored'");
+                    }
+                    try {
+                        return method.invoke(entityManager, args);
+                    } catch (InvocationTargetException ex) {
+                        throw ex.getTargetException();
+                    }
+                });
+        SoftDeletePurger purger = new SoftDeletePurger("User", restoringBeforeDelete, queries,
+                new TransactionTemplate(transactionManager), Duration.ofDays(30), SoftDeleteMetrics.NONE, null);
+
+        Assert.assertEquals(1, purger.purge(100, 0));
+        Assert.assertEquals(Integer.valueOf(1), jdbcTemplate.queryForObject(
+                "select count(*) from users where username = 'purger-restored' and removed_at is null", Integer.class));
+        Assert.assertEquals(Integer.valueOf(0), jdbcTemplate.queryForObject(
+                "select count(*) from users where username = 'purger-expired'", Integer.class));
+    }
+}